@@ -0,0 +1,30 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * A monitor of the network state, which asks the connectivity manager.
+ * @author Edmund Johnson.
+ */
+public class ConnectivityNetworkMonitor implements NetworkMonitor {
+
+    private final ConnectivityManager connectivityManager;
+
+    /**
+     * Constructor.
+     * @param context the context
+     */
+    public ConnectivityNetworkMonitor(Context context) {
+        connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+}
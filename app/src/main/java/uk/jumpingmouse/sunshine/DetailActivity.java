@@ -1,8 +1,13 @@
 package uk.jumpingmouse.sunshine;
 
 import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.ShareActionProvider;
@@ -15,6 +20,13 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import java.util.Locale;
+
+import uk.jumpingmouse.sunshine.data.ProviderForecastCache;
+import uk.jumpingmouse.sunshine.data.ProviderHourlySeriesStore;
+import uk.jumpingmouse.sunshine.data.WeatherContract.HourlyEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.WeatherEntry;
+
 
 public class DetailActivity extends AppCompatActivity {
     /** The log tag for this class. */
@@ -56,10 +68,52 @@ public class DetailActivity extends AppCompatActivity {
 
     /**
      * The fragment containing the detail view.
+     * The activity's intent identifies the day only by its location and date, in the URI
+     * in its data.  If the day is in the application's cache of recent days, e.g. because
+     * it was put there by the list it was chosen from, it is displayed immediately.
+     * The day is also loaded from the weather content provider in the background, so that
+     * the cache is refreshed and the display kept up to date as new forecasts are stored.
+     * The intraday series of the day's location is loaded at the same time, to chart the
+     * day's temperatures and summarise the day, without requesting anything from the
+     * weather service.
      */
-    public static class DetailFragment extends Fragment {
+    public static class DetailFragment extends Fragment
+            implements LoaderManager.LoaderCallbacks<Cursor> {
+
+        /** The id of the loader of the day's forecast. */
+        private static final int DETAIL_LOADER = 0;
+        /** The id of the loader of the intraday series of the day's location. */
+        private static final int HOURLY_LOADER = 1;
+
+        /** The URI of the day's forecast, which identifies its location and date. */
+        private Uri dayUri;
+        private String location;
+        private long epochDay;
+        /** The day's forecast, with temperatures in centigrade, or null until loaded. */
+        private DayForecast day;
+        /** The intent for sharing the day, created when the day is displayed. */
+        private Intent shareIntent;
+        /** The intraday series of the day's location, or null if there is none. */
+        private HourlySeries hourlySeries;
+
+        /** Listener which redisplays the day, from the values held, when the units change. */
+        private final DisplayUnits.Listener unitsListener = new DisplayUnits.Listener() {
+            @Override
+            public void onUnitsChanged(String units) {
+                if (day != null) {
+                    showForecast();
+                }
+                if (dayUri != null) {
+                    showHourlySeries();
+                }
+            }
+        };
 
-        private String forecast = null;
+        private TextView txtForecast;
+        private TextView txtDetails;
+        private TextView txtHourlySummary;
+        private IntradayChartView chartIntraday;
+        private ShareActionProvider shareActionProvider;
 
         public DetailFragment() {
             setHasOptionsMenu(true);
@@ -69,14 +123,37 @@ public class DetailActivity extends AppCompatActivity {
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                                  Bundle savedInstanceState) {
             View rootView = inflater.inflate(R.layout.fragment_detail, container, false);
+            txtForecast = (TextView) rootView.findViewById(R.id.txtForecast);
+            txtDetails = (TextView) rootView.findViewById(R.id.txtDetails);
+            txtHourlySummary = (TextView) rootView.findViewById(R.id.txtHourlySummary);
+            chartIntraday = (IntradayChartView) rootView.findViewById(R.id.chartIntraday);
+            getApplication().getDisplayUnits().addListener(unitsListener);
+            return rootView;
+        }
 
-            Intent intent = getActivity().getIntent();
-            forecast = intent.getStringExtra(Intent.EXTRA_TEXT);
+        @Override
+        public void onDestroyView() {
+            getApplication().getDisplayUnits().removeListener(unitsListener);
+            super.onDestroyView();
+        }
 
-            TextView txtForecast = (TextView) rootView.findViewById(R.id.txtForecast);
-            txtForecast.setText(forecast);
+        @Override
+        public void onActivityCreated(Bundle savedInstanceState) {
+            super.onActivityCreated(savedInstanceState);
+            dayUri = getActivity().getIntent().getData();
+            if (dayUri == null) {
+                return;
+            }
+            location = WeatherEntry.getLocationSettingFromUri(dayUri);
+            epochDay = WeatherEntry.getDateFromUri(dayUri);
 
-            return rootView;
+            day = getApplication().getRecentDays().get(DayForecast.key(location, epochDay));
+            if (day != null) {
+                showForecast();
+            }
+            // The location is known, so the series need not wait for the day to load
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+            getLoaderManager().initLoader(HOURLY_LOADER, null, this);
         }
 
         @Override
@@ -84,18 +161,151 @@ public class DetailActivity extends AppCompatActivity {
             inflater.inflate(R.menu.menu_detailfragment, menu);
 
             MenuItem menuItem = menu.findItem(R.id.menu_item_share);
-            ShareActionProvider actionProvider =
+            shareActionProvider =
                     (ShareActionProvider) MenuItemCompat.getActionProvider(menuItem);
-            if (actionProvider != null) {
-                Intent sendIntent = new Intent(Intent.ACTION_SEND);
-                //sendIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT); // API 21 onwards
-                sendIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
-                sendIntent.putExtra(Intent.EXTRA_TEXT, forecast + " #SunshineApp");
-                sendIntent.setType("text/plain");
-                actionProvider.setShareIntent(sendIntent);
-            } else {
+            if (shareActionProvider == null) {
                 Log.w(LOG_TAG, "Action provider for share intent is null");
+            } else if (shareIntent != null) {
+                shareActionProvider.setShareIntent(shareIntent);
+            }
+        }
+
+        /**
+         * Returns an intent for sharing a forecast.
+         * @param forecast the forecast, as displayed
+         * @return an intent for sharing the forecast
+         */
+        private static Intent createShareIntent(String forecast) {
+            Intent sendIntent = new Intent(Intent.ACTION_SEND);
+            //sendIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT); // API 21 onwards
+            sendIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
+            sendIntent.putExtra(Intent.EXTRA_TEXT, forecast + " #SunshineApp");
+            sendIntent.setType("text/plain");
+            return sendIntent;
+        }
+
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            if (id == HOURLY_LOADER) {
+                return new CursorLoader(getActivity(), HourlyEntry.buildHourlyLocation(location),
+                        ProviderHourlySeriesStore.SERIES_COLUMNS, null, null, null);
+            }
+            return new CursorLoader(getActivity(), dayUri,
+                    ProviderForecastCache.FORECAST_COLUMNS, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (loader.getId() == HOURLY_LOADER) {
+                hourlySeries = cursor.moveToFirst()
+                        ? ProviderHourlySeriesStore.readSeries(cursor) : null;
+                showHourlySeries();
+                return;
+            }
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            day = ProviderForecastCache.readDay(cursor);
+            getApplication().getRecentDays().put(day.getKey(), day);
+            showForecast();
+        }
+
+        /**
+         * Displays the day's forecast and detail in the current units, and creates the
+         * intent for sharing it, so that creating the menu need not.
+         */
+        private void showForecast() {
+            ForecastFormatter formatter = getApplication().getForecastFormatter();
+            String units = getApplication().getDisplayUnits().getUnits();
+            String forecast = formatter.formatDay(epochDay, day.getCondition(), day.getHigh(),
+                    day.getLow(), units, Locale.getDefault());
+            txtForecast.setText(forecast);
+            txtDetails.setText(formatDetails(formatter, units));
+
+            shareIntent = createShareIntent(forecast);
+            if (shareActionProvider != null) {
+                shareActionProvider.setShareIntent(shareIntent);
+            }
+        }
+
+        /**
+         * Formats the day's humidity, pressure and wind, one per line, omitting any which
+         * are unknown.
+         * @param formatter the formatter
+         * @param units the units, "metric" or "imperial"
+         * @return the formatted detail
+         */
+        private String formatDetails(ForecastFormatter formatter, String units) {
+            StringBuilder details = new StringBuilder();
+            if (!Double.isNaN(day.getHumidity())) {
+                details.append(getString(R.string.detail_humidity,
+                        Math.round(day.getHumidity())));
+            }
+            if (!Double.isNaN(day.getPressure())) {
+                appendLine(details, getString(R.string.detail_pressure,
+                        Math.round(day.getPressure())));
+            }
+            if (!Double.isNaN(day.getWindSpeed())) {
+                int windFormat = ForecastFormatter.UNITS_IMPERIAL.equals(units)
+                        ? R.string.detail_wind_imperial : R.string.detail_wind_metric;
+                String direction = Double.isNaN(day.getWindDirection())
+                        ? "" : formatter.getCompassPoint(day.getWindDirection());
+                appendLine(details, getString(windFormat,
+                        Math.round(formatter.formatWindSpeed(day.getWindSpeed(), units)),
+                        direction).trim());
             }
+            return details.toString();
+        }
+
+        /**
+         * Appends a line to a multi-line string.
+         * @param builder the string
+         * @param line the line
+         */
+        private static void appendLine(StringBuilder builder, String line) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(line);
+        }
+
+        /**
+         * Charts the day's temperatures from the intraday series in the current units, and
+         * summarises the day by aggregating its samples.
+         */
+        private void showHourlySeries() {
+            HourlySeries series = hourlySeries;
+            ForecastFormatter formatter = getApplication().getForecastFormatter();
+            String units = getApplication().getDisplayUnits().getUnits();
+            chartIntraday.setSeries(series, epochDay, formatter, units);
+
+            DailyAggregator aggregator = series == null ? null : series.aggregateDaily(epochDay, 1);
+            Forecast aggregated = aggregator == null ? null : aggregator.getForecast();
+            if (aggregated == null || aggregated.getDayCount() == 0
+                    || aggregated.getEpochDay(0) != epochDay) {
+                // The series does not cover the day, e.g. it is beyond the fifth day
+                chartIntraday.setVisibility(View.GONE);
+                txtHourlySummary.setVisibility(View.GONE);
+                return;
+            }
+            chartIntraday.setVisibility(View.VISIBLE);
+            txtHourlySummary.setVisibility(View.VISIBLE);
+            txtHourlySummary.setText(getString(R.string.detail_hourly_summary,
+                    Math.round(formatter.formatTemperature(aggregator.getMean(0), units)),
+                    aggregated.getCondition(0)));
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            // Nothing to release, neither the forecast text nor the chart references a cursor
+        }
+
+        /**
+         * Returns the application, which holds the shared formatter and units.
+         * @return the application
+         */
+        private SunshineApplication getApplication() {
+            return (SunshineApplication) getActivity().getApplication();
         }
 
     }
@@ -0,0 +1,93 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The units in which temperatures are displayed, kept up to date with the units preference.
+ * <p>
+ * Forecasts are fetched, parsed and stored in centigrade whatever the preference, and only
+ * converted when they are displayed.  A change of units therefore needs no fetch, parse or
+ * query: listeners are told of the change as soon as the preference is saved, and simply
+ * redisplay what they already hold.
+ * <p>
+ * Shared preferences only hold their listeners weakly, so an instance must be kept for as
+ * long as it is listening, as the application does.  Must be used on the main thread.
+ * @author Edmund Johnson.
+ */
+public class DisplayUnits implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private final Context context;
+    private final String unitsKey;
+    private final List<Listener> listeners = new ArrayList<>();
+    /** The current units, "metric" for centigrade, "imperial" for fahrenheit. */
+    private String units;
+
+    /**
+     * Constructor.  The instance listens for changes to the preference from construction.
+     * @param context the context
+     */
+    public DisplayUnits(Context context) {
+        this.context = context.getApplicationContext();
+        this.unitsKey = context.getString(R.string.pref_units_key);
+        this.units = ForecastPreferences.getUnits(context);
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * Returns the units in which temperatures are displayed.
+     * @return the units, "metric" for centigrade, "imperial" for fahrenheit
+     */
+    public String getUnits() {
+        return units;
+    }
+
+    /**
+     * Adds a listener for changes to the units.
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addListener}.
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (!unitsKey.equals(key)) {
+            return;
+        }
+        String newUnits = ForecastPreferences.getUnits(context);
+        if (newUnits.equals(units)) {
+            return;
+        }
+        units = newUnits;
+        // Iterate over a copy, as a listener may remove itself
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onUnitsChanged(units);
+        }
+    }
+
+    /**
+     * Listener for changes to the units in which temperatures are displayed.
+     */
+    public interface Listener {
+        /**
+         * Called on the main thread when the units have changed.
+         * @param units the new units, "metric" for centigrade, "imperial" for fahrenheit
+         */
+        void onUnitsChanged(String units);
+    }
+
+}
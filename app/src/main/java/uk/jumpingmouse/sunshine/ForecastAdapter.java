@@ -0,0 +1,226 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapter which displays the days of a {@link Forecast} in a RecyclerView.
+ * The first day is displayed as a header, in its own view type, and the other days as rows.
+ * <p>
+ * The text for a day is only formatted when its row is bound to a view, so changing
+ * the units or locale only requires the visible rows to be redisplayed.  When a new
+ * forecast is set, the differences from the displayed one are calculated on a background
+ * thread, so that only the rows which have changed are rebound.
+ * @author Edmund Johnson.
+ */
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ViewHolder> {
+
+    /** The view type of the first day, which is displayed as a header. */
+    private static final int VIEW_TYPE_TODAY = 0;
+    /** The view type of the other days. */
+    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+
+    private final LayoutInflater inflater;
+    private final ForecastFormatter formatter;
+    private final Executor diffExecutor;
+    private final Executor mainThreadExecutor = new MainThreadExecutor();
+    /** The time taken to bind each row, in microseconds. */
+    private final MetricsRegistry.Histogram bindMicros;
+
+    /** The forecast being displayed, or null if there is none yet. */
+    private Forecast forecast;
+    /** The units in which to display temperatures. */
+    private String units;
+    /** The number of forecasts set, used to discard the diffs of superseded forecasts. */
+    private int generation;
+    /** The listener for clicks on days, or null if there is none. */
+    private OnDayClickListener onDayClickListener;
+
+    /**
+     * Constructor.
+     * @param context the context
+     * @param formatter the formatter for the days of the forecast
+     * @param diffExecutor the executor on which the differences between forecasts are calculated
+     * @param units the units in which to display temperatures
+     * @param metrics the registry in which the time taken to bind rows is recorded
+     */
+    public ForecastAdapter(Context context, ForecastFormatter formatter, Executor diffExecutor,
+                           String units, MetricsRegistry metrics) {
+        this.inflater = LayoutInflater.from(context);
+        this.formatter = formatter;
+        this.diffExecutor = diffExecutor;
+        this.units = units;
+        this.bindMicros = metrics.histogram("ui.bind_us", MetricsRegistry.BOUNDS_MICROS);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Sets the forecast to be displayed.
+     * If a forecast is already displayed, the rows are updated once the differences between
+     * the forecasts have been calculated in the background.  Must be called on the main thread.
+     * @param newForecast the forecast to be displayed
+     */
+    public void setForecast(final Forecast newForecast) {
+        final int newGeneration = ++generation;
+        final Forecast oldForecast = forecast;
+        if (oldForecast == null || newForecast == null) {
+            // There is nothing to compare, so redisplay everything
+            forecast = newForecast;
+            notifyDataSetChanged();
+            return;
+        }
+
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ForecastDiff diff = ForecastDiff.calculate(oldForecast, newForecast);
+                mainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer forecast has been set since the diff was requested
+                        if (newGeneration != generation) {
+                            return;
+                        }
+                        applyDiff(newForecast, diff);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Displays a new forecast by applying its differences from the displayed one.
+     * @param newForecast the new forecast
+     * @param diff the differences between the displayed forecast and the new one
+     */
+    private void applyDiff(Forecast newForecast, ForecastDiff diff) {
+        long oldFirstDay = forecast.getDayCount() == 0 ? 0 : forecast.getEpochDay(0);
+        forecast = newForecast;
+        diff.dispatchUpdatesTo(new ForecastDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+        // A day which has moved into the header position must be rebound in the header layout
+        if (newForecast.getDayCount() > 0 && newForecast.getEpochDay(0) != oldFirstDay) {
+            notifyItemChanged(0);
+        }
+    }
+
+    /**
+     * Returns the forecast being displayed.
+     * @return the forecast being displayed, or null if there is none
+     */
+    public Forecast getForecast() {
+        return forecast;
+    }
+
+    /**
+     * Sets the units in which temperatures are displayed, redisplaying the list if they
+     * have changed.
+     * @param units the units, "metric" for centigrade, "imperial" for fahrenheit
+     */
+    public void setUnits(String units) {
+        if (units != null && !units.equals(this.units)) {
+            this.units = units;
+            notifyItemRangeChanged(0, getItemCount());
+        }
+    }
+
+    /**
+     * Sets the listener for clicks on days.
+     * @param onDayClickListener the listener, or null for none
+     */
+    public void setOnDayClickListener(OnDayClickListener onDayClickListener) {
+        this.onDayClickListener = onDayClickListener;
+    }
+
+    @Override
+    public int getItemCount() {
+        return forecast == null ? 0 : forecast.getDayCount();
+    }
+
+    /**
+     * Returns the id of the day at a position, which is its date, as the number of days
+     * since 1970-01-01.
+     * @param position the position of the day in the list
+     * @return the id of the day
+     */
+    @Override
+    public long getItemId(int position) {
+        return forecast.getEpochDay(position);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return position == 0 ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        int layoutId = viewType == VIEW_TYPE_TODAY
+                ? R.layout.list_item_forecast_today
+                : R.layout.list_item_forecast;
+        return new ViewHolder((TextView) inflater.inflate(layoutId, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long startNanos = System.nanoTime();
+        holder.textView.setText(formatter.formatDay(forecast, position, units, Locale.getDefault()));
+        bindMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * The view of a day in the list.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        private final TextView textView;
+
+        ViewHolder(TextView textView) {
+            super(textView);
+            this.textView = textView;
+            textView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            // The position may be unknown while an update is being laid out
+            int position = getAdapterPosition();
+            if (onDayClickListener != null && position != RecyclerView.NO_POSITION) {
+                onDayClickListener.onDayClick(forecast.getEpochDay(position));
+            }
+        }
+    }
+
+    /**
+     * Listener for clicks on the days of the forecast.
+     */
+    public interface OnDayClickListener {
+        /**
+         * Called when a day has been clicked.
+         * @param epochDay the date of the day, as the number of days since 1970-01-01
+         */
+        void onDayClick(long epochDay);
+    }
+
+}
@@ -0,0 +1,104 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access to the user's forecast preferences, shared by the app's components.
+ * @author Edmund Johnson.
+ */
+public final class ForecastPreferences {
+
+    /** The day count for requesting a forecast for the next week, used by default. */
+    private static final int DAY_COUNT_SEVEN = 7;
+    /**
+     * The separator between locations in the saved locations preference.  This is not a
+     * comma, as a location may contain one, e.g. "London,GB", or "51.45,-2.59".
+     */
+    private static final String SAVED_LOCATIONS_SEPARATOR = ";";
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ForecastPreferences() {
+    }
+
+    /**
+     * Returns the current preference setting for the location.
+     * @param context the context
+     * @return the current preference setting for the location
+     */
+    public static String getLocation(Context context) {
+        return getPreference(context, R.string.pref_location_key, R.string.pref_location_default);
+    }
+
+    /**
+     * Returns the current preference setting for the saved locations.
+     * @param context the context
+     * @return the saved locations, separated by semicolons
+     */
+    public static String getSavedLocations(Context context) {
+        return getPreference(context, R.string.pref_saved_locations_key,
+                R.string.pref_saved_locations_default);
+    }
+
+    /**
+     * Returns the current preference setting for the temperature units.
+     * @param context the context
+     * @return the current preference setting for the temperature units
+     */
+    public static String getUnits(Context context) {
+        return getPreference(context, R.string.pref_units_key, R.string.pref_units_default);
+    }
+
+    /**
+     * Returns the current preference setting for the number of days of forecast to request,
+     * either a week or the extended range of 16 days.
+     * @param context the context
+     * @return the number of days of forecast to request
+     */
+    public static int getDayCount(Context context) {
+        String dayCount = getPreference(context, R.string.pref_day_count_key,
+                R.string.pref_day_count_default);
+        try {
+            return Integer.parseInt(dayCount);
+        } catch (NumberFormatException e) {
+            return DAY_COUNT_SEVEN;
+        }
+    }
+
+    /**
+     * Returns the locations whose forecasts should be fetched: the current location,
+     * followed by the saved locations.
+     * @param context the context
+     * @return the locations whose forecasts should be fetched, without duplicates
+     */
+    public static List<String> getLocationsToFetch(Context context) {
+        List<String> locations = new ArrayList<>();
+        locations.add(getLocation(context));
+        for (String savedLocation : getSavedLocations(context).split(SAVED_LOCATIONS_SEPARATOR)) {
+            savedLocation = savedLocation.trim();
+            if (savedLocation.length() > 0 && !locations.contains(savedLocation)) {
+                locations.add(savedLocation);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Returns a current preference.
+     * @param context the context
+     * @param key the string resource id of the preference's key
+     * @param defaultValue the string resource id of the preference's default value
+     * @return the current preference setting for the preference
+     */
+    private static String getPreference(Context context, int key, int defaultValue) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(key), context.getString(defaultValue));
+    }
+
+}
@@ -0,0 +1,129 @@
+package uk.jumpingmouse.sunshine;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Background service which keeps the cached forecasts for the current and saved locations
+ * up to date, so that they can be displayed as soon as the app is opened.
+ * <p>
+ * The service is started by an inexact, non-waking repeating alarm, so the system can
+ * deliver it alongside other apps' alarms while the device is already awake, rather than
+ * waking the device and the radio just for this.  The sync only goes ahead on an unmetered
+ * network or while the device is charging; otherwise it waits for the next alarm.
+ * @author Edmund Johnson.
+ */
+public class ForecastSyncService extends IntentService {
+    /** The log tag for this class. */
+    private static final String LOG_TAG = ForecastSyncService.class.getSimpleName();
+
+    /**
+     * Default constructor.
+     */
+    public ForecastSyncService() {
+        super(ForecastSyncService.class.getSimpleName());
+    }
+
+    /**
+     * Schedules the periodic sync.  Scheduling it again replaces the existing schedule,
+     * so this can safely be called whenever the app starts.
+     * @param context the context
+     */
+    public static void schedulePeriodicSync(Context context) {
+        long intervalMillis = context.getResources().getInteger(R.integer.sync_interval_minutes)
+                * DateUtils.MINUTE_IN_MILLIS;
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+                new Intent(context, ForecastSyncService.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // ELAPSED_REALTIME rather than ELAPSED_REALTIME_WAKEUP: the sync is not worth waking
+        // the device for, and inexact alarms are batched with other apps' alarms.
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + intervalMillis, intervalMillis, pendingIntent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!isGoodTimeToSync()) {
+            Log.d(LOG_TAG, "Sync deferred until an unmetered network or charging");
+            return;
+        }
+
+        SunshineApplication application = (SunshineApplication) getApplication();
+        ForecastTransport transport = application.getForecastTransport();
+        List<String> locations = ForecastPreferences.getLocationsToFetch(this);
+        int dayCount = ForecastPreferences.getDayCount(this);
+        long nowMillis = System.currentTimeMillis();
+        boolean fetched = false;
+
+        for (String location : locations) {
+            ForecastCache.Entry cacheEntry = transport.getCached(location, dayCount);
+            if (cacheEntry != null && cacheEntry.isFresh(nowMillis)) {
+                continue;
+            }
+            try {
+                transport.fetch(location, dayCount, cacheEntry);
+                fetched = true;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "IOException while syncing weather data for " + location
+                        + ": " + e.getMessage());
+            }
+        }
+
+        // The widget is rendered from the stored forecast, so only changes when it does
+        if (fetched) {
+            TodayWidgetProvider.updateAllWidgets(this);
+        }
+    }
+
+    /**
+     * Returns whether now is a cheap time to sync: the device must be connected, and either
+     * the network must be unmetered or the device must be charging.
+     * @return true if the sync should go ahead, otherwise false
+     */
+    private boolean isGoodTimeToSync() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return false;
+        }
+        if (!ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager)) {
+            return true;
+        }
+
+        // ACTION_BATTERY_CHANGED is sticky, so no receiver is needed to read it
+        Intent batteryStatus = registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return batteryStatus != null
+                && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * Receiver which restores the periodic sync when the device restarts,
+     * as alarms do not survive a reboot.
+     */
+    public static class BootReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            schedulePeriodicSync(context);
+        }
+    }
+
+}
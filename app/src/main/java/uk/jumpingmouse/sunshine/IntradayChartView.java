@@ -0,0 +1,182 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * A chart of the temperature through a day, drawn from the samples of an intraday series.
+ * <p>
+ * The points and labels are computed when the series or size changes, and the paints and
+ * path are allocated once, so drawing a frame allocates nothing.
+ * @author Edmund Johnson.
+ */
+public class IntradayChartView extends View {
+
+    /** The number of seconds in a day. */
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    /** The size of the labels, in sp. */
+    private static final float LABEL_SIZE_SP = 12;
+    /** The radius of the points and width of the line, in dp. */
+    private static final float POINT_RADIUS_DP = 3;
+    private static final float LINE_WIDTH_DP = 2;
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint pointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path linePath = new Path();
+    private final float pointRadius;
+
+    /** The day's samples: the time of day, in seconds, and the temperature in display units. */
+    private int sampleCount;
+    private long[] secondsOfDay = new long[8];
+    private float[] temperatures = new float[8];
+    /** The positions of the samples on the view, computed from the samples and size. */
+    private float[] pointXs = new float[8];
+    private float[] pointYs = new float[8];
+    private String highLabel;
+    private String lowLabel;
+
+    /**
+     * Constructor.
+     * @param context the context
+     * @param attrs the attributes of the view
+     */
+    public IntradayChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float labelSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, LABEL_SIZE_SP,
+                getResources().getDisplayMetrics());
+        pointRadius = dpToPixels(POINT_RADIUS_DP);
+
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(dpToPixels(LINE_WIDTH_DP));
+        linePaint.setColor(0xff1e88e5);
+        pointPaint.setColor(0xff1e88e5);
+        labelPaint.setTextSize(labelSize);
+        labelPaint.setColor(0x8a000000);
+    }
+
+    /**
+     * Sets the samples of the day to be charted.
+     * @param series the intraday series, or null if there is none
+     * @param epochDay the day, as the number of days since 1970-01-01 (UTC)
+     * @param formatter the formatter for converting temperatures to display units
+     * @param units the units, "metric" for centigrade, "imperial" for fahrenheit
+     */
+    public void setSeries(HourlySeries series, long epochDay, ForecastFormatter formatter,
+                          String units) {
+        sampleCount = 0;
+        if (series != null) {
+            long startSecond = epochDay * SECONDS_PER_DAY;
+            for (int i = series.getFirstPositionOfDay(epochDay); i < series.getSampleCount()
+                    && series.getEpochSecond(i) < startSecond + SECONDS_PER_DAY; i++) {
+                ensureCapacity(sampleCount + 1);
+                secondsOfDay[sampleCount] = series.getEpochSecond(i) - startSecond;
+                temperatures[sampleCount] =
+                        (float) formatter.formatTemperature(series.getTemperature(i), units);
+                sampleCount++;
+            }
+        }
+
+        if (sampleCount > 0) {
+            float high = temperatures[0];
+            float low = temperatures[0];
+            for (int i = 1; i < sampleCount; i++) {
+                high = Math.max(high, temperatures[i]);
+                low = Math.min(low, temperatures[i]);
+            }
+            highLabel = Math.round(high) + "\u00b0";
+            lowLabel = Math.round(low) + "\u00b0";
+        }
+        computePoints();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        computePoints();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (sampleCount == 0) {
+            return;
+        }
+        canvas.drawPath(linePath, linePaint);
+        for (int i = 0; i < sampleCount; i++) {
+            canvas.drawCircle(pointXs[i], pointYs[i], pointRadius, pointPaint);
+        }
+        canvas.drawText(highLabel, getPaddingLeft(), getPaddingTop() - labelPaint.ascent(),
+                labelPaint);
+        canvas.drawText(lowLabel, getPaddingLeft(), getHeight() - getPaddingBottom(),
+                labelPaint);
+    }
+
+    /**
+     * Computes the positions of the samples on the view, and the line through them.
+     * The horizontal axis is the time of day, and the vertical axis spans the day's range
+     * of temperatures.
+     */
+    private void computePoints() {
+        linePath.reset();
+        if (sampleCount == 0 || getWidth() == 0) {
+            return;
+        }
+        float labelWidth = labelPaint.measureText("-00\u00b0");
+        float left = getPaddingLeft() + labelWidth + pointRadius;
+        float right = getWidth() - getPaddingRight() - pointRadius;
+        float top = getPaddingTop() + pointRadius;
+        float bottom = getHeight() - getPaddingBottom() - pointRadius;
+
+        float high = temperatures[0];
+        float low = temperatures[0];
+        for (int i = 1; i < sampleCount; i++) {
+            high = Math.max(high, temperatures[i]);
+            low = Math.min(low, temperatures[i]);
+        }
+        float range = Math.max(high - low, 1);
+
+        for (int i = 0; i < sampleCount; i++) {
+            pointXs[i] = left + (right - left) * secondsOfDay[i] / SECONDS_PER_DAY;
+            pointYs[i] = bottom - (bottom - top) * (temperatures[i] - low) / range;
+            if (i == 0) {
+                linePath.moveTo(pointXs[i], pointYs[i]);
+            } else {
+                linePath.lineTo(pointXs[i], pointYs[i]);
+            }
+        }
+    }
+
+    /**
+     * Ensures the sample arrays can hold a number of samples.
+     * @param capacity the number of samples
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > secondsOfDay.length) {
+            int newLength = Math.max(capacity, secondsOfDay.length * 2);
+            secondsOfDay = Arrays.copyOf(secondsOfDay, newLength);
+            temperatures = Arrays.copyOf(temperatures, newLength);
+            pointXs = Arrays.copyOf(pointXs, newLength);
+            pointYs = Arrays.copyOf(pointYs, newLength);
+        }
+    }
+
+    /**
+     * Converts a size in dp to pixels.
+     * @param dp the size, in dp
+     * @return the size, in pixels
+     */
+    private float dpToPixels(float dp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp,
+                getResources().getDisplayMetrics());
+    }
+
+}
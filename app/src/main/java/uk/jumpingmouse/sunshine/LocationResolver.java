@@ -0,0 +1,119 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Resolves locations entered by the user to places, off the main thread.
+ * <p>
+ * A location is looked up in the place store first, and only geocoded if its coordinates
+ * are not yet known; the geocoded coordinates are then stored, so each location is
+ * geocoded at most once.  Geocoding is a blocking network call, so is never done on the
+ * main thread.
+ * @author Edmund Johnson.
+ */
+public class LocationResolver {
+
+    private final Context context;
+    private final PlaceStore placeStore;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+
+    /**
+     * Constructor.
+     * @param context the context
+     * @param placeStore the store of the places to which locations have been resolved
+     * @param executor the executor on which locations are resolved
+     * @param callbackExecutor the executor on which callbacks are called
+     */
+    public LocationResolver(Context context, PlaceStore placeStore, Executor executor,
+                            Executor callbackExecutor) {
+        this.context = context.getApplicationContext();
+        this.placeStore = placeStore;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Resolves a location to a place, with known coordinates.
+     * @param location the location setting
+     * @param callback the callback to be given the place
+     */
+    public void resolve(final String location, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Place place = resolveNow(location);
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResolved(location, place);
+                        }
+                    });
+                } catch (final IOException e) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailure(location, e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Resolves a location to a place, on the calling thread.
+     * @param location the location setting
+     * @return the place, with known coordinates
+     * @throws IOException if the location cannot be geocoded
+     */
+    private Place resolveNow(String location) throws IOException {
+        Place storedPlace = placeStore.getPlace(location);
+        if (storedPlace != null && storedPlace.hasCoordinates()) {
+            return storedPlace;
+        }
+
+        if (!Geocoder.isPresent()) {
+            throw new IOException("No geocoder is available");
+        }
+        List<Address> addresses = new Geocoder(context).getFromLocationName(location, 1);
+        if (addresses == null || addresses.isEmpty()) {
+            throw new IOException("Location not found: " + location);
+        }
+        Address address = addresses.get(0);
+        Place geocodedPlace = new Place(Place.NO_CITY_ID,
+                address.getLatitude(), address.getLongitude());
+
+        Place place = storedPlace == null ? geocodedPlace : storedPlace.merge(geocodedPlace);
+        placeStore.putPlace(location, place);
+        return place;
+    }
+
+    /**
+     * Callback for the result of resolving a location.
+     * All methods are called on the callback executor.
+     */
+    public interface Callback {
+        /**
+         * Called when a location has been resolved.
+         * @param location the location setting
+         * @param place the place, with known coordinates
+         */
+        void onResolved(String location, Place place);
+
+        /**
+         * Called when a location could not be resolved.
+         * @param location the location setting
+         * @param e the exception which caused the failure
+         */
+        void onFailure(String location, IOException e);
+    }
+
+}
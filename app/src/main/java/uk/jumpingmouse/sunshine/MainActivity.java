@@ -6,6 +6,9 @@ import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 
 /**
  * The main activity.
@@ -17,6 +20,11 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+
+        if (savedInstanceState == null) {
+            // Keep the forecasts up to date in the background, ready for the next launch
+            ForecastSyncService.schedulePeriodicSync(this);
+        }
     }
 
     @Override
@@ -43,4 +51,21 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Writes the state of the activity, followed by the startup milestones and the metrics
+     * of fetching, parsing and displaying forecasts.  Run while the app is in the foreground:
+     * {@code adb shell dumpsys activity top}
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        SunshineApplication application = (SunshineApplication) getApplication();
+        writer.print(prefix);
+        writer.println("Sunshine " + BuildConfig.VERSION_NAME + " startup: "
+                + application.getStartupTimer());
+        writer.print(prefix);
+        writer.println("Sunshine metrics:");
+        application.getMetrics().dump(writer);
+    }
+
 }
@@ -1,16 +1,22 @@
 package uk.jumpingmouse.sunshine;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.location.Address;
-import android.location.Geocoder;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -18,66 +24,117 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONException;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+import uk.jumpingmouse.sunshine.data.ProviderForecastCache;
+import uk.jumpingmouse.sunshine.data.WeatherContract.WeatherEntry;
+
 /**
  * The fragment which displays the list of daily forecasts.
  * @author Edmund Johnson.
  */
-public class MainFragment extends Fragment {
+public class MainFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
     /** The log tag for this class. */
     private static final String LOG_TAG = MainFragment.class.getSimpleName();
 
-    /**
-     * The base URL for requesting a daily weather forecast from OpenWeatherMap.
-     * Possible parameters are available at OpenWeatherMap's forecast API page,
-     * at http://openweathermap.org/API#forecast
-     * Example of a full URL:
-     * http://api.openweathermap.org/data/2.5/forecast/daily?id=2654675&mode=json&units=metric&cnt=7
-     */
-    private static final String URL_DAILY_FORECAST = "http://api.openweathermap.org/data/2.5/forecast/daily";
-    /** The forecast URL parameter for the city id ("q" does not work for Bristol, UK). */
-    //private static final String FORECAST_PARAM_CITY_ID = "id";
-    private static final String FORECAST_PARAM_CITY_ID = "q";
-    /** The forecast URL parameter for the format required (JSON, XML, etc.). */
-    private static final String FORECAST_PARAM_MODE = "mode";
-    /** The forecast URL parameter for the units required (metric, imperial, etc.). */
-    private static final String FORECAST_PARAM_UNITS = "units";
-    /** The forecast URL parameter for the number of days required. */
-    private static final String FORECAST_PARAM_DAY_COUNT = "cnt";
-
     /** The city id for Bristol. */
     //private static final String CITY_ID_BRISTOL = "2654675";
     /** The city id for Mountain View. */
     //private static final String CITY_ID_MOUNTAIN_VIEW = "94043";
-    /** The mode for requesting a forecast in JSON format. */
-    private static final String MODE_JSON = "json";
-    /** The units for requesting a forecast in metric format. */
-    private static final String UNITS_METRIC = "metric";
-    /** The day count for requesting a forecast for the next week. */
-    private static final int DAY_COUNT_SEVEN = 7;
 
-    private WeatherDataParser weatherDataParser;
+    /** The id of the loader of the forecast for the current location. */
+    private static final int FORECAST_LOADER = 0;
+
+    /** The time without a further request after which a refresh is made. */
+    private static final long REFRESH_DEBOUNCE_MILLIS = 500;
+    /** The maximum time for which a request to refresh waits for further requests. */
+    private static final long REFRESH_MAX_DELAY_MILLIS = 2 * DateUtils.SECOND_IN_MILLIS;
+    /** The minimum time between refreshes which fetch forecasts even if they are fresh. */
+    private static final long MIN_FORCED_REFRESH_INTERVAL_MILLIS = DateUtils.MINUTE_IN_MILLIS;
+
+    private ForecastAdapter forecastAdapter;
+    private TextView txtStatus;
+    /** The coalescer which merges bursts of requests to refresh into one weather update. */
+    private RefreshCoalescer refreshCoalescer;
+
+    /** The cursor from which the forecast was last read, or null if there is none. */
+    private Cursor forecastCursor;
+    /** The location whose forecast is being loaded. */
+    private String loadedLocation;
+    /** The time at which the displayed forecast was fetched, or 0 if there is none. */
+    private long fetchedAtMillis;
+    /** The failure of the last fetch for the loaded location, or null if it did not fail. */
+    private IOException fetchFailure;
+    /** Whether the fragment's first frame has been drawn. */
+    private boolean firstFrameDrawn;
+    /** Whether the weather is to be updated once the first frame has been drawn. */
+    private boolean weatherUpdatePending;
+
+    /** Receiver which updates the weather when the device comes back online. */
+    private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            boolean connected = !intent.getBooleanExtra(
+                    ConnectivityManager.EXTRA_NO_CONNECTIVITY, false);
+            if (connected && fetchFailure instanceof OfflineException) {
+                refreshCoalescer.request(false);
+            }
+        }
+    };
 
-    private List<String> weekForecastItems;
+    /** Listener which redisplays the forecast as soon as the units are changed. */
+    private final DisplayUnits.Listener unitsListener = new DisplayUnits.Listener() {
+        @Override
+        public void onUnitsChanged(String units) {
+            // Temperatures are held in centigrade, so only the visible rows need rebinding
+            forecastAdapter.setUnits(units);
+            updateWidgets();
+        }
+    };
 
-    private ArrayAdapter<String> forecastAdapter;
+    /**
+     * Listener for the drawing of the first frame, which records its time, and then starts
+     * any pending weather update.  Deferring the update keeps the creation of the fetch
+     * scheduler, HTTP client and parser, and the reads of the preferences they need, off
+     * the path to the first frame.
+     */
+    private final ViewTreeObserver.OnPreDrawListener firstFrameListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            View view = getView();
+            if (view == null) {
+                return true;
+            }
+            view.getViewTreeObserver().removeOnPreDrawListener(this);
+            firstFrameDrawn = true;
+            StartupTimer startupTimer = getApplication().getStartupTimer();
+            if (startupTimer.markFrame(SystemClock.elapsedRealtime())) {
+                Log.i(LOG_TAG, "Startup " + BuildConfig.VERSION_NAME + ": first frame "
+                        + startupTimer.getTimeToFirstFrameMillis() + "ms after process start");
+            }
+            // Posted, so that it runs once the frame has been drawn
+            view.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (weatherUpdatePending) {
+                        weatherUpdatePending = false;
+                        refreshCoalescer.request(false);
+                    }
+                }
+            });
+            return true;
+        }
+    };
+
+    /** The subscriptions to the fetches requested by the last weather update. */
+    private List<FetchScheduler.Subscription> subscriptions = new ArrayList<>();
 
 
     /**
@@ -104,6 +161,15 @@ public class MainFragment extends Fragment {
         super.onCreate(savedInstanceState);
         // Indicate that the fragment can handle menu events
         this.setHasOptionsMenu(true);
+        refreshCoalescer = new RefreshCoalescer(new MainThreadExecutor(), Clock.SYSTEM,
+                REFRESH_DEBOUNCE_MILLIS, REFRESH_MAX_DELAY_MILLIS,
+                MIN_FORCED_REFRESH_INTERVAL_MILLIS, getApplication().getMetrics(),
+                new RefreshCoalescer.Action() {
+                    @Override
+                    public void refresh(boolean forceFetch) {
+                        updateWeather(forceFetch);
+                    }
+                });
     }
 
     /**
@@ -124,39 +190,59 @@ public class MainFragment extends Fragment {
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        weekForecastItems = new ArrayList<>();
-
-        forecastAdapter = new ArrayAdapter<String>(
-                // the current context
-                getActivity(),
-                // the list item layout
-                R.layout.list_item_forecast,
-                // the TextView to populate
-                R.id.list_item_forecast_textview,
-                weekForecastItems);
+        SunshineApplication application = (SunshineApplication) getActivity().getApplication();
+        DisplayUnits displayUnits = application.getDisplayUnits();
+        forecastAdapter = new ForecastAdapter(getActivity(), application.getForecastFormatter(),
+                application.getBackgroundExecutor(), displayUnits.getUnits(),
+                application.getMetrics());
+        displayUnits.addListener(unitsListener);
 
         // Inflate the fragment
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
-        // Get a reference to the ListView
-        ListView listForecast = (ListView) rootView.findViewById(R.id.listview_forecast);
-        // Attach the adapter to the ListView
-        listForecast.setAdapter(forecastAdapter);
+        txtStatus = (TextView) rootView.findViewById(R.id.textview_forecast_status);
+        // Get a reference to the RecyclerView
+        RecyclerView recyclerForecast =
+                (RecyclerView) rootView.findViewById(R.id.recyclerview_forecast);
+        recyclerForecast.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // Attach the adapter to the RecyclerView
+        recyclerForecast.setAdapter(forecastAdapter);
+        if (!firstFrameDrawn) {
+            rootView.getViewTreeObserver().addOnPreDrawListener(firstFrameListener);
+        }
 
-        listForecast.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        forecastAdapter.setOnDayClickListener(new ForecastAdapter.OnDayClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                String forecast = forecastAdapter.getItem(position);
-                //Toast.makeText(getActivity(), forecast, Toast.LENGTH_SHORT).show();
-                // Start the detail activity
-                Intent detailIntent = new Intent(getActivity(), DetailActivity.class);
-                detailIntent.putExtra(Intent.EXTRA_TEXT, forecast);
-                startActivity(detailIntent);
+            public void onDayClick(long epochDay) {
+                // The detail activity is passed only the location and date of the day.
+                // The day is put in the cache of recent days first, from the loaded
+                // forecast, so that the detail activity can display it immediately.
+                DayForecast day = findDay(epochDay);
+                if (day != null) {
+                    getApplication().getRecentDays().put(day.getKey(), day);
+                    Intent detailIntent = new Intent(getActivity(), DetailActivity.class);
+                    detailIntent.setData(WeatherEntry.buildWeatherLocationWithDate(
+                            day.getLocation(), epochDay));
+                    startActivity(detailIntent);
+                }
             }
         });
 
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        getApplication().getDisplayUnits().removeListener(unitsListener);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onActivityCreated(@Nullable Bundle savedInstanceState) {
+        loadedLocation = ForecastPreferences.getLocation(getActivity());
+        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        super.onActivityCreated(savedInstanceState);
+    }
+
     /**
      * Called when the Fragment is visible to the user.
      * This is generally tied to {@link android.app.Activity#onStart() Activity.onStart}
@@ -165,8 +251,42 @@ public class MainFragment extends Fragment {
     @Override
     public void onStart() {
         super.onStart();
-        // Get the forecast
-        updateWeather();
+        // Load the forecast for the new location if the location has been changed
+        String location = ForecastPreferences.getLocation(getActivity());
+        if (!location.equals(loadedLocation)) {
+            loadedLocation = location;
+            fetchFailure = null;
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        }
+        // Refresh the displayed age of the forecast
+        updateStatus();
+        // Display the cached forecast, fetching it again only if it has expired.
+        // The update is coalesced with any refresh requested just before, e.g. by a
+        // series of changes to the settings.
+        if (firstFrameDrawn) {
+            refreshCoalescer.request(false);
+        } else {
+            weatherUpdatePending = true;
+        }
+        getActivity().registerReceiver(connectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Called when the Fragment is no longer started.
+     * The fragment stops listening for forecasts, but any fetches in progress continue,
+     * so that their results are cached, and are picked up when the fragment is restarted,
+     * e.g. after a configuration change.
+     */
+    @Override
+    public void onStop() {
+        weatherUpdatePending = false;
+        refreshCoalescer.cancel();
+        getActivity().unregisterReceiver(connectivityReceiver);
+        for (FetchScheduler.Subscription subscription : subscriptions) {
+            subscription.detach();
+        }
+        super.onStop();
     }
 
     @Override
@@ -186,7 +306,9 @@ public class MainFragment extends Fragment {
         int id = item.getItemId();
         switch(id) {
             case R.id.menu_item_refresh:
-                updateWeather();
+                // Repeated taps are merged into one refresh, which is not forced again
+                // if a forced refresh has only just been made
+                refreshCoalescer.request(true);
                 return true;
 
             case R.id.menu_item_location:
@@ -199,208 +321,219 @@ public class MainFragment extends Fragment {
     }
 
     /**
-     * Update the weather data in the background, and display it.
-     */
-    private void updateWeather() {
-        new FetchWeatherTask().execute(getPreferenceLocation(getActivity()));
-    }
-
-    /**
-     * Update the weather data in the background, and display it.
+     * Update the weather data for the current location and the saved locations in the
+     * background.  New forecasts are written to the weather content provider, from which
+     * the forecast loader displays them.  A new forecast is only fetched if the stored one
+     * has expired.  If the fetch fails, the stored forecast remains displayed, with its age.
+     * This is called by the refresh coalescer, once a burst of requests to refresh has ended.
+     * @param forceFetch whether to fetch new forecasts even if the stored ones have not expired
      */
-    private void showLocation() {
-        String location = getPreferenceLocation(getActivity());
-        try {
-            Geocoder geocoder = new Geocoder(getActivity());
-            List<Address> addresses = geocoder.getFromLocationName(location, 1);
+    private void updateWeather(boolean forceFetch) {
+        FetchScheduler.Listener listener = new FetchScheduler.Listener() {
+            @Override
+            public void onForecast(String fetchedLocation, Forecast forecast, boolean fromCache) {
+                // The loader displays forecasts as they are stored, only the status may change
+                if (!fromCache && fetchedLocation.equals(loadedLocation)) {
+                    fetchFailure = null;
+                    updateStatus();
+                    updateWidgets();
+                }
+            }
 
-            if (addresses == null || addresses.size() < 1) {
-                Log.e(LOG_TAG, "Location not found");
-            } else {
-                //double latitude = addresses.get(0).getLatitude();
-                //double longitude = addresses.get(0).getLongitude();
-                //Uri geoLocation = Uri.parse("geo:" + latitude + "," + longitude);
-                Uri geoLocation = Uri.parse("geo:0,0?").buildUpon()
-                        .appendQueryParameter("q", location)
-                        .build();
-
-                Intent intent = new Intent(Intent.ACTION_VIEW);
-                intent.setData(geoLocation);
-                if (intent.resolveActivity(getActivity().getPackageManager()) != null) {
-                    startActivity(intent);
+            @Override
+            public void onFailure(String fetchedLocation, IOException e) {
+                if (e instanceof OfflineException) {
+                    Log.d(LOG_TAG, "Offline, not fetching weather data for " + fetchedLocation);
                 } else {
-                    Log.w(LOG_TAG, "There is no app available which can handle Intent.ACTION_VIEW");
-                    Toast.makeText(getActivity(), getString(R.string.no_app_to_display_map),
-                            Toast.LENGTH_SHORT).show();
+                    Log.e(LOG_TAG, "IOException while getting weather data for "
+                            + fetchedLocation + ": " + e.getMessage(), e);
+                }
+                if (fetchedLocation.equals(loadedLocation)) {
+                    fetchFailure = e;
+                    updateStatus();
                 }
             }
-        } catch (IOException e) {
-
+        };
+
+        // Request the new fetches before cancelling the previous ones, so that a fetch
+        // which is still wanted is shared rather than cancelled and restarted.
+        List<FetchScheduler.Subscription> previousSubscriptions = subscriptions;
+        subscriptions = new ArrayList<>();
+        getFetchScheduler().fetchAll(ForecastPreferences.getLocationsToFetch(getActivity()),
+                ForecastPreferences.getDayCount(getActivity()), forceFetch, listener, subscriptions);
+        for (FetchScheduler.Subscription subscription : previousSubscriptions) {
+            subscription.cancel();
         }
     }
 
     /**
-     * Returns the current preference setting for the location.
-     * @param context the context
-     * @return the current preference setting for the location
+     * Displays the age of the displayed forecast, and whether it could be updated.
      */
-    private String getPreferenceLocation(Context context) {
-        return getPreference(context, R.string.pref_location_key, R.string.pref_location_default);
+    private void updateStatus() {
+        String status;
+        if (fetchedAtMillis == 0) {
+            if (fetchFailure == null) {
+                // The forecast is still being loaded or fetched
+                status = getString(R.string.forecast_status_loading);
+            } else if (fetchFailure instanceof OfflineException) {
+                status = getString(R.string.forecast_status_none_offline);
+            } else {
+                status = getString(R.string.forecast_status_none_failed);
+            }
+        } else {
+            CharSequence age = DateUtils.getRelativeTimeSpanString(fetchedAtMillis,
+                    System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
+            int statusId;
+            if (fetchFailure == null) {
+                statusId = R.string.forecast_status_updated;
+            } else if (fetchFailure instanceof OfflineException) {
+                statusId = R.string.forecast_status_offline;
+            } else {
+                statusId = R.string.forecast_status_failed;
+            }
+            status = getString(statusId, age);
+        }
+        txtStatus.setText(status);
+        txtStatus.setVisibility(status == null ? View.GONE : View.VISIBLE);
     }
 
     /**
-     * Returns the current preference setting for the temperature units.
-     * @param context the context
-     * @return the current preference setting for the temperature units
+     * Display the current location on a map.
+     * The location is resolved to coordinates in the background, which is instant once it
+     * has been resolved before.  If it cannot be resolved, the map app is asked to find it
+     * by name instead.
      */
-    private String getPreferenceUnits(Context context) {
-        return getPreference(context, R.string.pref_units_key, R.string.pref_units_default);
-    }
+    private void showLocation() {
+        String location = ForecastPreferences.getLocation(getActivity());
+        getLocationResolver().resolve(location, new LocationResolver.Callback() {
+            @Override
+            public void onResolved(String resolvedLocation, Place place) {
+                showMap(resolvedLocation, place);
+            }
 
-    /**
-     * Returns a current preference.
-     * @param context the context
-     * @param key the string resource id of the preference's key
-     * @param defaultValue the string resource id of the preference's default value
-     * @return the current preference setting for the preference
-     */
-    private String getPreference(Context context, int key, int defaultValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(getString(key), getString(defaultValue));
+            @Override
+            public void onFailure(String resolvedLocation, IOException e) {
+                Log.w(LOG_TAG, "IOException while resolving location " + resolvedLocation
+                        + ": " + e.getMessage());
+                showMap(resolvedLocation, null);
+            }
+        });
     }
 
     /**
-     * Returns a reference to the JSON weather data parser.
-     * @return a reference to the JSON weather data parser
+     * Display a location on a map.
+     * @param location the location setting
+     * @param place the place the location has been resolved to, or null if it has not been
      */
-    private WeatherDataParser getWeatherDataParser() {
-        if (weatherDataParser == null) {
-            weatherDataParser = new WeatherDataParser();
+    private void showMap(String location, Place place) {
+        if (!isAdded()) {
+            // The fragment has gone while the location was being resolved
+            return;
+        }
+        String coordinates = place == null
+                ? "0,0"
+                : place.getLatitude() + "," + place.getLongitude();
+        // The label is the location as the user entered it
+        Uri geoLocation = Uri.parse("geo:" + coordinates + "?").buildUpon()
+                .appendQueryParameter("q", place == null
+                        ? location
+                        : coordinates + "(" + location + ")")
+                .build();
+
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setData(geoLocation);
+        if (intent.resolveActivity(getActivity().getPackageManager()) != null) {
+            startActivity(intent);
+        } else {
+            Log.w(LOG_TAG, "There is no app available which can handle Intent.ACTION_VIEW");
+            Toast.makeText(getActivity(), getString(R.string.no_app_to_display_map),
+                    Toast.LENGTH_SHORT).show();
         }
-        return weatherDataParser;
     }
 
-    /**
-     * Background task for getting a weather forecast from OpenWeatherMap.
-     */
-    public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
-
-        @Override
-        protected String[] doInBackground(String[] params) {
-            if (params == null || params.length != 1) {
-                throw new InvalidParameterException("FetchWeatherTask requires a single parameter, the city id");
-            }
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new CursorLoader(getActivity(),
+                WeatherEntry.buildWeatherLocation(loadedLocation),
+                ProviderForecastCache.FORECAST_COLUMNS, null, null,
+                ProviderForecastCache.SORT_ORDER_DATE);
+    }
 
-            // Get the raw JSON weather data from the weather service
-            String jsonForecast = getForecastJson(params[0], DAY_COUNT_SEVEN);
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        forecastCursor = cursor;
+        Forecast forecast = ProviderForecastCache.readForecast(cursor);
+        forecastAdapter.setForecast(forecast);
+        fetchedAtMillis = ProviderForecastCache.readFetchedAtMillis(cursor);
+        updateStatus();
+
+        StartupTimer startupTimer = getApplication().getStartupTimer();
+        if (forecast.getDayCount() > 0 && startupTimer.markData(SystemClock.elapsedRealtime())) {
+            Log.i(LOG_TAG, "Startup " + BuildConfig.VERSION_NAME + ": first forecast "
+                    + startupTimer.getFirstFrameToDataMillis() + "ms after first frame");
+        }
+    }
 
-            // Parse the raw JSON data
-            String[] forecastData = null;
-            try {
-                forecastData = getWeatherDataParser().getWeatherDataFromJson(
-                        jsonForecast, DAY_COUNT_SEVEN, getPreferenceUnits(getActivity()));
-            } catch (JSONException e) {
-                Log.e(LOG_TAG, "JSONException while parsing raw weather data");
-            }
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        forecastCursor = null;
+        forecastAdapter.setForecast(null);
+        fetchedAtMillis = 0;
+    }
 
-            return forecastData;
+    /**
+     * Returns a day of the loaded forecast.
+     * The day is found by date rather than by position, as the positions of the displayed
+     * rows may not yet have been updated to match the loaded forecast.
+     * @param epochDay the date of the day, as the number of days since 1970-01-01
+     * @return the day, or null if it is not in the loaded forecast
+     */
+    private DayForecast findDay(long epochDay) {
+        if (forecastCursor != null && forecastCursor.moveToFirst()) {
+            do {
+                if (forecastCursor.getLong(ProviderForecastCache.COL_WEATHER_DATE) == epochDay) {
+                    return ProviderForecastCache.readDay(forecastCursor);
+                }
+            } while (forecastCursor.moveToNext());
         }
+        return null;
+    }
 
-        /**
-         * <p>Runs on the UI thread after {@link #doInBackground}. The
-         * specified result is the value returned by {@link #doInBackground}.</p>
-         * <p/>
-         * <p>This method won't be invoked if the task was cancelled.</p>
-         * @param forecastData The result of the operation computed by {@link #doInBackground}.
-         * @see #onPreExecute
-         * @see #doInBackground
-         * @see #onCancelled(Object)
-         */
-        @Override
-        protected void onPostExecute(String[] forecastData) {
-            if (forecastData != null && forecastData.length > 0) {
-                // The following line does not work, because it causes weekForecastItems
-                // to reference a new object, one which is not referenced by the adapter.
-                //weekForecastItems = new ArrayList<>(Arrays.asList(forecastData));
-
-                // The following line works, because weekForecastItems continues to reference the
-                // same object as before.
-                weekForecastItems.clear();
-                weekForecastItems.addAll(Arrays.asList(forecastData));
-                forecastAdapter.notifyDataSetChanged();
+    /**
+     * Renders the stored forecast to the home screen widgets, in the background.
+     */
+    private void updateWidgets() {
+        final Context context = getActivity().getApplicationContext();
+        getApplication().getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                TodayWidgetProvider.updateAllWidgets(context);
             }
+        });
+    }
 
-            // superclass method is currently empty
-            //super.onPostExecute(forecastData);
-        }
+    /**
+     * Returns the application, which holds the objects shared by its components.
+     * @return the application
+     */
+    private SunshineApplication getApplication() {
+        return (SunshineApplication) getActivity().getApplication();
+    }
 
-        private String getForecastJson(String cityId, int numDays) {
-            // These two need to be declared outside the try/catch
-            // so that they can be closed in the finally block.
-            HttpURLConnection urlConnection = null;
-            BufferedReader reader = null;
-            // Will contain the raw JSON response as a string.
-            String forecastJson;
-
-            try {
-                // Build the forecast URI using the standard values and the parameters
-                //Uri.Builder uriBuilder = new Uri.Builder();
-                Uri.Builder uriBuilder = Uri.parse(URL_DAILY_FORECAST).buildUpon()
-                        .appendQueryParameter(FORECAST_PARAM_CITY_ID, cityId)
-                        .appendQueryParameter(FORECAST_PARAM_MODE, MODE_JSON)
-                        .appendQueryParameter(FORECAST_PARAM_UNITS, UNITS_METRIC)
-                        .appendQueryParameter(FORECAST_PARAM_DAY_COUNT, Integer.toString(numDays));
-
-                // Construct the URL for the query.
-                URL url = new URL(uriBuilder.build().toString());
-
-                // Create the HTTP request, and open the connection
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("GET");
-                urlConnection.connect();
-
-                // Read the input stream into a String
-                InputStream inputStream = urlConnection.getInputStream();
-                StringBuilder builder = new StringBuilder();
-                if (inputStream == null) {
-                    // Nothing to do.
-                    return null;
-                }
-                reader = new BufferedReader(new InputStreamReader(inputStream));
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                    // But it does make debugging a *lot* easier if you print out the completed
-                    // builder for debugging.
-                    builder.append(line);
-                    builder.append("\n");
-                }
+    /**
+     * Returns a reference to the application's location resolver.
+     * @return a reference to the location resolver
+     */
+    private LocationResolver getLocationResolver() {
+        return getApplication().getLocationResolver();
+    }
 
-                if (builder.length() == 0) {
-                    // Stream was empty.  No point in parsing.
-                    return null;
-                }
-                forecastJson = builder.toString();
-
-            } catch (IOException e) {
-                Log.e(LOG_TAG, "IOException while getting weather data: " + e.getMessage(), e);
-                // If the code didn't successfully get the weather data, there's no point in
-                // attempting to parse it.
-                return null;
-            } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (final IOException e) {
-                        Log.e(LOG_TAG, "Error closing stream", e);
-                    }
-                }
-            }
-            return forecastJson;
-        }
+    /**
+     * Returns a reference to the application's forecast fetch scheduler.
+     * @return a reference to the forecast fetch scheduler
+     */
+    private FetchScheduler getFetchScheduler() {
+        return getApplication().getFetchScheduler();
     }
+
 }
@@ -0,0 +1,26 @@
+package uk.jumpingmouse.sunshine;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which runs tasks on the main (UI) thread, immediately or after a delay.
+ * @author Edmund Johnson.
+ */
+public class MainThreadExecutor implements Executor, RefreshCoalescer.DelayedExecutor {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+        handler.post(command);
+    }
+
+    @Override
+    public void executeDelayed(Runnable command, long delayMillis) {
+        handler.postDelayed(command, delayMillis);
+    }
+
+}
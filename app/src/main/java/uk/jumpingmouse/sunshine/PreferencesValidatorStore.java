@@ -0,0 +1,58 @@
+package uk.jumpingmouse.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * A store for HTTP response validators, held in a private shared preferences file
+ * so that they survive the death of the process.
+ * @author Edmund Johnson.
+ */
+public class PreferencesValidatorStore implements ForecastHttpClient.ValidatorStore {
+
+    /** The name of the shared preferences file. */
+    private static final String PREFS_NAME = "http_validators";
+    /** The prefix of the keys of stored ETags. */
+    private static final String PREFIX_ETAG = "etag:";
+    /** The prefix of the keys of stored Last-Modified values. */
+    private static final String PREFIX_LAST_MODIFIED = "last_modified:";
+
+    private final SharedPreferences prefs;
+
+    /**
+     * Constructor.
+     * @param context the context
+     */
+    public PreferencesValidatorStore(Context context) {
+        this.prefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String getETag(String url) {
+        return prefs.getString(PREFIX_ETAG + url, null);
+    }
+
+    @Override
+    public String getLastModified(String url) {
+        return prefs.getString(PREFIX_LAST_MODIFIED + url, null);
+    }
+
+    @Override
+    public void putValidators(String url, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (eTag == null) {
+            editor.remove(PREFIX_ETAG + url);
+        } else {
+            editor.putString(PREFIX_ETAG + url, eTag);
+        }
+        if (lastModified == null) {
+            editor.remove(PREFIX_LAST_MODIFIED + url);
+        } else {
+            editor.putString(PREFIX_LAST_MODIFIED + url, lastModified);
+        }
+        // This is always called on a background thread, so there is no need for apply()
+        editor.commit();
+    }
+
+}
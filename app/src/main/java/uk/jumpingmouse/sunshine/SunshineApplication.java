@@ -0,0 +1,298 @@
+package uk.jumpingmouse.sunshine;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.util.LruCache;
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import uk.jumpingmouse.sunshine.data.ProviderForecastCache;
+import uk.jumpingmouse.sunshine.data.ProviderHourlySeriesStore;
+import uk.jumpingmouse.sunshine.data.ProviderPlaceStore;
+
+/**
+ * The application, which holds the objects shared by all of its components.
+ * These outlive any activity or fragment, so are unaffected by configuration changes.
+ * <p>
+ * The objects are created lazily, when first used, rather than in {@link #onCreate()},
+ * so that none of them delays the first frame unless it is needed to draw it.
+ * @author Edmund Johnson.
+ */
+public class SunshineApplication extends Application {
+
+    /** The number of threads on which forecasts are fetched. */
+    private static final int FETCH_THREAD_COUNT = 4;
+    /** The maximum number of concurrent requests to the weather service. */
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+    /**
+     * The number of threads on which the other sources of a forecast are fetched.  No more
+     * of their requests can be in progress at once, so more threads would only wait.
+     */
+    private static final int SOURCE_THREAD_COUNT = MAX_REQUESTS_PER_HOST;
+    /** The time for which an idle fetch thread is kept alive, in seconds. */
+    private static final long FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+    /** The maximum number of attempts at a request before a fetch fails. */
+    private static final int MAX_FETCH_ATTEMPTS = 3;
+    /** The delay before retrying a failed request, before backoff and jitter are applied. */
+    private static final long RETRY_INITIAL_DELAY_MILLIS = 2 * DateUtils.SECOND_IN_MILLIS;
+    /** The maximum delay before retrying a failed request. */
+    private static final long RETRY_MAX_DELAY_MILLIS = 30 * DateUtils.MINUTE_IN_MILLIS;
+    /**
+     * The time from the start of a fetch for which it waits for its other forecast sources,
+     * after which the forecast is reconciled from the daily forecast and those which have
+     * completed.  The daily forecast itself is waited for until its request times out.
+     */
+    private static final long SOURCE_LATENCY_BUDGET_MILLIS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    /** The maximum estimated size of the forecasts held in memory, in bytes. */
+    private static final long MEMORY_CACHE_MAX_BYTES = 128 * 1024;
+    /** The number of recently viewed days whose detail is kept in memory. */
+    private static final int RECENT_DAY_COUNT = 32;
+
+    /** The milestones of starting the app, timed from the creation of the application. */
+    private final StartupTimer startupTimer = new StartupTimer(SystemClock.elapsedRealtime());
+
+    /** The metrics of fetching, parsing and displaying forecasts. */
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private ForecastTransport forecastTransport;
+
+    private MemoryForecastCache memoryForecastCache;
+
+    private PlaceStore placeStore;
+
+    private LocationResolver locationResolver;
+
+    private FetchScheduler fetchScheduler;
+
+    private ForecastFormatter forecastFormatter;
+
+    private DisplayUnits displayUnits;
+
+    private Executor backgroundExecutor;
+
+    private LruCache<String, DayForecast> recentDays;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Start loading the default preferences from disk in the background, so that the
+        // first read of them, e.g. of the location by the main fragment, is less likely to
+        // block the main thread
+        PreferenceManager.getDefaultSharedPreferences(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The process is likely to be killed, so hold nothing which can be reloaded
+            trimMemoryCaches(0);
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            trimMemoryCaches(MEMORY_CACHE_MAX_BYTES / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // Called instead of onTrimMemory before API 14
+        trimMemoryCaches(0);
+    }
+
+    /**
+     * Releases forecasts held in memory, which can all be reloaded from the content
+     * provider.  Must be called on the main thread.
+     * @param forecastCacheBytes the size to which the in-memory forecast cache is trimmed
+     */
+    private void trimMemoryCaches(long forecastCacheBytes) {
+        synchronized (this) {
+            if (memoryForecastCache != null) {
+                memoryForecastCache.trimToSize(forecastCacheBytes);
+            }
+        }
+        if (recentDays != null) {
+            if (forecastCacheBytes == 0) {
+                recentDays.evictAll();
+            } else {
+                recentDays.trimToSize(RECENT_DAY_COUNT / 2);
+            }
+        }
+    }
+
+    /**
+     * Returns the milestones of starting the app.  This may be called on any thread.
+     * @return the milestones of starting the app
+     */
+    public StartupTimer getStartupTimer() {
+        return startupTimer;
+    }
+
+    /**
+     * Returns the metrics of fetching, parsing and displaying forecasts.
+     * This may be called on any thread.
+     * @return the metrics
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the means of obtaining forecasts, from the cache or the weather service,
+     * creating it if necessary.  This may be called on any thread.
+     * @return the means of obtaining forecasts
+     */
+    public synchronized ForecastTransport getForecastTransport() {
+        if (forecastTransport == null) {
+            long ttlMillis = getResources().getInteger(R.integer.forecast_cache_ttl_minutes)
+                    * DateUtils.MINUTE_IN_MILLIS;
+            // Forecasts once read or stored are held in memory, so no screen or service
+            // reads the same forecast from the content provider twice
+            memoryForecastCache = new MemoryForecastCache(
+                    new ProviderForecastCache(getContentResolver(), ttlMillis), ttlMillis,
+                    MEMORY_CACHE_MAX_BYTES, metrics);
+            ForecastFetcher fetcher = new ForecastFetcher(BuildConfig.WEATHER_BASE_URL,
+                    new ForecastHttpClient(new PreferencesValidatorStore(this), metrics,
+                            ThreadAllocationCounter.create(BuildConfig.DEBUG),
+                            new HostLimiter(MAX_REQUESTS_PER_HOST)),
+                    null,
+                    getPlaceStore(),
+                    new WeatherDataParser(),
+                    Clock.SYSTEM);
+            // The 3-hourly forecast, which is also stored for the intraday chart, and the
+            // current conditions are fetched alongside the daily forecast, to fill in what
+            // it lacks.  The pipeline alone stores the forecasts, as soon as a source
+            // completes, so the display is updated without waiting for the slowest, and
+            // the daily forecast is not stored alone before it is reconciled.  Every request,
+            // including the sources', waits for its turn under the limit on the requests to
+            // the weather service.
+            ThreadPoolExecutor sourceExecutor = new ThreadPoolExecutor(
+                    SOURCE_THREAD_COUNT, SOURCE_THREAD_COUNT,
+                    FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sourceExecutor.allowCoreThreadTimeOut(true);
+            forecastTransport = new ForecastPipeline(fetcher,
+                    Arrays.asList(
+                            fetcher.getHourlySource(
+                                    new ProviderHourlySeriesStore(getContentResolver())),
+                            fetcher.getCurrentSource()),
+                    memoryForecastCache, ForecastFetcher.UNITS_METRIC,
+                    sourceExecutor, Clock.SYSTEM,
+                    SOURCE_LATENCY_BUDGET_MILLIS, metrics);
+        }
+        return forecastTransport;
+    }
+
+    /**
+     * Returns the store of the places to which locations have been resolved, creating it
+     * if necessary.  This may be called on any thread.
+     * @return the store of resolved places
+     */
+    public synchronized PlaceStore getPlaceStore() {
+        if (placeStore == null) {
+            placeStore = new ProviderPlaceStore(getContentResolver());
+        }
+        return placeStore;
+    }
+
+    /**
+     * Returns the resolver of locations to places, creating it if necessary.
+     * Must be called on the main thread.
+     * @return the resolver of locations to places
+     */
+    public LocationResolver getLocationResolver() {
+        if (locationResolver == null) {
+            // Geocoding blocks on the network, so has its own thread rather than holding
+            // up the background executor used for short tasks
+            locationResolver = new LocationResolver(this, getPlaceStore(),
+                    Executors.newSingleThreadExecutor(), new MainThreadExecutor());
+        }
+        return locationResolver;
+    }
+
+    /**
+     * Returns the scheduler for fetching forecasts, creating it if necessary.
+     * Must be called on the main thread.
+     * @return the scheduler for fetching forecasts
+     */
+    public FetchScheduler getFetchScheduler() {
+        if (fetchScheduler == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    FETCH_THREAD_COUNT, FETCH_THREAD_COUNT,
+                    FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+
+            fetchScheduler = new FetchScheduler(getForecastTransport(), executor, new MainThreadExecutor(),
+                    Clock.SYSTEM, new ConnectivityNetworkMonitor(this),
+                    new Backoff(RETRY_INITIAL_DELAY_MILLIS, RETRY_MAX_DELAY_MILLIS, new Random()),
+                    MAX_FETCH_ATTEMPTS, MAX_REQUESTS_PER_HOST);
+        }
+        return fetchScheduler;
+    }
+
+    /**
+     * Returns the formatter for displaying forecasts, creating it if necessary.
+     * The formatter is shared so that its memoised date labels survive the recreation
+     * of activities and adapters.
+     * Must be called on the main thread.
+     * @return the formatter for displaying forecasts
+     */
+    public ForecastFormatter getForecastFormatter() {
+        if (forecastFormatter == null) {
+            forecastFormatter = new ForecastFormatter(new DateLabeler(Clock.SYSTEM,
+                    TimeZone.getDefault(), getString(R.string.today), getString(R.string.tomorrow)));
+        }
+        return forecastFormatter;
+    }
+
+    /**
+     * Returns the units in which temperatures are displayed, creating the listener for
+     * changes to them if necessary.
+     * Must be called on the main thread.
+     * @return the units in which temperatures are displayed
+     */
+    public DisplayUnits getDisplayUnits() {
+        if (displayUnits == null) {
+            displayUnits = new DisplayUnits(this);
+        }
+        return displayUnits;
+    }
+
+    /**
+     * Returns the executor for short background tasks of the user interface, such as
+     * calculating the changes to a list, creating it if necessary.
+     * Tasks are run one at a time, in the order in which they are submitted.
+     * Must be called on the main thread.
+     * @return the executor for short background tasks
+     */
+    public Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadExecutor();
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * Returns the cache of the days most recently viewed in detail, or about to be,
+     * keyed by {@link DayForecast#getKey()}, creating it if necessary.
+     * Must be called on the main thread.
+     * @return the cache of recently viewed days
+     */
+    public LruCache<String, DayForecast> getRecentDays() {
+        if (recentDays == null) {
+            recentDays = new LruCache<>(RECENT_DAY_COUNT);
+        }
+        return recentDays;
+    }
+
+}
@@ -0,0 +1,40 @@
+package uk.jumpingmouse.sunshine;
+
+import android.os.Debug;
+
+/**
+ * Counts the bytes allocated by the current thread, using the runtime's allocation counting.
+ * <p>
+ * Allocation counting slows every allocation in the process, so it is only enabled in
+ * debug builds; release builds report allocations as not counted.
+ * @author Edmund Johnson.
+ */
+public final class ThreadAllocationCounter implements AllocationCounter {
+
+    /**
+     * Private constructor; instances are created by {@link #create}.
+     */
+    private ThreadAllocationCounter() {
+    }
+
+    /**
+     * Returns an allocation counter, starting the runtime's allocation counting if enabled.
+     * @param enabled whether allocations are to be counted
+     * @return the counter, or {@link AllocationCounter#NONE} if not enabled
+     */
+    @SuppressWarnings("deprecation")
+    public static AllocationCounter create(boolean enabled) {
+        if (!enabled) {
+            return AllocationCounter.NONE;
+        }
+        Debug.startAllocCounting();
+        return new ThreadAllocationCounter();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public long getAllocatedBytes() {
+        return Debug.getThreadAllocSize();
+    }
+
+}
@@ -0,0 +1,120 @@
+package uk.jumpingmouse.sunshine;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.text.format.DateUtils;
+import android.widget.RemoteViews;
+
+import java.util.TimeZone;
+
+/**
+ * Home screen widget which displays today's forecast for the current location.
+ * <p>
+ * The widget never fetches anything itself.  It is rendered from the forecast already
+ * stored, through the app's shared forecast cache, whenever a forecast is stored by the
+ * background sync or by the app, so glancing at it costs neither a process start nor a
+ * network request.
+ * The same views are sent to every instance of the widget in a single update.
+ * @author Edmund Johnson.
+ */
+public class TodayWidgetProvider extends AppWidgetProvider {
+
+    /**
+     * Called by the system when instances of the widget are added, or the device restarts.
+     * The system does not update the widget periodically; it is updated when forecasts are.
+     */
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // The forecast is usually held in memory, and otherwise is a query of a few rows
+        // of the local database; this is rare enough not to warrant a background thread
+        updateWidgets(context, appWidgetManager, appWidgetIds);
+    }
+
+    /**
+     * Renders today's forecast to every instance of the widget.  Nothing is queried if
+     * there are no instances.
+     * Must not be called on the main thread, as it may query the content provider.
+     * @param context the context
+     */
+    public static void updateAllWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class));
+        updateWidgets(context, appWidgetManager, appWidgetIds);
+    }
+
+    /**
+     * Renders today's forecast to instances of the widget, in a single update.
+     * @param context the context
+     * @param appWidgetManager the widget manager
+     * @param appWidgetIds the ids of the instances to update
+     */
+    private static void updateWidgets(Context context, AppWidgetManager appWidgetManager,
+                                      int[] appWidgetIds) {
+        if (appWidgetIds.length == 0) {
+            return;
+        }
+        String location = ForecastPreferences.getLocation(context);
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_today);
+        views.setTextViewText(R.id.widget_location, location);
+
+        Forecast forecast = readForecast(context, location);
+        int today = forecast == null ? -1 : findToday(forecast);
+        if (today < 0) {
+            views.setTextViewText(R.id.widget_condition,
+                    context.getString(R.string.widget_no_forecast));
+            views.setTextViewText(R.id.widget_high_low, "");
+        } else {
+            // A formatter of its own, as the application's may only be used on the main thread
+            ForecastFormatter formatter = new ForecastFormatter();
+            String units = ForecastPreferences.getUnits(context);
+            views.setTextViewText(R.id.widget_condition, forecast.getCondition(today));
+            views.setTextViewText(R.id.widget_high_low, formatter.formatHighLow(
+                    formatter.formatTemperature(forecast.getHigh(today), units),
+                    formatter.formatTemperature(forecast.getLow(today), units)));
+        }
+
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0,
+                new Intent(context, MainActivity.class), 0);
+        views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+        appWidgetManager.updateAppWidget(appWidgetIds, views);
+    }
+
+    /**
+     * Reads the stored forecast for a location, from memory if the app has already read or
+     * fetched it.
+     * @param context the context
+     * @param location the location setting
+     * @return the forecast, or null if none is stored
+     */
+    private static Forecast readForecast(Context context, String location) {
+        SunshineApplication application = (SunshineApplication) context.getApplicationContext();
+        ForecastCache.Entry entry = application.getForecastTransport().getCached(location,
+                ForecastPreferences.getDayCount(context));
+        return entry == null ? null : entry.getForecast();
+    }
+
+    /**
+     * Returns the position of today in a forecast, or of the first day after it if today
+     * is missing.
+     * @param forecast the forecast
+     * @return the position of today, or -1 if the forecast has no day from today onwards
+     */
+    private static int findToday(Forecast forecast) {
+        long nowMillis = System.currentTimeMillis();
+        long todayEpochDay = (nowMillis + TimeZone.getDefault().getOffset(nowMillis))
+                / DateUtils.DAY_IN_MILLIS;
+        for (int i = 0; i < forecast.getDayCount(); i++) {
+            if (forecast.getEpochDay(i) >= todayEpochDay) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,430 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.jumpingmouse.sunshine.DayForecast;
+import uk.jumpingmouse.sunshine.Forecast;
+import uk.jumpingmouse.sunshine.ForecastCache;
+import uk.jumpingmouse.sunshine.ForecastDiff;
+import uk.jumpingmouse.sunshine.ForecastPipeline;
+import uk.jumpingmouse.sunshine.data.WeatherContract.LocationEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * A forecast cache held in the weather content provider.
+ * All forecasts are stored in centigrade, so the units are not part of the stored key.
+ * @author Edmund Johnson.
+ */
+public class ProviderForecastCache implements ForecastCache {
+
+    /** The columns of a day's forecast, which are read by {@link #readForecast}. */
+    public static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_CONDITION,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LAST_FETCHED,
+            LocationEntry.COLUMN_DAY_COUNT,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // These indices are tied to FORECAST_COLUMNS.
+    public static final int COL_WEATHER_ID = 0;
+    public static final int COL_WEATHER_DATE = 1;
+    public static final int COL_WEATHER_CONDITION = 2;
+    public static final int COL_WEATHER_MAX_TEMP = 3;
+    public static final int COL_WEATHER_MIN_TEMP = 4;
+    public static final int COL_LOCATION_LAST_FETCHED = 5;
+    public static final int COL_LOCATION_DAY_COUNT = 6;
+    public static final int COL_LOCATION_SETTING = 7;
+    public static final int COL_WEATHER_HUMIDITY = 8;
+    public static final int COL_WEATHER_PRESSURE = 9;
+    public static final int COL_WEATHER_WIND_SPEED = 10;
+    public static final int COL_WEATHER_DEGREES = 11;
+
+    /** The sort order of a forecast, earliest day first. */
+    public static final String SORT_ORDER_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    /** The row id returned for a location which is not held. */
+    private static final long NO_LOCATION_ID = -1;
+
+    /** The locks which serialize the writes of each location's forecast.  Guarded by itself. */
+    private static final Map<String, Object> LOCATION_LOCKS = new HashMap<>();
+
+    private final ContentResolver contentResolver;
+    private final long timeToLiveMillis;
+
+    /**
+     * Constructor.
+     * @param contentResolver the content resolver
+     * @param timeToLiveMillis the time for which a cached forecast is fresh, in milliseconds
+     */
+    public ProviderForecastCache(ContentResolver contentResolver, long timeToLiveMillis) {
+        this.contentResolver = contentResolver;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Override
+    public Entry get(String location, String units, int dayCount) throws IOException {
+        Cursor cursor = contentResolver.query(WeatherEntry.buildWeatherLocation(location),
+                FORECAST_COLUMNS, null, null, SORT_ORDER_DATE);
+        if (cursor == null) {
+            throw new IOException("Unable to query forecast for " + location);
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.getInt(COL_LOCATION_DAY_COUNT) < dayCount) {
+                // Nothing cached, or fewer days cached than are required
+                return null;
+            }
+            long fetchedAtMillis = cursor.getLong(COL_LOCATION_LAST_FETCHED);
+            return new Entry(readForecast(cursor), fetchedAtMillis, timeToLiveMillis);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The forecast is merged into the stored one in a single batch, which the provider
+     * applies in one transaction, notifying observers once.  Puts for the same location
+     * are serialized, so that each is merged into the forecast stored by the one before.
+     */
+    @Override
+    public void put(String location, String units, int dayCount, Forecast forecast,
+                    long fetchedAtMillis) throws IOException {
+        synchronized (getLocationLock(location)) {
+            putLocked(location, dayCount, forecast, fetchedAtMillis);
+        }
+    }
+
+    /**
+     * Merges a forecast into the stored one, while holding the lock for its location.
+     * @param location the location setting
+     * @param dayCount the number of days of forecast requested
+     * @param forecast the forecast
+     * @param fetchedAtMillis the time at which the forecast was fetched
+     * @throws IOException if the forecast cannot be stored
+     */
+    private void putLocked(String location, int dayCount, Forecast forecast,
+                           long fetchedAtMillis) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long locationId = findLocation(contentResolver, location);
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LAST_FETCHED, fetchedAtMillis);
+        locationValues.put(LocationEntry.COLUMN_DAY_COUNT, dayCount);
+        if (locationId == NO_LOCATION_ID) {
+            // The location is added in the same batch, and its days refer back to it
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, location);
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build());
+        }
+
+        // Merge the forecast into the stored one: successive forecasts overlap on most days,
+        // so only the days which are new or changed are written, and the days which have
+        // gone are deleted
+        Forecast stored = locationId == NO_LOCATION_ID ? null : readStoredForecast(location);
+        addDayOperations(operations, locationId, stored, forecast);
+        if (locationId != NO_LOCATION_ID) {
+            operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .withSelection(LocationEntry._ID + " = ?",
+                            new String[] {Long.toString(locationId)})
+                    .build());
+        }
+        applyBatch(location, operations);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The merged days are written in a single batch, as for {@link #put}, and the location's
+     * fetch time and day count are not changed.
+     */
+    @Override
+    public void merge(String location, String units, Forecast forecast) throws IOException {
+        synchronized (getLocationLock(location)) {
+            long locationId = findLocation(contentResolver, location);
+            if (locationId == NO_LOCATION_ID) {
+                return;
+            }
+            Forecast stored = readStoredForecast(location);
+            if (stored.getDayCount() == 0) {
+                return;
+            }
+            // The merged forecast has the same days as the stored one, so no day is removed
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            addDayOperations(operations, locationId, stored,
+                    ForecastPipeline.mergeDays(stored, forecast));
+            if (!operations.isEmpty()) {
+                applyBatch(location, operations);
+            }
+        }
+    }
+
+    /**
+     * Adds the operations which replace the stored days of a forecast with those of another,
+     * writing only the days which are new or changed, and deleting the days which have gone.
+     * @param operations the operations, to which those of the days are added
+     * @param locationId the row id of the location, or {@link #NO_LOCATION_ID} if the
+     *                   location is added by the first operation
+     * @param stored the stored forecast, or null if none is stored
+     * @param forecast the forecast
+     */
+    private static void addDayOperations(final List<ContentProviderOperation> operations,
+                                         final long locationId, Forecast stored,
+                                         Forecast forecast) {
+        ForecastDiff diff = ForecastDiff.calculate(stored, forecast);
+        final List<String> removedDays = new ArrayList<>();
+        diff.dispatchDaysTo(new ForecastDiff.DayCallback() {
+            @Override
+            public void onDayWritten(Forecast newForecast, int position) {
+                // Days already held are replaced
+                ContentProviderOperation.Builder insert =
+                        ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                                .withValues(toContentValues(newForecast, position));
+                if (locationId == NO_LOCATION_ID) {
+                    insert.withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0);
+                } else {
+                    insert.withValue(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                operations.add(insert.build());
+            }
+
+            @Override
+            public void onDayRemoved(long epochDay) {
+                removedDays.add(Long.toString(epochDay));
+            }
+        });
+
+        if (!removedDays.isEmpty()) {
+            StringBuilder selection = new StringBuilder(WeatherEntry.COLUMN_LOC_KEY)
+                    .append(" = ? AND ").append(WeatherEntry.COLUMN_DATE).append(" IN (?");
+            for (int i = 1; i < removedDays.size(); i++) {
+                selection.append(", ?");
+            }
+            selection.append(')');
+            removedDays.add(0, Long.toString(locationId));
+            operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                    .withSelection(selection.toString(),
+                            removedDays.toArray(new String[removedDays.size()]))
+                    .build());
+        }
+    }
+
+    /**
+     * Applies a batch of operations on a location's forecast.
+     * @param location the location setting
+     * @param operations the operations
+     * @throws IOException if the operations cannot be applied
+     */
+    private void applyBatch(String location, ArrayList<ContentProviderOperation> operations)
+            throws IOException {
+        try {
+            contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Unable to store forecast for " + location, e);
+        }
+    }
+
+    /**
+     * Returns the lock which serializes the puts and merges of a location's forecast.
+     * The locks are shared by all instances, as they share the provider's database.
+     * @param location the location setting
+     * @return the lock for the location
+     */
+    private static Object getLocationLock(String location) {
+        synchronized (LOCATION_LOCKS) {
+            Object lock = LOCATION_LOCKS.get(location);
+            if (lock == null) {
+                lock = new Object();
+                LOCATION_LOCKS.put(location, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Reads the forecast stored for a location, however many days it has.
+     * @param location the location setting
+     * @return the stored forecast, which has no days if none is stored
+     * @throws IOException if the stored forecast cannot be queried
+     */
+    private Forecast readStoredForecast(String location) throws IOException {
+        Cursor cursor = contentResolver.query(WeatherEntry.buildWeatherLocation(location),
+                FORECAST_COLUMNS, null, null, SORT_ORDER_DATE);
+        if (cursor == null) {
+            throw new IOException("Unable to query forecast for " + location);
+        }
+        try {
+            return readForecast(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of the row of a day's forecast, apart from its location.
+     * @param forecast the forecast
+     * @param position the position of the day in the forecast
+     * @return the values of the row
+     */
+    private static ContentValues toContentValues(Forecast forecast, int position) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, forecast.getEpochDay(position));
+        values.put(WeatherEntry.COLUMN_CONDITION, forecast.getCondition(position));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, forecast.getHigh(position));
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, forecast.getLow(position));
+        putOptional(values, WeatherEntry.COLUMN_HUMIDITY, forecast.getHumidity(position));
+        putOptional(values, WeatherEntry.COLUMN_PRESSURE, forecast.getPressure(position));
+        putOptional(values, WeatherEntry.COLUMN_WIND_SPEED, forecast.getWindSpeed(position));
+        putOptional(values, WeatherEntry.COLUMN_DEGREES,
+                forecast.getWindDirection(position));
+        return values;
+    }
+
+    /**
+     * Returns the row id of a location, adding the location if it is not already held.
+     * @param contentResolver the content resolver
+     * @param location the location setting
+     * @return the row id of the location
+     * @throws IOException if the location cannot be read or added
+     */
+    static long getOrAddLocation(ContentResolver contentResolver, String location)
+            throws IOException {
+        long locationId = findLocation(contentResolver, location);
+        if (locationId != NO_LOCATION_ID) {
+            return locationId;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, location);
+        Uri locationUri = contentResolver.insert(LocationEntry.CONTENT_URI, values);
+        if (locationUri == null) {
+            throw new IOException("Unable to add location " + location);
+        }
+        return ContentUris.parseId(locationUri);
+    }
+
+    /**
+     * Returns the row id of a location.
+     * @param contentResolver the content resolver
+     * @param location the location setting
+     * @return the row id of the location, or {@link #NO_LOCATION_ID} if it is not held
+     * @throws IOException if the location cannot be read
+     */
+    private static long findLocation(ContentResolver contentResolver, String location)
+            throws IOException {
+        Cursor cursor = contentResolver.query(LocationEntry.CONTENT_URI,
+                new String[] {LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[] {location}, null);
+        if (cursor == null) {
+            throw new IOException("Unable to query location " + location);
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : NO_LOCATION_ID;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads a forecast from a cursor whose columns are {@link #FORECAST_COLUMNS}.
+     * The cursor's position is changed.
+     * @param cursor the cursor, with one row per day
+     * @return the forecast
+     */
+    public static Forecast readForecast(Cursor cursor) {
+        int dayCount = cursor.getCount();
+        long[] epochDays = new long[dayCount];
+        double[] highs = new double[dayCount];
+        double[] lows = new double[dayCount];
+        String[] conditions = new String[dayCount];
+        double[] humidities = new double[dayCount];
+        double[] pressures = new double[dayCount];
+        double[] windSpeeds = new double[dayCount];
+        double[] windDirections = new double[dayCount];
+        for (int i = 0; i < dayCount && cursor.moveToPosition(i); i++) {
+            epochDays[i] = cursor.getLong(COL_WEATHER_DATE);
+            highs[i] = cursor.getDouble(COL_WEATHER_MAX_TEMP);
+            lows[i] = cursor.getDouble(COL_WEATHER_MIN_TEMP);
+            conditions[i] = cursor.getString(COL_WEATHER_CONDITION).intern();
+            humidities[i] = getOptional(cursor, COL_WEATHER_HUMIDITY);
+            pressures[i] = getOptional(cursor, COL_WEATHER_PRESSURE);
+            windSpeeds[i] = getOptional(cursor, COL_WEATHER_WIND_SPEED);
+            windDirections[i] = getOptional(cursor, COL_WEATHER_DEGREES);
+        }
+        return new Forecast(dayCount, epochDays, highs, lows, conditions, null,
+                humidities, pressures, windSpeeds, windDirections);
+    }
+
+    /**
+     * Reads the day at the current position of a cursor whose columns are
+     * {@link #FORECAST_COLUMNS}.
+     * @param cursor the cursor, positioned at a day
+     * @return the day
+     */
+    public static DayForecast readDay(Cursor cursor) {
+        return new DayForecast(cursor.getString(COL_LOCATION_SETTING),
+                cursor.getLong(COL_WEATHER_DATE),
+                cursor.getString(COL_WEATHER_CONDITION).intern(),
+                cursor.getDouble(COL_WEATHER_MAX_TEMP),
+                cursor.getDouble(COL_WEATHER_MIN_TEMP),
+                getOptional(cursor, COL_WEATHER_HUMIDITY),
+                getOptional(cursor, COL_WEATHER_PRESSURE),
+                getOptional(cursor, COL_WEATHER_WIND_SPEED),
+                getOptional(cursor, COL_WEATHER_DEGREES));
+    }
+
+    /**
+     * Puts an optional value, storing NaN as null.
+     * @param values the values of a row
+     * @param column the column
+     * @param value the value, or NaN if unknown
+     */
+    private static void putOptional(ContentValues values, String column, double value) {
+        if (Double.isNaN(value)) {
+            values.putNull(column);
+        } else {
+            values.put(column, value);
+        }
+    }
+
+    /**
+     * Reads an optional value from the current row of a cursor.
+     * @param cursor the cursor
+     * @param column the index of the column
+     * @return the value, or NaN if it is null
+     */
+    private static double getOptional(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    /**
+     * Reads the time at which a forecast was fetched from a cursor whose columns are
+     * {@link #FORECAST_COLUMNS}.  The cursor's position is changed.
+     * @param cursor the cursor, with one row per day
+     * @return the time at which the forecast was fetched, in milliseconds since the epoch,
+     *         or 0 if the cursor has no rows
+     */
+    public static long readFetchedAtMillis(Cursor cursor) {
+        return cursor.moveToFirst() ? cursor.getLong(COL_LOCATION_LAST_FETCHED) : 0;
+    }
+
+}
@@ -0,0 +1,65 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.IOException;
+
+import uk.jumpingmouse.sunshine.HourlySeries;
+import uk.jumpingmouse.sunshine.HourlySeriesStore;
+import uk.jumpingmouse.sunshine.data.WeatherContract.HourlyEntry;
+
+/**
+ * A store of intraday forecast series, held in the hourly table of the weather content
+ * provider.  Each series is held as a single blob in its compact encoded form.
+ * The methods query the provider, so must not be called on the main thread.
+ * @author Edmund Johnson.
+ */
+public class ProviderHourlySeriesStore implements HourlySeriesStore {
+
+    /** The columns of a stored series, which are read by {@link #readSeries}. */
+    public static final String[] SERIES_COLUMNS = {
+            HourlyEntry.COLUMN_SERIES
+    };
+    // These indices are tied to SERIES_COLUMNS.
+    public static final int COL_SERIES = 0;
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Constructor.
+     * @param contentResolver the content resolver
+     */
+    public ProviderHourlySeriesStore(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    @Override
+    public void putSeries(String location, HourlySeries series, long fetchedAtMillis)
+            throws IOException {
+        long locationId = ProviderForecastCache.getOrAddLocation(contentResolver, location);
+
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HourlyEntry.COLUMN_LAST_FETCHED, fetchedAtMillis);
+        values.put(HourlyEntry.COLUMN_SERIES, series.toBytes());
+        // The unique location key makes this replace any series stored before
+        contentResolver.insert(HourlyEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Reads a series from a cursor over {@link #SERIES_COLUMNS}.
+     * @param cursor the cursor, positioned at the series
+     * @return the series, or null if it cannot be decoded, e.g. it was stored by an older
+     *         version of the app
+     */
+    public static HourlySeries readSeries(Cursor cursor) {
+        try {
+            return HourlySeries.fromBytes(cursor.getBlob(COL_SERIES));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.jumpingmouse.sunshine.Place;
+import uk.jumpingmouse.sunshine.PlaceStore;
+import uk.jumpingmouse.sunshine.data.WeatherContract.LocationEntry;
+
+/**
+ * A store of the places to which locations have been resolved, held in the location table
+ * of the weather content provider.
+ * Places are also held in memory once read, so repeated lookups do not query the provider.
+ * The methods query the provider, so must not be called on the main thread.
+ * @author Edmund Johnson.
+ */
+public class ProviderPlaceStore implements PlaceStore {
+
+    private static final String[] PLACE_COLUMNS = {
+            LocationEntry.COLUMN_CITY_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // These indices are tied to PLACE_COLUMNS.
+    private static final int COL_CITY_ID = 0;
+    private static final int COL_COORD_LAT = 1;
+    private static final int COL_COORD_LONG = 2;
+
+    private final ContentResolver contentResolver;
+
+    /** The places which have been read or stored, keyed by location.  Guarded by itself. */
+    private final Map<String, Place> places = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param contentResolver the content resolver
+     */
+    public ProviderPlaceStore(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    @Override
+    public Place getPlace(String location) {
+        synchronized (places) {
+            Place place = places.get(location);
+            if (place != null) {
+                return place;
+            }
+        }
+
+        Cursor cursor = contentResolver.query(LocationEntry.CONTENT_URI, PLACE_COLUMNS,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[] {location}, null);
+        if (cursor == null) {
+            return null;
+        }
+        Place place;
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            place = new Place(cursor.getLong(COL_CITY_ID),
+                    cursor.isNull(COL_COORD_LAT) ? Double.NaN : cursor.getDouble(COL_COORD_LAT),
+                    cursor.isNull(COL_COORD_LONG) ? Double.NaN : cursor.getDouble(COL_COORD_LONG));
+        } finally {
+            cursor.close();
+        }
+        if (!place.hasCityId() && !place.hasCoordinates()) {
+            // The location is held for its forecast, but has not been resolved
+            return null;
+        }
+        synchronized (places) {
+            places.put(location, place);
+        }
+        return place;
+    }
+
+    @Override
+    public void putPlace(String location, Place place) throws IOException {
+        long locationId = ProviderForecastCache.getOrAddLocation(contentResolver, location);
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_ID, place.getCityId());
+        if (place.hasCoordinates()) {
+            values.put(LocationEntry.COLUMN_COORD_LAT, place.getLatitude());
+            values.put(LocationEntry.COLUMN_COORD_LONG, place.getLongitude());
+        } else {
+            values.putNull(LocationEntry.COLUMN_COORD_LAT);
+            values.putNull(LocationEntry.COLUMN_COORD_LONG);
+        }
+        contentResolver.update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[] {Long.toString(locationId)});
+
+        synchronized (places) {
+            places.put(location, place);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Defines the tables, columns and URIs of the weather database and content provider.
+ * @author Edmund Johnson.
+ */
+public final class WeatherContract {
+
+    /** The name of the content provider. */
+    public static final String CONTENT_AUTHORITY = "uk.jumpingmouse.sunshine";
+    /** The base of all URIs of the content provider. */
+    public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+
+    /** The path for weather data. */
+    public static final String PATH_WEATHER = "weather";
+    /** The path for locations. */
+    public static final String PATH_LOCATION = "location";
+    /** The path for intraday forecast series. */
+    public static final String PATH_HOURLY = "hourly";
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private WeatherContract() {
+    }
+
+    /**
+     * The locations for which forecasts are held.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
+
+        public static final String TABLE_NAME = "location";
+
+        /** The location setting, as entered by the user and sent to the weather service. */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        /** The time at which the forecast was last fetched, in milliseconds since the epoch. */
+        public static final String COLUMN_LAST_FETCHED = "last_fetched";
+        /** The number of days requested when the forecast was last fetched. */
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        /** The OpenWeatherMap city id of the location, or 0 if it is not yet known. */
+        public static final String COLUMN_CITY_ID = "city_id";
+        /** The latitude of the location, or null if it is not yet known. */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        /** The longitude of the location, or null if it is not yet known. */
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /**
+         * Private constructor to prevent instantiation.
+         */
+        private LocationEntry() {
+        }
+
+        /**
+         * Returns the URI of a location.
+         * @param id the row id of the location
+         * @return the URI of the location
+         */
+        public static Uri buildLocationUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /**
+     * The daily forecasts for each location.
+     */
+    public static final class WeatherEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
+
+        public static final String TABLE_NAME = "weather";
+
+        /** The row id of the location, a foreign key into the location table. */
+        public static final String COLUMN_LOC_KEY = "location_id";
+        /** The date, as the number of days since 1970-01-01 (UTC). */
+        public static final String COLUMN_DATE = "date";
+        /** The weather condition, e.g. "Clear". */
+        public static final String COLUMN_CONDITION = "condition";
+        /** The high temperature, in centigrade. */
+        public static final String COLUMN_MAX_TEMP = "max";
+        /** The low temperature, in centigrade. */
+        public static final String COLUMN_MIN_TEMP = "min";
+        /** The humidity, as a percentage, or null if unknown. */
+        public static final String COLUMN_HUMIDITY = "humidity";
+        /** The atmospheric pressure, in hPa, or null if unknown. */
+        public static final String COLUMN_PRESSURE = "pressure";
+        /** The wind speed, in metres per second, or null if unknown. */
+        public static final String COLUMN_WIND_SPEED = "wind";
+        /** The direction the wind blows from, in degrees, or null if unknown. */
+        public static final String COLUMN_DEGREES = "degrees";
+
+        /** The path segment for weather queried by location. */
+        private static final String PATH_SEGMENT_LOCATION = "location";
+
+        /**
+         * Private constructor to prevent instantiation.
+         */
+        private WeatherEntry() {
+        }
+
+        /**
+         * Returns the URI of a day's forecast.
+         * @param id the row id of the day's forecast
+         * @return the URI of the day's forecast
+         */
+        public static Uri buildWeatherUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        /**
+         * Returns the URI of the forecast for a location.
+         * @param locationSetting the location setting
+         * @return the URI of the forecast for the location
+         */
+        public static Uri buildWeatherLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEGMENT_LOCATION)
+                    .appendPath(locationSetting)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of a day's forecast for a location.  The location and date
+         * identify the day without its row id, so the URI can be built before the day
+         * has been queried.
+         * @param locationSetting the location setting
+         * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+         * @return the URI of the day's forecast
+         */
+        public static Uri buildWeatherLocationWithDate(String locationSetting, long epochDay) {
+            return buildWeatherLocation(locationSetting).buildUpon()
+                    .appendPath(Long.toString(epochDay))
+                    .build();
+        }
+
+        /**
+         * Returns the location setting from a URI built by {@link #buildWeatherLocation}
+         * or {@link #buildWeatherLocationWithDate}.
+         * @param uri the URI
+         * @return the location setting
+         */
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        /**
+         * Returns the date from a URI built by {@link #buildWeatherLocationWithDate}.
+         * @param uri the URI
+         * @return the date, as the number of days since 1970-01-01 (UTC)
+         */
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+    }
+
+    /**
+     * The intraday (3-hourly) forecast series for each location.  Each location's series is
+     * held in a single row, encoded by {@link uk.jumpingmouse.sunshine.HourlySeries#toBytes()}.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        /** The row id of the location, a foreign key into the location table. */
+        public static final String COLUMN_LOC_KEY = "location_id";
+        /** The time at which the series was fetched, in milliseconds since the epoch. */
+        public static final String COLUMN_LAST_FETCHED = "last_fetched";
+        /** The encoded series. */
+        public static final String COLUMN_SERIES = "series";
+
+        /** The path segment for series queried by location. */
+        private static final String PATH_SEGMENT_LOCATION = "location";
+
+        /**
+         * Private constructor to prevent instantiation.
+         */
+        private HourlyEntry() {
+        }
+
+        /**
+         * Returns the URI of the series for a location.
+         * @param locationSetting the location setting
+         * @return the URI of the series for the location
+         */
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEGMENT_LOCATION)
+                    .appendPath(locationSetting)
+                    .build();
+        }
+
+        /**
+         * Returns the location setting from a URI built by {@link #buildHourlyLocation}.
+         * @param uri the URI
+         * @return the location setting
+         */
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+    }
+
+}
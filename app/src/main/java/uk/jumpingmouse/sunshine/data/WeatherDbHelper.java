@@ -0,0 +1,87 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import uk.jumpingmouse.sunshine.data.WeatherContract.HourlyEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.LocationEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Manages the local database of forecasts.
+ * @author Edmund Johnson.
+ */
+public class WeatherDbHelper extends SQLiteOpenHelper {
+
+    /** The version of the database, which must be incremented when the schema changes. */
+    private static final int DATABASE_VERSION = 4;
+
+    /** The name of the database file. */
+    static final String DATABASE_NAME = "weather.db";
+
+    /**
+     * Constructor.
+     * @param context the context
+     */
+    public WeatherDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        final String sqlCreateLocationTable = "CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, "
+                + LocationEntry.COLUMN_LAST_FETCHED + " INTEGER NOT NULL DEFAULT 0, "
+                + LocationEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + LocationEntry.COLUMN_CITY_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + LocationEntry.COLUMN_COORD_LAT + " REAL, "
+                + LocationEntry.COLUMN_COORD_LONG + " REAL"
+                + ");";
+
+        // The unique constraint on (location_id, date) creates the index used by all
+        // queries of the weather table, and makes inserting a day which already exists
+        // replace it.
+        final String sqlCreateWeatherTable = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_CONDITION + " TEXT NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL, "
+                + WeatherEntry.COLUMN_PRESSURE + " REAL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL, "
+                + WeatherEntry.COLUMN_DEGREES + " REAL, "
+                + "FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "
+                + "UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE
+                + ") ON CONFLICT REPLACE"
+                + ");";
+
+        // A location has a single series, which is replaced whenever it is fetched
+        final String sqlCreateHourlyTable = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " ("
+                + HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, "
+                + HourlyEntry.COLUMN_LAST_FETCHED + " INTEGER NOT NULL, "
+                + HourlyEntry.COLUMN_SERIES + " BLOB NOT NULL, "
+                + "FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES "
+                + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ")"
+                + ");";
+
+        db.execSQL(sqlCreateLocationTable);
+        db.execSQL(sqlCreateWeatherTable);
+        db.execSQL(sqlCreateHourlyTable);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The database only holds cached data, so it can simply be recreated
+        db.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        onCreate(db);
+    }
+
+}
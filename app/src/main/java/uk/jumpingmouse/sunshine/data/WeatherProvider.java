@@ -0,0 +1,339 @@
+package uk.jumpingmouse.sunshine.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import java.util.ArrayList;
+
+import uk.jumpingmouse.sunshine.data.WeatherContract.HourlyEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.LocationEntry;
+import uk.jumpingmouse.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Content provider for the local database of forecasts.
+ * @author Edmund Johnson.
+ */
+public class WeatherProvider extends ContentProvider {
+
+    static final int WEATHER = 100;
+    static final int WEATHER_ID = 101;
+    static final int WEATHER_WITH_LOCATION = 102;
+    static final int WEATHER_WITH_LOCATION_AND_DATE = 103;
+    static final int HOURLY = 200;
+    static final int HOURLY_WITH_LOCATION = 201;
+    static final int LOCATION = 300;
+    static final int LOCATION_ID = 301;
+
+    private static final UriMatcher URI_MATCHER = buildUriMatcher();
+
+    /** Joins each day's forecast to its location. */
+    private static final SQLiteQueryBuilder WEATHER_BY_LOCATION_QUERY_BUILDER;
+
+    static {
+        WEATHER_BY_LOCATION_QUERY_BUILDER = new SQLiteQueryBuilder();
+        WEATHER_BY_LOCATION_QUERY_BUILDER.setTables(
+                WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME
+                        + " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY
+                        + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID);
+    }
+
+    /** Joins each intraday series to its location. */
+    private static final SQLiteQueryBuilder HOURLY_BY_LOCATION_QUERY_BUILDER;
+
+    static {
+        HOURLY_BY_LOCATION_QUERY_BUILDER = new SQLiteQueryBuilder();
+        HOURLY_BY_LOCATION_QUERY_BUILDER.setTables(
+                HourlyEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME
+                        + " ON " + HourlyEntry.TABLE_NAME + "." + HourlyEntry.COLUMN_LOC_KEY
+                        + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID);
+    }
+
+    /** Selects the forecast for a location setting. */
+    private static final String SELECTION_LOCATION_SETTING =
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+    /** Selects a day's forecast by location setting and date. */
+    private static final String SELECTION_LOCATION_SETTING_AND_DATE =
+            SELECTION_LOCATION_SETTING + " AND " + WeatherEntry.COLUMN_DATE + " = ?";
+    /** Selects a day's forecast by row id. */
+    private static final String SELECTION_WEATHER_ID =
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + " = ?";
+
+    private WeatherDbHelper dbHelper;
+
+    /**
+     * Whether the calling thread is applying a batch, during which observers are not
+     * notified of each change, and whether the batch has changed anything.
+     */
+    private final ThreadLocal<boolean[]> batchChanges = new ThreadLocal<>();
+
+    /**
+     * Returns the matcher for the URIs handled by the provider.
+     * @return the URI matcher
+     */
+    static UriMatcher buildUriMatcher() {
+        final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        final String authority = WeatherContract.CONTENT_AUTHORITY;
+
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", WEATHER_ID);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/location/*",
+                WEATHER_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/location/*/#",
+                WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/location/*",
+                HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", LOCATION_ID);
+        return matcher;
+    }
+
+    @Override
+    public boolean onCreate() {
+        dbHelper = new WeatherDbHelper(getContext());
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (URI_MATCHER.match(uri)) {
+            case WEATHER:
+            case WEATHER_WITH_LOCATION:
+                return WeatherEntry.CONTENT_TYPE;
+            case WEATHER_ID:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherEntry.CONTENT_ITEM_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return HourlyEntry.CONTENT_TYPE;
+            case LOCATION:
+                return LocationEntry.CONTENT_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor;
+        switch (URI_MATCHER.match(uri)) {
+            case WEATHER:
+                cursor = db.query(WeatherEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case WEATHER_ID:
+                cursor = WEATHER_BY_LOCATION_QUERY_BUILDER.query(db, projection,
+                        SELECTION_WEATHER_ID, new String[] {uri.getLastPathSegment()},
+                        null, null, sortOrder);
+                break;
+            case WEATHER_WITH_LOCATION:
+                cursor = WEATHER_BY_LOCATION_QUERY_BUILDER.query(db, projection,
+                        SELECTION_LOCATION_SETTING,
+                        new String[] {WeatherEntry.getLocationSettingFromUri(uri)},
+                        null, null, sortOrder);
+                break;
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                cursor = WEATHER_BY_LOCATION_QUERY_BUILDER.query(db, projection,
+                        SELECTION_LOCATION_SETTING_AND_DATE,
+                        new String[] {WeatherEntry.getLocationSettingFromUri(uri),
+                                Long.toString(WeatherEntry.getDateFromUri(uri))},
+                        null, null, sortOrder);
+                break;
+            case HOURLY:
+                cursor = db.query(HourlyEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case HOURLY_WITH_LOCATION:
+                cursor = HOURLY_BY_LOCATION_QUERY_BUILDER.query(db, projection,
+                        SELECTION_LOCATION_SETTING,
+                        new String[] {HourlyEntry.getLocationSettingFromUri(uri)},
+                        null, null, sortOrder);
+                break;
+            case LOCATION:
+                cursor = db.query(LocationEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case LOCATION_ID:
+                cursor = db.query(LocationEntry.TABLE_NAME, projection,
+                        LocationEntry._ID + " = ?", new String[] {uri.getLastPathSegment()},
+                        null, null, sortOrder);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Uri returnUri;
+        switch (URI_MATCHER.match(uri)) {
+            case WEATHER: {
+                long id = db.insert(WeatherEntry.TABLE_NAME, null, values);
+                if (id < 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                returnUri = WeatherEntry.buildWeatherUri(id);
+                break;
+            }
+            case HOURLY: {
+                long id = db.insert(HourlyEntry.TABLE_NAME, null, values);
+                if (id < 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                // Only the intraday chart shows the series, so the forecast list is not
+                // notified, and does not query again
+                getContext().getContentResolver().notifyChange(HourlyEntry.CONTENT_URI, null);
+                return ContentUris.withAppendedId(HourlyEntry.CONTENT_URI, id);
+            }
+            case LOCATION: {
+                long id = db.insert(LocationEntry.TABLE_NAME, null, values);
+                if (id < 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                returnUri = LocationEntry.buildLocationUri(id);
+                break;
+            }
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        notifyChange();
+        return returnUri;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsDeleted;
+        switch (URI_MATCHER.match(uri)) {
+            case WEATHER:
+                rowsDeleted = db.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case LOCATION:
+                rowsDeleted = db.delete(LocationEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        if (rowsDeleted > 0) {
+            notifyChange();
+        }
+        return rowsDeleted;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+        switch (URI_MATCHER.match(uri)) {
+            case WEATHER:
+                rowsUpdated = db.update(WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
+                break;
+            case LOCATION:
+                rowsUpdated = db.update(LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        if (rowsUpdated > 0) {
+            notifyChange();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Inserts many days' forecasts in a single transaction, so that the database is only
+     * written, and observers are only notified, once.
+     * @param uri the URI, which must be {@link WeatherEntry#CONTENT_URI}
+     * @param values the rows to insert
+     * @return the number of rows inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (URI_MATCHER.match(uri) != WEATHER) {
+            return super.bulkInsert(uri, values);
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsInserted > 0) {
+            notifyChange();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction, so that observers see either
+     * none or all of its changes, and are only notified once.
+     * @param operations the operations
+     * @return the results of the operations
+     * @throws OperationApplicationException if an operation fails
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        boolean[] changed = new boolean[1];
+        batchChanges.set(changed);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            batchChanges.remove();
+        }
+        if (changed[0]) {
+            notifyChange();
+        }
+        return results;
+    }
+
+    /**
+     * Notifies observers of a change to the data, or if a batch is being applied, once the
+     * batch has been applied.  Every query includes data from the weather table, and most
+     * include data from the location table, so observers of all weather URIs are notified
+     * of any change.
+     */
+    private void notifyChange() {
+        boolean[] changed = batchChanges.get();
+        if (changed != null) {
+            changed[0] = true;
+            return;
+        }
+        getContext().getContentResolver().notifyChange(WeatherEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(HourlyEntry.CONTENT_URI, null);
+    }
+
+}
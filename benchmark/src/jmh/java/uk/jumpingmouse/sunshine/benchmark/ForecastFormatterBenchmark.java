@@ -0,0 +1,92 @@
+package uk.jumpingmouse.sunshine.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import uk.jumpingmouse.sunshine.Clock;
+import uk.jumpingmouse.sunshine.DateLabeler;
+import uk.jumpingmouse.sunshine.Forecast;
+import uk.jumpingmouse.sunshine.ForecastFormatter;
+import uk.jumpingmouse.sunshine.WeatherDataParser;
+
+/**
+ * Measures the formatting of parsed forecasts for display.
+ * One operation formats every day of every forecast in the payload, as happens when
+ * the forecast list is first bound.
+ * @author Edmund Johnson.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ForecastFormatterBenchmark {
+
+    private static final String UNITS_METRIC = "metric";
+
+    @Param({Payloads.DAILY_7, Payloads.DAILY_16, Payloads.DAILY_16_MULTI_CITY})
+    public String payload;
+
+    @Param({UNITS_METRIC, ForecastFormatter.UNITS_IMPERIAL})
+    public String units;
+
+    private Forecast[] forecasts;
+    private ForecastFormatter formatter;
+    private Locale locale;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] responses = Payloads.load(payload);
+        int dayCount = Payloads.getDayCount(payload);
+        WeatherDataParser parser = new WeatherDataParser();
+        forecasts = new Forecast[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            forecasts[i] = parser.getWeatherDataFromStream(
+                    new ByteArrayInputStream(responses[i]), dayCount);
+        }
+        formatter = new ForecastFormatter(new DateLabeler(Clock.SYSTEM, TimeZone.getDefault(),
+                "Today", "Tomorrow"));
+        locale = Locale.UK;
+    }
+
+    @Benchmark
+    public void formatDay(Blackhole blackhole) {
+        for (Forecast forecast : forecasts) {
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                blackhole.consume(formatter.formatDay(forecast, i, units, locale));
+            }
+        }
+    }
+
+    @Benchmark
+    public void getReadableDateString(Blackhole blackhole) {
+        for (Forecast forecast : forecasts) {
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                blackhole.consume(formatter.getReadableDateString(forecast.getEpochDay(i), locale));
+            }
+        }
+    }
+
+    @Benchmark
+    public void formatHighLow(Blackhole blackhole) {
+        for (Forecast forecast : forecasts) {
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                blackhole.consume(formatter.formatHighLow(
+                        formatter.formatTemperature(forecast.getHigh(i), units),
+                        formatter.formatTemperature(forecast.getLow(i), units)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package uk.jumpingmouse.sunshine.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded OpenWeatherMap daily forecast responses, used as benchmark input.
+ * @author Edmund Johnson.
+ */
+final class Payloads {
+
+    /** A 7-day forecast for a single city. */
+    static final String DAILY_7 = "daily_7";
+    /** A 16-day forecast for a single city. */
+    static final String DAILY_16 = "daily_16";
+    /** 16-day forecasts for ten cities, one response per line. */
+    static final String DAILY_16_MULTI_CITY = "daily_16_multi_city";
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private Payloads() {
+    }
+
+    /**
+     * Returns the responses of a recorded payload, each as the bytes received from the
+     * weather service.
+     * @param name the name of the payload
+     * @return the responses of the payload
+     * @throws IOException if the payload cannot be read
+     */
+    static byte[][] load(String name) throws IOException {
+        switch (name) {
+            case DAILY_7:
+                return new byte[][] {readResource("forecast_daily_7.json")};
+            case DAILY_16:
+                return new byte[][] {readResource("forecast_daily_16.json")};
+            case DAILY_16_MULTI_CITY:
+                return splitLines(readResource("forecast_daily_16_multi_city.jsonl"));
+            default:
+                throw new IllegalArgumentException("Unknown payload: " + name);
+        }
+    }
+
+    /**
+     * Returns the number of days in each response of a recorded payload.
+     * @param name the name of the payload
+     * @return the number of days in each response
+     */
+    static int getDayCount(String name) {
+        return DAILY_7.equals(name) ? 7 : 16;
+    }
+
+    private static byte[] readResource(String fileName) throws IOException {
+        InputStream in = Payloads.class.getResourceAsStream("/payloads/" + fileName);
+        if (in == null) {
+            throw new IOException("Payload not found: " + fileName);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[][] splitLines(byte[] bytes) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == '\n') {
+                if (i > start) {
+                    byte[] line = new byte[i - start];
+                    System.arraycopy(bytes, start, line, 0, line.length);
+                    lines.add(line);
+                }
+                start = i + 1;
+            }
+        }
+        return lines.toArray(new byte[lines.size()][]);
+    }
+
+}
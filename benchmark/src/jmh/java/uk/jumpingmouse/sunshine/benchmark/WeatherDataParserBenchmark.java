@@ -0,0 +1,51 @@
+package uk.jumpingmouse.sunshine.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import uk.jumpingmouse.sunshine.WeatherDataParser;
+
+/**
+ * Measures the parsing of recorded forecast responses.
+ * One operation parses every response in the payload.
+ * @author Edmund Johnson.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WeatherDataParserBenchmark {
+
+    @Param({Payloads.DAILY_7, Payloads.DAILY_16, Payloads.DAILY_16_MULTI_CITY})
+    public String payload;
+
+    private byte[][] responses;
+    private int dayCount;
+    private WeatherDataParser parser;
+
+    @Setup
+    public void setUp() throws IOException {
+        responses = Payloads.load(payload);
+        dayCount = Payloads.getDayCount(payload);
+        parser = new WeatherDataParser();
+    }
+
+    @Benchmark
+    public void getWeatherDataFromStream(Blackhole blackhole) throws IOException {
+        for (byte[] response : responses) {
+            blackhole.consume(parser.getWeatherDataFromStream(
+                    new ByteArrayInputStream(response), dayCount));
+        }
+    }
+
+}
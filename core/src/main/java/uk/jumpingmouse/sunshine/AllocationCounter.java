@@ -0,0 +1,27 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * A source of the number of bytes allocated by the current thread, for measuring the
+ * allocations of a stage such as parsing.  How this is counted depends on the platform.
+ * @author Edmund Johnson.
+ */
+public interface AllocationCounter {
+
+    /** The value returned when allocations are not being counted. */
+    long NOT_COUNTED = -1;
+
+    /** A counter for when allocations are not being counted. */
+    AllocationCounter NONE = new AllocationCounter() {
+        @Override
+        public long getAllocatedBytes() {
+            return NOT_COUNTED;
+        }
+    };
+
+    /**
+     * Returns the total number of bytes allocated by the current thread so far.
+     * @return the number of bytes allocated, or {@link #NOT_COUNTED}
+     */
+    long getAllocatedBytes();
+
+}
@@ -0,0 +1,49 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.Random;
+
+/**
+ * Calculates the delays between successive attempts at a failing operation.
+ * The delay doubles with each failure, up to a maximum, and is randomised between half and
+ * all of that value, so that clients which failed together do not all retry together.
+ * @author Edmund Johnson.
+ */
+public class Backoff {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    /**
+     * Constructor.
+     * @param initialDelayMillis the delay after the first failure, before jitter is applied
+     * @param maxDelayMillis the maximum delay, before jitter is applied
+     * @param random the source of the jitter
+     */
+    public Backoff(long initialDelayMillis, long maxDelayMillis, Random random) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid backoff delays: "
+                    + initialDelayMillis + ", " + maxDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     * @param failureCount the number of consecutive failures so far, at least 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    public long getDelayMillis(int failureCount) {
+        long delayMillis = initialDelayMillis;
+        for (int i = 1; i < failureCount && delayMillis < maxDelayMillis; i++) {
+            delayMillis *= 2;
+        }
+        delayMillis = Math.min(delayMillis, maxDelayMillis);
+
+        long halfDelayMillis = delayMillis / 2;
+        return halfDelayMillis + (long) (random.nextDouble() * (delayMillis - halfDelayMillis));
+    }
+
+}
@@ -0,0 +1,23 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * A source of the current time, which can be replaced in tests.
+ * @author Edmund Johnson.
+ */
+public interface Clock {
+
+    /** A clock which returns the system time. */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Returns the current time.
+     * @return the current time, in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+}
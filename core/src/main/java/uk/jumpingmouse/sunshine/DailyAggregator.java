@@ -0,0 +1,152 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates a series of intraday samples, e.g. the 3-hourly forecast, into a daily
+ * forecast, as the samples arrive.
+ * <p>
+ * For each day the minimum, maximum and mean temperature and the dominant (most frequent)
+ * condition are accumulated in primitive arrays, so no object is created per sample.
+ * Samples must be added in time order.  Days are UTC dates, as for the daily forecast.
+ * @author Edmund Johnson.
+ */
+public class DailyAggregator {
+
+    /** The number of seconds in a day. */
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    /** The initial number of distinct conditions tallied per day. */
+    private static final int INITIAL_TALLY_SIZE = 8;
+
+    private final int maxDays;
+    private final long[] epochDays;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] sums;
+    private final int[] sampleCounts;
+    private final String[] conditions;
+    private int dayCount;
+
+    /** The distinct conditions of the current day, and the number of samples of each. */
+    private String[] tallyConditions = new String[INITIAL_TALLY_SIZE];
+    private int[] tallyCounts = new int[INITIAL_TALLY_SIZE];
+    private int tallySize;
+
+    /**
+     * Constructor.
+     * @param maxDays the maximum number of days to aggregate; later samples are ignored
+     */
+    public DailyAggregator(int maxDays) {
+        this.maxDays = maxDays;
+        epochDays = new long[maxDays];
+        highs = new double[maxDays];
+        lows = new double[maxDays];
+        sums = new double[maxDays];
+        sampleCounts = new int[maxDays];
+        conditions = new String[maxDays];
+    }
+
+    /**
+     * Adds a sample.
+     * @param epochSecond the time of the sample, in seconds since the epoch
+     * @param temperature the temperature, in centigrade
+     * @param condition the interned weather condition, e.g. "Rain"
+     */
+    public void add(long epochSecond, double temperature, String condition) {
+        long epochDay = epochSecond / SECONDS_PER_DAY;
+        int position = dayCount - 1;
+        if (dayCount == 0 || epochDay > epochDays[position]) {
+            if (dayCount == maxDays) {
+                return;
+            }
+            finishDay();
+            position = dayCount++;
+            epochDays[position] = epochDay;
+            highs[position] = temperature;
+            lows[position] = temperature;
+        } else if (epochDay < epochDays[position]) {
+            // Samples must be in time order; an earlier one is ignored
+            return;
+        }
+
+        highs[position] = Math.max(highs[position], temperature);
+        lows[position] = Math.min(lows[position], temperature);
+        sums[position] += temperature;
+        sampleCounts[position]++;
+        tally(condition);
+    }
+
+    /**
+     * Returns the number of days aggregated so far.
+     * @return the number of days
+     */
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    /**
+     * Returns the mean temperature of a day.
+     * @param position the position of the day
+     * @return the mean temperature of the day, in centigrade
+     */
+    public double getMean(int position) {
+        return sums[position] / sampleCounts[position];
+    }
+
+    /**
+     * Returns the daily forecast aggregated from the samples added so far.
+     * More samples may be added afterwards.
+     * @return the daily forecast, with the maximum, minimum and dominant condition of each day
+     */
+    public Forecast getForecast() {
+        finishDay();
+        return new Forecast(dayCount, Arrays.copyOf(epochDays, dayCount),
+                Arrays.copyOf(highs, dayCount), Arrays.copyOf(lows, dayCount),
+                Arrays.copyOf(conditions, dayCount));
+    }
+
+    /**
+     * Sets the dominant condition of the current day from the tally so far.
+     * Of conditions with the same number of samples, the first to occur is dominant.
+     */
+    private void finishDay() {
+        if (dayCount == 0) {
+            return;
+        }
+        int dominant = -1;
+        for (int i = 0; i < tallySize; i++) {
+            if (dominant < 0 || tallyCounts[i] > tallyCounts[dominant]) {
+                dominant = i;
+            }
+        }
+        conditions[dayCount - 1] = dominant < 0 ? "" : tallyConditions[dominant];
+    }
+
+    /**
+     * Counts a sample's condition in the tally of the current day, which is reset when
+     * the day changes.
+     * @param condition the interned condition
+     */
+    private void tally(String condition) {
+        if (sampleCounts[dayCount - 1] == 1) {
+            // The first sample of a new day
+            Arrays.fill(tallyConditions, 0, tallySize, null);
+            tallySize = 0;
+        }
+        for (int i = 0; i < tallySize; i++) {
+            // The conditions are interned, so can be compared by reference
+            if (tallyConditions[i] == condition) {
+                tallyCounts[i]++;
+                return;
+            }
+        }
+        if (tallySize == tallyConditions.length) {
+            tallyConditions = Arrays.copyOf(tallyConditions, tallySize * 2);
+            tallyCounts = Arrays.copyOf(tallyCounts, tallySize * 2);
+        }
+        tallyConditions[tallySize] = condition;
+        tallyCounts[tallySize] = 1;
+        tallySize++;
+    }
+
+}
@@ -0,0 +1,150 @@
+package uk.jumpingmouse.sunshine;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Produces the labels displayed for the dates of forecasts, e.g. "Today", "Tomorrow",
+ * "Sat Jun 20".
+ * <p>
+ * A date formatter is created once per locale, and the label of each date is memoised
+ * per locale, so once the labels of the displayed dates have been produced, producing
+ * them again, e.g. while scrolling, allocates nothing.
+ * Methods are synchronized, as date formatters are not thread-safe.
+ * @author Edmund Johnson.
+ */
+public class DateLabeler {
+
+    /** The pattern of dates which are not given a relative label. */
+    private static final String DATE_PATTERN = "EEE MMM dd";
+    /** The number of milliseconds in a day. */
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    /** The number of labels memoised per locale; must be a power of two. */
+    private static final int LABELS_PER_LOCALE = 64;
+    /** The key of an empty slot in a memo table. */
+    private static final long NO_EPOCH_DAY = Long.MIN_VALUE;
+
+    private final Clock clock;
+    private final TimeZone localTimeZone;
+    private final String todayLabel;
+    private final String tomorrowLabel;
+
+    /** The memoised labels for each locale. */
+    private final Map<Locale, LocaleLabels> labelsByLocale = new HashMap<>();
+    /** The locale most recently used, which is nearly always the one used next. */
+    private Locale lastLocale;
+    private LocaleLabels lastLabels;
+
+    /**
+     * Constructor for a labeler which only produces absolute labels.
+     */
+    public DateLabeler() {
+        this(Clock.SYSTEM, TimeZone.getDefault(), null, null);
+    }
+
+    /**
+     * Constructor.
+     * @param clock the clock, used to decide which date is today
+     * @param localTimeZone the user's time zone, used to decide which date is today
+     * @param todayLabel the label for today's date, or null to use an absolute label
+     * @param tomorrowLabel the label for tomorrow's date, or null to use an absolute label
+     */
+    public DateLabeler(Clock clock, TimeZone localTimeZone, String todayLabel,
+                       String tomorrowLabel) {
+        this.clock = clock;
+        this.localTimeZone = localTimeZone;
+        this.todayLabel = todayLabel;
+        this.tomorrowLabel = tomorrowLabel;
+    }
+
+    /**
+     * Returns the label for a date, which is relative ("Today", "Tomorrow") if possible.
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @param locale the locale
+     * @return the label for the date
+     */
+    public synchronized String getLabel(long epochDay, Locale locale) {
+        long todayEpochDay = getTodayEpochDay();
+        if (epochDay == todayEpochDay && todayLabel != null) {
+            return todayLabel;
+        }
+        if (epochDay == todayEpochDay + 1 && tomorrowLabel != null) {
+            return tomorrowLabel;
+        }
+        return getAbsoluteLabel(epochDay, locale);
+    }
+
+    /**
+     * Returns the absolute label for a date, e.g. "Sat Jun 20".
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @param locale the locale
+     * @return the label for the date
+     */
+    public synchronized String getAbsoluteLabel(long epochDay, Locale locale) {
+        return getLocaleLabels(locale).getLabel(epochDay);
+    }
+
+    /**
+     * Returns today's date in the user's time zone.
+     * @return today's date, as the number of days since 1970-01-01
+     */
+    private long getTodayEpochDay() {
+        long nowMillis = clock.currentTimeMillis();
+        long localMillis = nowMillis + localTimeZone.getOffset(nowMillis);
+        // Round down, even for (theoretical) dates before 1970
+        long epochDay = localMillis / MILLIS_PER_DAY;
+        return localMillis < 0 && localMillis % MILLIS_PER_DAY != 0 ? epochDay - 1 : epochDay;
+    }
+
+    /**
+     * Returns the memoised labels for a locale, creating them if necessary.
+     * @param locale the locale
+     * @return the memoised labels for the locale
+     */
+    private LocaleLabels getLocaleLabels(Locale locale) {
+        if (locale == lastLocale) {
+            return lastLabels;
+        }
+        LocaleLabels labels = labelsByLocale.get(locale);
+        if (labels == null) {
+            labels = new LocaleLabels(locale);
+            labelsByLocale.put(locale, labels);
+        }
+        lastLocale = locale;
+        lastLabels = labels;
+        return labels;
+    }
+
+    /**
+     * The date formatter and memoised labels for a locale.
+     * The labels are held in a direct-mapped table indexed by the low bits of the date,
+     * so a lookup needs no boxing of the key.  Consecutive dates never collide, so a
+     * forecast of up to {@link #LABELS_PER_LOCALE} days is held in full.
+     */
+    private static final class LocaleLabels {
+        private final SimpleDateFormat dateFormat;
+        private final long[] epochDays = new long[LABELS_PER_LOCALE];
+        private final String[] labels = new String[LABELS_PER_LOCALE];
+
+        LocaleLabels(Locale locale) {
+            dateFormat = new SimpleDateFormat(DATE_PATTERN, locale);
+            // Epoch days are UTC dates, so must be formatted as UTC to avoid shifting the day
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Arrays.fill(epochDays, NO_EPOCH_DAY);
+        }
+
+        String getLabel(long epochDay) {
+            int slot = (int) (epochDay & (LABELS_PER_LOCALE - 1));
+            if (epochDays[slot] != epochDay) {
+                labels[slot] = dateFormat.format(epochDay * MILLIS_PER_DAY);
+                epochDays[slot] = epochDay;
+            }
+            return labels[slot];
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * The forecast for a single day at a location, with the detail which only the detail screen
+ * displays: humidity, pressure and wind.
+ * <p>
+ * A day is identified by its key, the location and date, which is all that needs to be
+ * passed to the detail screen; the day itself is then found in a cache of recently viewed
+ * days, or loaded from the forecast store.
+ * Temperatures are held in centigrade.  Instances are immutable.
+ * @author Edmund Johnson.
+ */
+public final class DayForecast {
+
+    private final String location;
+    private final long epochDay;
+    private final String condition;
+    private final double high;
+    private final double low;
+    private final double humidity;
+    private final double pressure;
+    private final double windSpeed;
+    private final double windDirection;
+
+    /**
+     * Constructor.
+     * @param location the location setting
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @param condition the weather condition, e.g. "Clear"
+     * @param high the high temperature, in centigrade
+     * @param low the low temperature, in centigrade
+     * @param humidity the humidity, as a percentage, or NaN if unknown
+     * @param pressure the atmospheric pressure, in hPa, or NaN if unknown
+     * @param windSpeed the wind speed, in metres per second, or NaN if unknown
+     * @param windDirection the direction the wind blows from, in degrees, or NaN if unknown
+     */
+    public DayForecast(String location, long epochDay, String condition, double high,
+                       double low, double humidity, double pressure, double windSpeed,
+                       double windDirection) {
+        this.location = location;
+        this.epochDay = epochDay;
+        this.condition = condition;
+        this.high = high;
+        this.low = low;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+        this.windDirection = windDirection;
+    }
+
+    /**
+     * Returns a day of a forecast.
+     * @param location the location setting of the forecast
+     * @param forecast the forecast
+     * @param position the position of the day in the forecast
+     * @return the day
+     */
+    public static DayForecast of(String location, Forecast forecast, int position) {
+        return new DayForecast(location, forecast.getEpochDay(position),
+                forecast.getCondition(position), forecast.getHigh(position),
+                forecast.getLow(position), forecast.getHumidity(position),
+                forecast.getPressure(position), forecast.getWindSpeed(position),
+                forecast.getWindDirection(position));
+    }
+
+    /**
+     * Returns the key which identifies a day, e.g. in a cache.
+     * @param location the location setting
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @return the key
+     */
+    public static String key(String location, long epochDay) {
+        return epochDay + "/" + location;
+    }
+
+    /**
+     * Returns the key which identifies the day.
+     * @return the key
+     */
+    public String getKey() {
+        return key(location, epochDay);
+    }
+
+    /**
+     * Returns the location setting.
+     * @return the location setting
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the date.
+     * @return the date, as the number of days since 1970-01-01 (UTC)
+     */
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * Returns the weather condition.
+     * @return the weather condition, e.g. "Clear"
+     */
+    public String getCondition() {
+        return condition;
+    }
+
+    /**
+     * Returns the high temperature.
+     * @return the high temperature, in centigrade
+     */
+    public double getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns the low temperature.
+     * @return the low temperature, in centigrade
+     */
+    public double getLow() {
+        return low;
+    }
+
+    /**
+     * Returns the humidity.
+     * @return the humidity, as a percentage, or NaN if unknown
+     */
+    public double getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Returns the atmospheric pressure.
+     * @return the pressure, in hPa, or NaN if unknown
+     */
+    public double getPressure() {
+        return pressure;
+    }
+
+    /**
+     * Returns the wind speed.
+     * @return the wind speed, in metres per second, or NaN if unknown
+     */
+    public double getWindSpeed() {
+        return windSpeed;
+    }
+
+    /**
+     * Returns the direction the wind blows from.
+     * @return the wind direction, in degrees clockwise from north, or NaN if unknown
+     */
+    public double getWindDirection() {
+        return windDirection;
+    }
+
+}
@@ -0,0 +1,459 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Schedules the fetching of forecasts on a bounded executor.
+ * <ul>
+ * <li>A request for a forecast which is already being fetched does not start another fetch;
+ * the new listener is attached to the fetch in progress, and is given any result which has
+ * already been delivered.</li>
+ * <li>A listener is detached by its {@link Subscription}, so a short-lived component such as
+ * a fragment is not referenced once it has stopped, while the fetch itself continues.</li>
+ * <li>A fetch which has been superseded is cancelled once none of its subscriptions want it.</li>
+ * <li>The number of requests in progress to any one host is limited.</li>
+ * <li>No request is made while the device is offline; the cached forecast is delivered,
+ * followed by an {@link OfflineException}.</li>
+ * <li>A failed request is retried a few times, with exponential backoff and jitter.  If it
+ * still fails, further requests for the forecast are not made until the backoff delay has
+ * passed, unless they are forced, e.g. by the user refreshing.</li>
+ * </ul>
+ * This class has no dependencies on Android, so can be run on a plain JVM with a fake
+ * {@link ForecastTransport}, a fake {@link Clock}, a fake {@link NetworkMonitor}
+ * and a direct executor.
+ * @author Edmund Johnson.
+ */
+public class FetchScheduler {
+
+    private final ForecastTransport transport;
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+    private final Clock clock;
+    private final NetworkMonitor networkMonitor;
+    private final Backoff backoff;
+    private final int maxAttempts;
+    private final HostLimiter hostLimiter;
+
+    /** The fetches in progress, keyed by location and day count.  Guarded by itself. */
+    private final Map<String, FetchJob> jobs = new HashMap<>();
+    /** The forecasts whose fetches are failing, keyed as for the jobs.  Guarded by itself. */
+    private final Map<String, Failure> failures = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param transport the means of obtaining forecasts
+     * @param executor the executor on which forecasts are fetched
+     * @param callbackExecutor the executor on which listeners are called
+     * @param clock the clock, used to decide whether cached forecasts are fresh
+     * @param networkMonitor the monitor of the network state, used to avoid requests
+     *                       which cannot succeed
+     * @param backoff the backoff which spaces out the retries of failed requests
+     * @param maxAttempts the maximum number of attempts at a request within one fetch
+     * @param maxRequestsPerHost the maximum number of concurrent requests to any one host
+     */
+    public FetchScheduler(ForecastTransport transport, ExecutorService executor,
+                          Executor callbackExecutor, Clock clock, NetworkMonitor networkMonitor,
+                          Backoff backoff, int maxAttempts, int maxRequestsPerHost) {
+        this.transport = transport;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.clock = clock;
+        this.networkMonitor = networkMonitor;
+        this.backoff = backoff;
+        this.maxAttempts = maxAttempts;
+        this.hostLimiter = new HostLimiter(maxRequestsPerHost);
+    }
+
+    /**
+     * Requests the forecast for a location.
+     * Any cached forecast is delivered first; the forecast is then fetched from the weather
+     * service if the cached one is missing or has expired, or if forceFetch is true.
+     * @param location the location
+     * @param numDays the number of days of forecast required
+     * @param forceFetch whether to fetch a new forecast even if the cached one is fresh
+     * @param listener the listener to be given the forecast
+     * @return the subscription, which detaches the listener or cancels the request
+     */
+    public Subscription fetch(String location, int numDays, boolean forceFetch,
+                              Listener listener) {
+        String key = location + '|' + numDays;
+        FetchJob job;
+        boolean isNewJob = false;
+        synchronized (jobs) {
+            job = jobs.get(key);
+            if (job == null) {
+                job = new FetchJob(key, location, numDays);
+                jobs.put(key, job);
+                isNewJob = true;
+            }
+            if (forceFetch) {
+                job.forceFetch = true;
+            }
+            job.addListener(listener);
+        }
+        if (isNewJob) {
+            job.future = executor.submit(job);
+        }
+        return new Subscription(job, listener);
+    }
+
+    /**
+     * Requests the forecasts for several locations.
+     * @param locations the locations
+     * @param numDays the number of days of forecast required
+     * @param forceFetch whether to fetch new forecasts even if the cached ones are fresh
+     * @param listener the listener to be given the forecasts
+     * @param subscriptions the list to which the subscription for each location is added
+     */
+    public void fetchAll(List<String> locations, int numDays, boolean forceFetch,
+                         Listener listener, List<Subscription> subscriptions) {
+        for (String location : locations) {
+            subscriptions.add(fetch(location, numDays, forceFetch, listener));
+        }
+    }
+
+    /**
+     * Returns the number of fetches in progress.
+     * @return the number of fetches in progress
+     */
+    public int getActiveCount() {
+        synchronized (jobs) {
+            return jobs.size();
+        }
+    }
+
+    /**
+     * Removes a job from the jobs in progress, if it has not already been replaced.
+     * @param job the job
+     */
+    private void removeJob(FetchJob job) {
+        synchronized (jobs) {
+            if (jobs.get(job.key) == job) {
+                jobs.remove(job.key);
+            }
+        }
+    }
+
+    /**
+     * Returns the last failure of the fetches of a forecast, if it is still being backed off.
+     * @param key the key of the forecast
+     * @return the last failure, or null if the forecast can be fetched now
+     */
+    private IOException getBackedOffFailure(String key) {
+        synchronized (failures) {
+            Failure failure = failures.get(key);
+            if (failure == null || clock.currentTimeMillis() >= failure.retryAtMillis) {
+                return null;
+            }
+            return failure.exception;
+        }
+    }
+
+    /**
+     * Records a failed attempt to fetch a forecast.
+     * @param key the key of the forecast
+     * @param e the exception which caused the failure
+     */
+    private void recordFailure(String key, IOException e) {
+        synchronized (failures) {
+            Failure failure = failures.get(key);
+            if (failure == null) {
+                failure = new Failure();
+                failures.put(key, failure);
+            }
+            failure.count++;
+            failure.exception = e;
+            failure.retryAtMillis = clock.currentTimeMillis() + backoff.getDelayMillis(failure.count);
+        }
+    }
+
+    /**
+     * Records a successful fetch of a forecast, ending any backoff.
+     * @param key the key of the forecast
+     */
+    private void recordSuccess(String key) {
+        synchronized (failures) {
+            failures.remove(key);
+        }
+    }
+
+    /**
+     * The fetch of the forecast for a location.
+     */
+    private final class FetchJob implements Runnable {
+        private final String key;
+        private final String location;
+        private final int numDays;
+        private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        /** Whether to fetch a new forecast even if the cached one is fresh. */
+        private volatile boolean forceFetch;
+        /** Whether the job has been cancelled. */
+        private volatile boolean cancelled;
+        /** The future of the job, set once it has been submitted. */
+        private volatile Future<?> future;
+        /** The last forecast delivered, replayed to listeners which attach later. */
+        private volatile Forecast lastForecast;
+        private volatile boolean lastFromCache;
+
+        FetchJob(String key, String location, int numDays) {
+            this.key = key;
+            this.location = location;
+            this.numDays = numDays;
+        }
+
+        @Override
+        public void run() {
+            try {
+                fetchForecast();
+            } finally {
+                removeJob(this);
+            }
+        }
+
+        private void fetchForecast() {
+            ForecastCache.Entry cacheEntry = transport.getCached(location, numDays);
+            if (cacheEntry != null) {
+                deliverForecast(cacheEntry.getForecast(), true);
+                if (cacheEntry.isFresh(clock.currentTimeMillis()) && endUnlessForced()) {
+                    // The cached forecast is still fresh, there is no need to fetch it again
+                    return;
+                }
+            }
+
+            if (!networkMonitor.isConnected()) {
+                // The request cannot succeed, so save the battery and the API quota
+                deliverFailure(new OfflineException("No network connection"));
+                return;
+            }
+            IOException backedOffFailure = getBackedOffFailure(key);
+            if (backedOffFailure != null && endUnlessForced()) {
+                // The service failed recently, so do not ask it again yet
+                deliverFailure(backedOffFailure);
+                return;
+            }
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    Forecast forecast = fetchFromService(cacheEntry);
+                    if (forecast == null) {
+                        // The job has been cancelled
+                        return;
+                    }
+                    recordSuccess(key);
+                    deliverForecast(forecast, false);
+                    return;
+                } catch (IOException e) {
+                    if (cancelled) {
+                        // The failure may have been caused by the cancellation
+                        return;
+                    }
+                    recordFailure(key, e);
+                    if (attempt >= maxAttempts || !networkMonitor.isConnected()) {
+                        deliverFailure(e);
+                        return;
+                    }
+                }
+                try {
+                    Thread.sleep(backoff.getDelayMillis(attempt));
+                } catch (InterruptedException e) {
+                    // The job has been cancelled while waiting to retry
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ends the job without fetching, unless a fetch has been forced.
+         * The job is removed from the jobs in progress while holding their lock, so a forced
+         * request cannot attach to it after the check and be lost: it either forces this job
+         * to fetch, or starts a new job.
+         * @return true if the job has ended, false if it must fetch
+         */
+        private boolean endUnlessForced() {
+            synchronized (jobs) {
+                if (forceFetch) {
+                    return false;
+                }
+                removeJob(this);
+                return true;
+            }
+        }
+
+        /**
+         * Fetches the forecast from the weather service, once a request to its host is allowed.
+         * @param cacheEntry the cached forecast, or null if there is none
+         * @return the forecast, or null if the job has been cancelled
+         * @throws IOException if the forecast could not be fetched
+         */
+        private Forecast fetchFromService(ForecastCache.Entry cacheEntry) throws IOException {
+            String host = transport.getHost();
+            try {
+                hostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                // The job has been cancelled while waiting for its turn
+                return null;
+            }
+            try {
+                if (cancelled) {
+                    return null;
+                }
+                return transport.fetch(location, numDays, cacheEntry);
+            } finally {
+                hostLimiter.release(host);
+            }
+        }
+
+        /**
+         * Adds a listener, replaying the last forecast delivered, if any.
+         * Must be called while holding the lock on the jobs map, so that it cannot
+         * race with a forecast being delivered.
+         * @param listener the listener
+         */
+        void addListener(final Listener listener) {
+            listeners.add(listener);
+            final Forecast forecast = lastForecast;
+            if (forecast != null) {
+                final boolean fromCache = lastFromCache;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (listeners.contains(listener)) {
+                            listener.onForecast(location, forecast, fromCache);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Removes a listener.
+         * A job which is cancelled is removed from the jobs in progress under the same lock,
+         * so a later request for the forecast starts a new job rather than attaching to
+         * this one, whose listeners are never called.
+         * @param listener the listener
+         * @param cancelIfUnwanted whether to cancel the job if it has no listeners left
+         */
+        void removeListener(Listener listener, boolean cancelIfUnwanted) {
+            synchronized (jobs) {
+                listeners.remove(listener);
+                if (!cancelIfUnwanted || !listeners.isEmpty()) {
+                    return;
+                }
+                cancelled = true;
+                removeJob(this);
+            }
+            Future<?> jobFuture = future;
+            if (jobFuture != null) {
+                jobFuture.cancel(true);
+            }
+        }
+
+        private void deliverForecast(final Forecast forecast, final boolean fromCache) {
+            synchronized (jobs) {
+                if (cancelled) {
+                    return;
+                }
+                lastForecast = forecast;
+                lastFromCache = fromCache;
+            }
+            for (final Listener listener : listeners) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The listener may have been detached since the forecast was posted
+                        if (listeners.contains(listener)) {
+                            listener.onForecast(location, forecast, fromCache);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void deliverFailure(final IOException e) {
+            if (cancelled) {
+                return;
+            }
+            for (final Listener listener : listeners) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (listeners.contains(listener)) {
+                            listener.onFailure(location, e);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * The consecutive failures of the fetches of a forecast.
+     */
+    private static final class Failure {
+        private int count;
+        private IOException exception;
+        private long retryAtMillis;
+    }
+
+    /**
+     * The link between a listener and the fetch it is waiting for.
+     */
+    public final class Subscription {
+        private final FetchJob job;
+        private final Listener listener;
+
+        Subscription(FetchJob job, Listener listener) {
+            this.job = job;
+            this.listener = listener;
+        }
+
+        /**
+         * Detaches the listener, without cancelling the fetch.
+         * The fetch continues, so that its result is cached, and a later request for the
+         * same forecast will attach to it.
+         */
+        public void detach() {
+            job.removeListener(listener, false);
+        }
+
+        /**
+         * Detaches the listener, and cancels the fetch if no other listener is waiting for it.
+         * This is used when the request has been superseded, e.g. by a change of location.
+         */
+        public void cancel() {
+            job.removeListener(listener, true);
+        }
+    }
+
+    /**
+     * Listener for the results of a fetch.
+     * All methods are called on the callback executor.
+     */
+    public interface Listener {
+        /**
+         * Called when a forecast for a location is available.
+         * This may be called twice for a location, first with the cached forecast and then
+         * with the newly fetched one.
+         * @param location the location
+         * @param forecast the forecast
+         * @param fromCache whether the forecast came from the cache
+         */
+        void onForecast(String location, Forecast forecast, boolean fromCache);
+
+        /**
+         * Called when the forecast for a location could not be fetched.
+         * @param location the location
+         * @param e the exception which caused the failure
+         */
+        void onFailure(String location, IOException e);
+    }
+
+}
@@ -0,0 +1,224 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * A daily weather forecast for a location.
+ * The forecast is held as parallel primitive arrays, one element per day, rather than as
+ * one object per day.  Temperatures are always held in centigrade; conversion to the user's
+ * preferred units, like all other formatting, is done only when a day is displayed.
+ * The humidity, pressure and wind of each day are optional, as only the detail of a day
+ * displays them; they are {@link Double#NaN} if unknown.
+ * Instances are immutable.
+ * @author Edmund Johnson.
+ */
+public final class Forecast {
+
+    /** The number of days in the forecast. */
+    private final int dayCount;
+    /** The date of each day, as the number of days since 1970-01-01 (UTC). */
+    private final long[] epochDays;
+    /** The high temperature for each day, in centigrade. */
+    private final double[] highs;
+    /** The low temperature for each day, in centigrade. */
+    private final double[] lows;
+    /** The weather condition for each day, e.g. "Clear", "Rain".  The values are interned. */
+    private final String[] conditions;
+    /** The place the weather service reported the forecast to be for, or null if unknown. */
+    private final Place place;
+    /** The humidity for each day, as a percentage, or null if unknown. */
+    private final double[] humidities;
+    /** The atmospheric pressure for each day, in hPa, or null if unknown. */
+    private final double[] pressures;
+    /** The wind speed for each day, in metres per second, or null if unknown. */
+    private final double[] windSpeeds;
+    /** The direction the wind blows from for each day, in degrees, or null if unknown. */
+    private final double[] windDirections;
+
+    /**
+     * Constructor for a forecast whose place is unknown.
+     * The arrays are not copied, so must not be modified after construction.
+     * @param dayCount the number of days in the forecast
+     * @param epochDays the date of each day, as the number of days since 1970-01-01
+     * @param highs the high temperature for each day, in centigrade
+     * @param lows the low temperature for each day, in centigrade
+     * @param conditions the interned weather condition for each day
+     */
+    public Forecast(int dayCount, long[] epochDays, double[] highs, double[] lows,
+                    String[] conditions) {
+        this(dayCount, epochDays, highs, lows, conditions, null);
+    }
+
+    /**
+     * Constructor.  The arrays are not copied, so must not be modified after construction.
+     * @param dayCount the number of days in the forecast
+     * @param epochDays the date of each day, as the number of days since 1970-01-01
+     * @param highs the high temperature for each day, in centigrade
+     * @param lows the low temperature for each day, in centigrade
+     * @param conditions the interned weather condition for each day
+     * @param place the place the weather service reported the forecast to be for,
+     *              or null if unknown
+     */
+    public Forecast(int dayCount, long[] epochDays, double[] highs, double[] lows,
+                    String[] conditions, Place place) {
+        this(dayCount, epochDays, highs, lows, conditions, place, null, null, null, null);
+    }
+
+    /**
+     * Constructor for a forecast with the humidity, pressure and wind of each day.
+     * The arrays are not copied, so must not be modified after construction.
+     * @param dayCount the number of days in the forecast
+     * @param epochDays the date of each day, as the number of days since 1970-01-01
+     * @param highs the high temperature for each day, in centigrade
+     * @param lows the low temperature for each day, in centigrade
+     * @param conditions the interned weather condition for each day
+     * @param place the place the weather service reported the forecast to be for,
+     *              or null if unknown
+     * @param humidities the humidity for each day, as a percentage, or null if unknown
+     * @param pressures the atmospheric pressure for each day, in hPa, or null if unknown
+     * @param windSpeeds the wind speed for each day, in metres per second, or null if unknown
+     * @param windDirections the direction the wind blows from for each day, in degrees,
+     *                       or null if unknown
+     */
+    public Forecast(int dayCount, long[] epochDays, double[] highs, double[] lows,
+                    String[] conditions, Place place, double[] humidities, double[] pressures,
+                    double[] windSpeeds, double[] windDirections) {
+        if (epochDays.length < dayCount || highs.length < dayCount
+                || lows.length < dayCount || conditions.length < dayCount
+                || isShorter(humidities, dayCount) || isShorter(pressures, dayCount)
+                || isShorter(windSpeeds, dayCount) || isShorter(windDirections, dayCount)) {
+            throw new IllegalArgumentException("Forecast arrays are shorter than the day count");
+        }
+        this.dayCount = dayCount;
+        this.epochDays = epochDays;
+        this.highs = highs;
+        this.lows = lows;
+        this.conditions = conditions;
+        this.place = place;
+        this.humidities = humidities;
+        this.pressures = pressures;
+        this.windSpeeds = windSpeeds;
+        this.windDirections = windDirections;
+    }
+
+    /**
+     * Returns the number of days in the forecast.
+     * @return the number of days in the forecast
+     */
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    /**
+     * Returns the date of a day in the forecast, as the number of days since 1970-01-01 (UTC).
+     * @param position the position of the day in the forecast
+     * @return the date of the day
+     */
+    public long getEpochDay(int position) {
+        return epochDays[checkPosition(position)];
+    }
+
+    /**
+     * Returns the high temperature of a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the high temperature of the day, in centigrade
+     */
+    public double getHigh(int position) {
+        return highs[checkPosition(position)];
+    }
+
+    /**
+     * Returns the low temperature of a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the low temperature of the day, in centigrade
+     */
+    public double getLow(int position) {
+        return lows[checkPosition(position)];
+    }
+
+    /**
+     * Returns the weather condition of a day in the forecast, e.g. "Clear", "Rain".
+     * @param position the position of the day in the forecast
+     * @return the weather condition of the day
+     */
+    public String getCondition(int position) {
+        return conditions[checkPosition(position)];
+    }
+
+    /**
+     * Returns the humidity of a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the humidity of the day, as a percentage, or NaN if unknown
+     */
+    public double getHumidity(int position) {
+        return valueOf(humidities, position);
+    }
+
+    /**
+     * Returns the atmospheric pressure of a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the pressure of the day, in hPa, or NaN if unknown
+     */
+    public double getPressure(int position) {
+        return valueOf(pressures, position);
+    }
+
+    /**
+     * Returns the wind speed of a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the wind speed of the day, in metres per second, or NaN if unknown
+     */
+    public double getWindSpeed(int position) {
+        return valueOf(windSpeeds, position);
+    }
+
+    /**
+     * Returns the direction the wind blows from on a day in the forecast.
+     * @param position the position of the day in the forecast
+     * @return the wind direction of the day, in degrees clockwise from north, or NaN if unknown
+     */
+    public double getWindDirection(int position) {
+        return valueOf(windDirections, position);
+    }
+
+    /**
+     * Returns the place the weather service reported the forecast to be for.
+     * @return the place, or null if it is unknown
+     */
+    public Place getPlace() {
+        return place;
+    }
+
+    /**
+     * Returns a day's value from an optional array.
+     * @param values the values for each day, or null if unknown
+     * @param position the position of the day in the forecast
+     * @return the day's value, or NaN if unknown
+     */
+    private double valueOf(double[] values, int position) {
+        checkPosition(position);
+        return values == null ? Double.NaN : values[position];
+    }
+
+    /**
+     * Returns whether an optional array is too short to hold a value for each day.
+     * @param values the values for each day, or null if unknown
+     * @param dayCount the number of days in the forecast
+     * @return true if the array is present but too short, otherwise false
+     */
+    private static boolean isShorter(double[] values, int dayCount) {
+        return values != null && values.length < dayCount;
+    }
+
+    /**
+     * Checks that a position is within the forecast.
+     * @param position the position of a day in the forecast
+     * @return the position
+     */
+    private int checkPosition(int position) {
+        if (position < 0 || position >= dayCount) {
+            throw new IndexOutOfBoundsException(
+                    "Invalid position " + position + ", day count is " + dayCount);
+        }
+        return position;
+    }
+
+}
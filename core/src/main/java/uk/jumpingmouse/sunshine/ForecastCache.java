@@ -0,0 +1,95 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * A persistent cache of forecasts.
+ * Forecasts are keyed by location, units and day count.  Each cached forecast has a
+ * time-to-live; a forecast older than this is still returned, so that it can be displayed
+ * while a fresh one is fetched, but is reported as stale.
+ * @author Edmund Johnson.
+ */
+public interface ForecastCache {
+
+    /**
+     * Returns a cached forecast.
+     * @param location the location of the forecast
+     * @param units the units in which the forecast was requested
+     * @param dayCount the number of days requested
+     * @return the cached forecast, or null if there is none
+     * @throws IOException if the cached forecast exists but cannot be read
+     */
+    Entry get(String location, String units, int dayCount) throws IOException;
+
+    /**
+     * Adds a forecast to the cache, replacing any previously cached for the same key.
+     * @param location the location of the forecast
+     * @param units the units in which the forecast was requested
+     * @param dayCount the number of days requested
+     * @param forecast the forecast
+     * @param fetchedAtMillis the time at which the forecast was fetched
+     * @throws IOException if the forecast cannot be written
+     */
+    void put(String location, String units, int dayCount, Forecast forecast,
+             long fetchedAtMillis) throws IOException;
+
+    /**
+     * Updates the days of a cached forecast with the values of a partial forecast, e.g. one
+     * reconciled from only some of the sources of a fetch.  No day is added or removed, and
+     * the time at which the cached forecast was fetched is kept, so a partial forecast
+     * neither shortens the cached forecast nor makes it fresh.  Nothing is stored if no
+     * forecast is cached for the location.
+     * @param location the location of the forecast
+     * @param units the units in which the forecast was requested
+     * @param forecast the partial forecast
+     * @throws IOException if the forecast cannot be written
+     */
+    void merge(String location, String units, Forecast forecast) throws IOException;
+
+    /**
+     * A forecast held in the cache.
+     */
+    final class Entry {
+        private final Forecast forecast;
+        private final long fetchedAtMillis;
+        private final long timeToLiveMillis;
+
+        /**
+         * Constructor.
+         * @param forecast the forecast
+         * @param fetchedAtMillis the time at which the forecast was fetched
+         * @param timeToLiveMillis the time for which the forecast is fresh, in milliseconds
+         */
+        public Entry(Forecast forecast, long fetchedAtMillis, long timeToLiveMillis) {
+            this.forecast = forecast;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.timeToLiveMillis = timeToLiveMillis;
+        }
+
+        /**
+         * Returns the cached forecast.
+         * @return the cached forecast
+         */
+        public Forecast getForecast() {
+            return forecast;
+        }
+
+        /**
+         * Returns the time at which the forecast was fetched.
+         * @return the time at which the forecast was fetched, in milliseconds since the epoch
+         */
+        public long getFetchedAtMillis() {
+            return fetchedAtMillis;
+        }
+
+        /**
+         * Returns whether the forecast is still within its time-to-live.
+         * @param nowMillis the current time
+         * @return true if the forecast is fresh, false if it should be fetched again
+         */
+        public boolean isFresh(long nowMillis) {
+            return nowMillis >= fetchedAtMillis && nowMillis - fetchedAtMillis < timeToLiveMillis;
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.Arrays;
+
+/**
+ * The differences between two forecasts for a location, as a list of the insertions,
+ * removals and changes which turn the old list of days into the new one.
+ * <p>
+ * The days of a forecast are in date order and each date occurs once, so the days are
+ * matched by date in a single pass, rather than by a general longest-common-subsequence
+ * search.  A day whose date occurs in both forecasts, but whose weather differs, is
+ * reported as changed, so that a list only rebinds the rows which actually differ.
+ * <p>
+ * The same diff is the change set for merging a new forecast into a stored one: only the
+ * days which are new or changed need be written, and only the days which have gone, e.g.
+ * expired days, deleted, so the cost of storing an update scales with the number of days
+ * which differ rather than the size of the forecast.
+ * <p>
+ * Calculating a diff does not touch any views, so may be done on a background thread;
+ * the result is then dispatched to the list on the main thread.
+ * @author Edmund Johnson.
+ */
+public final class ForecastDiff {
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_CHANGE = 2;
+
+    /**
+     * The number of ints which describe each operation: type, position in the list, count,
+     * and the position of the first day in its forecast, the old forecast for a removal and
+     * the new one otherwise.
+     */
+    private static final int OP_SIZE = 4;
+
+    /** The forecast with no days, which stands in for an old forecast which is missing. */
+    private static final Forecast NO_FORECAST = new Forecast(0, new long[0], new double[0],
+            new double[0], new String[0]);
+
+    private final Forecast oldForecast;
+    private final Forecast newForecast;
+    /** The operations, in the order in which they must be applied. */
+    private int[] ops;
+    private int opCount;
+
+    /**
+     * Constructor.
+     * @param oldForecast the old forecast
+     * @param newForecast the new forecast
+     */
+    private ForecastDiff(Forecast oldForecast, Forecast newForecast) {
+        this.oldForecast = oldForecast;
+        this.newForecast = newForecast;
+        ops = new int[(oldForecast.getDayCount() + newForecast.getDayCount()) * OP_SIZE];
+    }
+
+    /**
+     * Calculates the differences between two forecasts.
+     * @param oldForecast the forecast currently displayed or stored, or null if there is
+     *                    none, e.g. for a location which has not been stored before
+     * @param newForecast the forecast to be displayed or stored
+     * @return the differences between the forecasts
+     */
+    public static ForecastDiff calculate(Forecast oldForecast, Forecast newForecast) {
+        if (oldForecast == null) {
+            // Every day of the new forecast is inserted
+            oldForecast = NO_FORECAST;
+        }
+        int oldCount = oldForecast.getDayCount();
+        int newCount = newForecast.getDayCount();
+        ForecastDiff diff = new ForecastDiff(oldForecast, newForecast);
+
+        // The position in the list as it will be after the operations so far are applied
+        int position = 0;
+        int oldPos = 0;
+        int newPos = 0;
+        while (oldPos < oldCount && newPos < newCount) {
+            long oldDay = oldForecast.getEpochDay(oldPos);
+            long newDay = newForecast.getEpochDay(newPos);
+            if (oldDay < newDay) {
+                // The old day is not in the new forecast, e.g. yesterday
+                diff.addOp(OP_REMOVE, position, oldPos);
+                oldPos++;
+            } else if (oldDay > newDay) {
+                diff.addOp(OP_INSERT, position, newPos);
+                position++;
+                newPos++;
+            } else {
+                if (!isSameWeather(oldForecast, oldPos, newForecast, newPos)) {
+                    diff.addOp(OP_CHANGE, position, newPos);
+                }
+                position++;
+                oldPos++;
+                newPos++;
+            }
+        }
+        for (; oldPos < oldCount; oldPos++) {
+            diff.addOp(OP_REMOVE, position, oldPos);
+        }
+        for (; newPos < newCount; newPos++) {
+            diff.addOp(OP_INSERT, position, newPos);
+            position++;
+        }
+        return diff;
+    }
+
+    /**
+     * Returns whether the forecasts have no differences.
+     * @return true if the forecasts are the same, false otherwise
+     */
+    public boolean isEmpty() {
+        return opCount == 0;
+    }
+
+    /**
+     * Applies the differences to a list, in the order in which they were calculated.
+     * @param callback the list which is to be updated
+     */
+    public void dispatchUpdatesTo(Callback callback) {
+        for (int i = 0; i < opCount * OP_SIZE; i += OP_SIZE) {
+            int position = ops[i + 1];
+            int count = ops[i + 2];
+            switch (ops[i]) {
+                case OP_INSERT:
+                    callback.onInserted(position, count);
+                    break;
+                case OP_REMOVE:
+                    callback.onRemoved(position, count);
+                    break;
+                default:
+                    callback.onChanged(position, count);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of days which are new or changed, i.e. which must be written to
+     * merge the new forecast into the old one.
+     * @return the number of new or changed days
+     */
+    public int getWrittenDayCount() {
+        int count = 0;
+        for (int i = 0; i < opCount * OP_SIZE; i += OP_SIZE) {
+            if (ops[i] != OP_REMOVE) {
+                count += ops[i + 2];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies the differences to a store of days, e.g. the content provider.
+     * @param callback the store which is to be updated
+     */
+    public void dispatchDaysTo(DayCallback callback) {
+        for (int i = 0; i < opCount * OP_SIZE; i += OP_SIZE) {
+            int first = ops[i + 3];
+            int count = ops[i + 2];
+            for (int day = first; day < first + count; day++) {
+                if (ops[i] == OP_REMOVE) {
+                    callback.onDayRemoved(oldForecast.getEpochDay(day));
+                } else {
+                    callback.onDayWritten(newForecast, day);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an operation on one day, merging it into the previous operation if that was of
+     * the same type on the adjoining range of days.
+     * Adjoining days in the list are also adjoining in their forecast.
+     * @param type the type of operation
+     * @param position the position of the day in the list
+     * @param source the position of the day in its forecast
+     */
+    private void addOp(int type, int position, int source) {
+        if (opCount > 0) {
+            int last = (opCount - 1) * OP_SIZE;
+            if (ops[last] == type) {
+                int lastPosition = ops[last + 1];
+                int lastCount = ops[last + 2];
+                // Removed days all leave from the same position, others follow one another
+                boolean adjoins = type == OP_REMOVE
+                        ? position == lastPosition
+                        : position == lastPosition + lastCount;
+                if (adjoins) {
+                    ops[last + 2]++;
+                    return;
+                }
+            }
+        }
+        if ((opCount + 1) * OP_SIZE > ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2 + OP_SIZE);
+        }
+        int next = opCount * OP_SIZE;
+        ops[next] = type;
+        ops[next + 1] = position;
+        ops[next + 2] = 1;
+        ops[next + 3] = source;
+        opCount++;
+    }
+
+    /**
+     * Returns whether the weather for a date is the same in two forecasts, including the
+     * detail of the day, which is stored and displayed with it.
+     * @param oldForecast the old forecast
+     * @param oldPos the position of the date in the old forecast
+     * @param newForecast the new forecast
+     * @param newPos the position of the date in the new forecast
+     * @return true if the weather is the same, false otherwise
+     */
+    private static boolean isSameWeather(Forecast oldForecast, int oldPos,
+                                         Forecast newForecast, int newPos) {
+        return Double.compare(oldForecast.getHigh(oldPos), newForecast.getHigh(newPos)) == 0
+                && Double.compare(oldForecast.getLow(oldPos), newForecast.getLow(newPos)) == 0
+                && oldForecast.getCondition(oldPos).equals(newForecast.getCondition(newPos))
+                && Double.compare(oldForecast.getHumidity(oldPos),
+                        newForecast.getHumidity(newPos)) == 0
+                && Double.compare(oldForecast.getPressure(oldPos),
+                        newForecast.getPressure(newPos)) == 0
+                && Double.compare(oldForecast.getWindSpeed(oldPos),
+                        newForecast.getWindSpeed(newPos)) == 0
+                && Double.compare(oldForecast.getWindDirection(oldPos),
+                        newForecast.getWindDirection(newPos)) == 0;
+    }
+
+    /**
+     * A list which can be updated by a diff, e.g. the adapter of a RecyclerView.
+     */
+    public interface Callback {
+        /**
+         * Called when days have been inserted.
+         * @param position the position of the first inserted day
+         * @param count the number of days inserted
+         */
+        void onInserted(int position, int count);
+
+        /**
+         * Called when days have been removed.
+         * @param position the position of the first removed day
+         * @param count the number of days removed
+         */
+        void onRemoved(int position, int count);
+
+        /**
+         * Called when the weather for days has changed.
+         * @param position the position of the first changed day
+         * @param count the number of days changed
+         */
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * A store of days which can be updated by a diff.
+     */
+    public interface DayCallback {
+        /**
+         * Called for each day which is new or changed.
+         * @param forecast the new forecast
+         * @param position the position of the day in the new forecast
+         */
+        void onDayWritten(Forecast forecast, int position);
+
+        /**
+         * Called for each day which is no longer in the forecast.
+         * @param epochDay the date of the day, as the number of days since 1970-01-01 (UTC)
+         */
+        void onDayRemoved(long epochDay);
+    }
+
+}
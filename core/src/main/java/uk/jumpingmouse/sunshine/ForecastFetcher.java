@@ -0,0 +1,384 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Fetches daily forecasts for a location, from the persistent cache or from OpenWeatherMap.
+ * The base URL of the weather service is passed in, so that a local stand-in server can be
+ * used in tests.
+ * <p>
+ * A location is requested by the most specific identifier known for it: its OpenWeatherMap
+ * city id, then its coordinates, and only if neither is known its name, which the weather
+ * service may resolve ambiguously.  The city id and coordinates in each response are stored,
+ * so a location's name is only sent once.
+ * <p>
+ * If a store for intraday series is given, then whenever a changed daily forecast is
+ * received, the 3-hourly forecast for the location is also fetched and stored, so that an
+ * intraday chart can be drawn without a request of its own.
+ * <p>
+ * The 3-hourly forecast and the current conditions are also available as
+ * {@link ForecastSource}s, so that a {@link ForecastPipeline} can fetch them concurrently
+ * with the daily forecast, and fill in what the daily forecast lacks.  A fetcher used by a
+ * pipeline has no cache of its own, as the pipeline stores the reconciled forecasts.
+ * @author Edmund Johnson.
+ */
+public class ForecastFetcher implements ForecastTransport {
+
+    /**
+     * The path, relative to the base URL, for requesting a daily weather forecast.
+     * Possible parameters are available at OpenWeatherMap's forecast API page,
+     * at http://openweathermap.org/API#forecast
+     * Example of a full URL:
+     * http://api.openweathermap.org/data/2.5/forecast/daily?id=2654675&mode=json&units=metric&cnt=7
+     */
+    private static final String PATH_DAILY_FORECAST = "forecast/daily";
+    /**
+     * The path, relative to the base URL, for requesting a 5-day forecast of 3-hourly samples.
+     * Example of a full URL:
+     * http://api.openweathermap.org/data/2.5/forecast?id=2654675&mode=json&units=metric
+     */
+    private static final String PATH_HOURLY_FORECAST = "forecast";
+    /**
+     * The path, relative to the base URL, for requesting the current conditions.
+     * Example of a full URL:
+     * http://api.openweathermap.org/data/2.5/weather?id=2654675&mode=json&units=metric
+     */
+    private static final String PATH_CURRENT_WEATHER = "weather";
+    /** The forecast URL parameter for the city id. */
+    private static final String FORECAST_PARAM_CITY_ID = "id";
+    /** The forecast URL parameters for the coordinates. */
+    private static final String FORECAST_PARAM_LATITUDE = "lat";
+    private static final String FORECAST_PARAM_LONGITUDE = "lon";
+    /** The forecast URL parameter for the name of a location ("Bristol,UK", "94043"). */
+    private static final String FORECAST_PARAM_QUERY = "q";
+    /** The forecast URL parameter for the format required (JSON, XML, etc.). */
+    private static final String FORECAST_PARAM_MODE = "mode";
+    /** The forecast URL parameter for the units required (metric, imperial, etc.). */
+    private static final String FORECAST_PARAM_UNITS = "units";
+    /** The forecast URL parameter for the number of days required. */
+    private static final String FORECAST_PARAM_DAY_COUNT = "cnt";
+
+    /** The mode for requesting a forecast in JSON format. */
+    private static final String MODE_JSON = "json";
+    /** The units for requesting a forecast in metric format, in which it is cached. */
+    public static final String UNITS_METRIC = "metric";
+    /** The character encoding used for URL parameters. */
+    private static final String URL_CHARSET = "UTF-8";
+
+    /** The URL for requesting a daily weather forecast. */
+    private final String dailyForecastUrl;
+    /** The URL for requesting a 3-hourly weather forecast. */
+    private final String hourlyForecastUrl;
+    /** The URL for requesting the current conditions. */
+    private final String currentWeatherUrl;
+    /** The host of the weather service. */
+    private final String host;
+    private final ForecastHttpClient httpClient;
+    private final ForecastCache cache;
+    private final PlaceStore placeStore;
+    private final HourlySeriesStore hourlySeriesStore;
+    private final WeatherDataParser parser;
+    private final Clock clock;
+
+    /**
+     * Constructor.
+     * @param baseUrl the base URL of the weather service, ending with '/',
+     *                e.g. "http://api.openweathermap.org/data/2.5/"
+     * @param httpClient the HTTP client for the weather service
+     * @param cache the persistent forecast cache, or null if the caller caches forecasts
+     * @param placeStore the store of the places to which locations have been resolved
+     * @param parser the weather data parser
+     * @param clock the clock, used to record when forecasts were fetched
+     */
+    public ForecastFetcher(String baseUrl, ForecastHttpClient httpClient, ForecastCache cache,
+                           PlaceStore placeStore, WeatherDataParser parser, Clock clock) {
+        this(baseUrl, httpClient, cache, placeStore, null, parser, clock);
+    }
+
+    /**
+     * Constructor.
+     * @param baseUrl the base URL of the weather service, ending with '/',
+     *                e.g. "http://api.openweathermap.org/data/2.5/"
+     * @param httpClient the HTTP client for the weather service
+     * @param cache the persistent forecast cache, or null if the caller caches forecasts
+     * @param placeStore the store of the places to which locations have been resolved
+     * @param hourlySeriesStore the store for intraday series, or null if they are not required
+     * @param parser the weather data parser
+     * @param clock the clock, used to record when forecasts were fetched
+     */
+    public ForecastFetcher(String baseUrl, ForecastHttpClient httpClient, ForecastCache cache,
+                           PlaceStore placeStore, HourlySeriesStore hourlySeriesStore,
+                           WeatherDataParser parser, Clock clock) {
+        try {
+            this.host = new URL(baseUrl).getHost();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid base URL: " + baseUrl, e);
+        }
+        this.dailyForecastUrl = baseUrl + PATH_DAILY_FORECAST;
+        this.hourlyForecastUrl = baseUrl + PATH_HOURLY_FORECAST;
+        this.currentWeatherUrl = baseUrl + PATH_CURRENT_WEATHER;
+        this.httpClient = httpClient;
+        this.cache = cache;
+        this.placeStore = placeStore;
+        this.hourlySeriesStore = hourlySeriesStore;
+        this.parser = parser;
+        this.clock = clock;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public ForecastCache.Entry getCached(String location, int numDays) {
+        if (cache == null) {
+            return null;
+        }
+        try {
+            return cache.get(location, UNITS_METRIC, numDays);
+        } catch (IOException e) {
+            // Treat an unreadable cache file as a cache miss
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * If a forecast is cached, the request is made conditional on the forecast having
+     * changed, and the cached forecast is returned if it has not.
+     * If the forecast has changed, the intraday series is also fetched, if required.
+     */
+    @Override
+    public Forecast fetch(String location, int numDays, ForecastCache.Entry cacheEntry)
+            throws IOException {
+        ForecastHttpClient.Response<Forecast> response = httpClient.get(
+                buildUrl(location, numDays), cacheEntry != null, forecastReader(numDays));
+
+        Forecast forecast;
+        if (response.isNotModified()) {
+            // The cached forecast is still current
+            forecast = cacheEntry.getForecast();
+        } else {
+            forecast = response.getBody();
+        }
+
+        if (cache != null && forecast.getDayCount() > 0) {
+            try {
+                cache.put(location, UNITS_METRIC, numDays, forecast, clock.currentTimeMillis());
+            } catch (IOException e) {
+                // The forecast can still be displayed, it just cannot be cached
+            }
+        }
+        storePlace(location, forecast.getPlace());
+        if (!response.isNotModified() && hourlySeriesStore != null) {
+            fetchHourlySeries(location);
+        }
+        return forecast;
+    }
+
+    /**
+     * Returns the 3-hourly forecast as a source of daily forecasts, aggregated from its
+     * samples.  Its series is stored as it is fetched, so that an intraday chart can be
+     * drawn without a request of its own.  If the series has not changed since it was last
+     * fetched, the source returns nothing, and the stored series is kept.
+     * @param seriesStore the store for intraday series, or null if they are not required
+     * @return the source
+     */
+    public ForecastSource getHourlySource(final HourlySeriesStore seriesStore) {
+        return new ForecastSource() {
+            @Override
+            public String getName() {
+                return "hourly";
+            }
+
+            @Override
+            public Forecast fetch(String location, int numDays, boolean conditional)
+                    throws IOException {
+                DailyAggregator aggregator = new DailyAggregator(numDays);
+                HourlySeries series = requestHourlySeries(location, conditional, aggregator);
+                if (series == null) {
+                    // Not modified
+                    return null;
+                }
+                if (seriesStore != null && series.getSampleCount() > 0) {
+                    seriesStore.putSeries(location, series, clock.currentTimeMillis());
+                }
+                return aggregator.getForecast();
+            }
+        };
+    }
+
+    /**
+     * Returns the current conditions as a source of the forecast for the current day,
+     * without its high and low temperatures.  If the conditions have not changed since they
+     * were last fetched, the source returns nothing.
+     * @return the source
+     */
+    public ForecastSource getCurrentSource() {
+        return new ForecastSource() {
+            @Override
+            public String getName() {
+                return "current";
+            }
+
+            @Override
+            public Forecast fetch(String location, int numDays, boolean conditional)
+                    throws IOException {
+                // The body is null if the conditions have not changed
+                return httpClient.get(currentWeatherUrl + '?' + buildLocationParams(location)
+                                + '&' + FORECAST_PARAM_MODE + '=' + MODE_JSON
+                                + '&' + FORECAST_PARAM_UNITS + '=' + UNITS_METRIC,
+                        conditional, currentConditionsReader()).getBody();
+            }
+        };
+    }
+
+    /**
+     * Fetches the 3-hourly forecast for a location, and stores it.
+     * This is best-effort: the daily forecast has already been fetched, so a failure is
+     * not reported, and the previously stored series is kept.
+     * @param location the location
+     */
+    private void fetchHourlySeries(String location) {
+        try {
+            HourlySeries series = requestHourlySeries(location, false, null);
+            if (series.getSampleCount() > 0) {
+                hourlySeriesStore.putSeries(location, series, clock.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            // The intraday chart will show the previous series, if any
+        }
+    }
+
+    /**
+     * Requests the 3-hourly forecast for a location.
+     * @param location the location
+     * @param conditional whether to make the request conditional on the forecast having
+     *                    changed
+     * @param aggregator the aggregator to which each sample is added as it is read,
+     *                   or null if daily aggregates are not required
+     * @return the series of samples, or null if the request was conditional and the
+     *         forecast has not changed
+     * @throws IOException if the forecast could not be obtained
+     */
+    private HourlySeries requestHourlySeries(String location, boolean conditional,
+                                             DailyAggregator aggregator) throws IOException {
+        return httpClient.get(hourlyForecastUrl + '?' + buildLocationParams(location)
+                        + '&' + FORECAST_PARAM_MODE + '=' + MODE_JSON
+                        + '&' + FORECAST_PARAM_UNITS + '=' + UNITS_METRIC,
+                conditional, hourlySeriesReader(aggregator)).getBody();
+    }
+
+    /**
+     * Stores the place the weather service resolved a location to, if it is new.
+     * @param location the location
+     * @param reportedPlace the place reported by the weather service, or null if none was
+     */
+    private void storePlace(String location, Place reportedPlace) {
+        if (reportedPlace == null) {
+            return;
+        }
+        Place storedPlace = placeStore.getPlace(location);
+        Place place = storedPlace == null ? reportedPlace : storedPlace.merge(reportedPlace);
+        if (!place.equals(storedPlace)) {
+            try {
+                placeStore.putPlace(location, place);
+            } catch (IOException e) {
+                // The location will be requested by name again next time
+            }
+        }
+    }
+
+    /**
+     * Returns the URL for requesting the forecast for a location.
+     * @param location the location
+     * @param numDays the number of days of forecast required
+     * @return the URL for requesting the forecast
+     */
+    private String buildUrl(String location, int numDays) {
+        return dailyForecastUrl
+                + '?' + buildLocationParams(location)
+                + '&' + FORECAST_PARAM_MODE + '=' + MODE_JSON
+                + '&' + FORECAST_PARAM_UNITS + '=' + UNITS_METRIC
+                + '&' + FORECAST_PARAM_DAY_COUNT + '=' + numDays;
+    }
+
+    /**
+     * Returns the URL parameters identifying a location, by the most specific identifier
+     * known for it.
+     * @param location the location
+     * @return the URL parameters, without a leading '?' or '&'
+     */
+    private String buildLocationParams(String location) {
+        Place place = placeStore.getPlace(location);
+        String locationParams;
+        try {
+            if (place != null && place.hasCityId()) {
+                locationParams = FORECAST_PARAM_CITY_ID + '=' + place.getCityId();
+            } else if (place != null && place.hasCoordinates()) {
+                locationParams = FORECAST_PARAM_LATITUDE + '=' + place.getLatitude()
+                        + '&' + FORECAST_PARAM_LONGITUDE + '=' + place.getLongitude();
+            } else {
+                locationParams = FORECAST_PARAM_QUERY + '='
+                        + URLEncoder.encode(location, URL_CHARSET);
+            }
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+        return locationParams;
+    }
+
+    /**
+     * Returns a reader which parses a forecast from a response body as it arrives,
+     * without first copying it into a String.
+     * @param numDays the number of days of forecast required
+     * @return the reader
+     */
+    private ForecastHttpClient.BodyReader<Forecast> forecastReader(final int numDays) {
+        return new ForecastHttpClient.BodyReader<Forecast>() {
+            @Override
+            public Forecast read(InputStream in) throws IOException {
+                return parser.getWeatherDataFromStream(new BufferedInputStream(in), numDays);
+            }
+        };
+    }
+
+    /**
+     * Returns a reader which parses an intraday series from a response body as it arrives.
+     * @param aggregator the aggregator to which each sample is added as it is read,
+     *                   or null if daily aggregates are not required
+     * @return the reader
+     */
+    private ForecastHttpClient.BodyReader<HourlySeries> hourlySeriesReader(
+            final DailyAggregator aggregator) {
+        return new ForecastHttpClient.BodyReader<HourlySeries>() {
+            @Override
+            public HourlySeries read(InputStream in) throws IOException {
+                return parser.getHourlyDataFromStream(new BufferedInputStream(in), aggregator);
+            }
+        };
+    }
+
+    /**
+     * Returns a reader which parses the current conditions from a response body as it
+     * arrives.
+     * @return the reader
+     */
+    private ForecastHttpClient.BodyReader<Forecast> currentConditionsReader() {
+        return new ForecastHttpClient.BodyReader<Forecast>() {
+            @Override
+            public Forecast read(InputStream in) throws IOException {
+                return parser.getCurrentDataFromStream(new BufferedInputStream(in));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,130 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.Locale;
+
+/**
+ * Class for formatting forecast data for presentation.
+ * @author Edmund Johnson.
+ */
+public class ForecastFormatter {
+
+    /** The units value for temperatures in fahrenheit. */
+    public static final String UNITS_IMPERIAL = "imperial";
+
+    /** The labels of the 16 points of the compass, clockwise from north. */
+    private static final String[] COMPASS_POINTS = {"N", "NNE", "NE", "ENE", "E", "ESE", "SE",
+            "SSE", "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+
+    /** The labeler which produces the labels for dates. */
+    private final DateLabeler dateLabeler;
+
+    /**
+     * Constructor for a formatter which labels every date absolutely, e.g. "Sat Jun 20".
+     */
+    public ForecastFormatter() {
+        this(new DateLabeler());
+    }
+
+    /**
+     * Constructor.
+     * @param dateLabeler the labeler which produces the labels for dates
+     */
+    public ForecastFormatter(DateLabeler dateLabeler) {
+        this.dateLabeler = dateLabeler;
+    }
+
+    /**
+     * Returns a date in a human-readable format, e.g. "Sat Jun 20".
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @param locale the locale to use when formatting the date
+     * @return the date in a human-readable format
+     */
+    public String getReadableDateString(long epochDay, Locale locale) {
+        return dateLabeler.getAbsoluteLabel(epochDay, locale);
+    }
+
+    /**
+     * Format the weather high/low temperatures for presentation.
+     * @param high the high temperature
+     * @param low the low temperature
+     * @return the weather high/low temperatures for presentation
+     */
+    public String formatHighLow(final double high, final double low) {
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        long roundedHigh = Math.round(high);
+        long roundedLow = Math.round(low);
+
+        return roundedHigh + "/" + roundedLow;
+    }
+
+    /**
+     * Formats a temperature in specified units.
+     * @param temperatureCentigrade a temperature in centigrade
+     * @param units the units, "metric" for centigrade, "imperial" for fahrenheit
+     * @return the temperature in the required units
+     */
+    public double formatTemperature(double temperatureCentigrade, String units) {
+        if (UNITS_IMPERIAL.equals(units)) {
+            return temperatureCentigrade * 9 / 5 + 32;
+        } else {
+            return temperatureCentigrade;
+        }
+    }
+
+    /**
+     * Formats a day of a forecast in the format "Date - description - high/low".
+     * @param forecast the forecast
+     * @param position the position of the day in the forecast
+     * @param units the units, "metric" for centigrade, "imperial" for fahrenheit
+     * @param locale the locale to use when formatting the date
+     * @return the formatted day
+     */
+    public String formatDay(Forecast forecast, int position, String units, Locale locale) {
+        return formatDay(forecast.getEpochDay(position), forecast.getCondition(position),
+                forecast.getHigh(position), forecast.getLow(position), units, locale);
+    }
+
+    /**
+     * Formats a day's forecast in the format "Date - description - high/low".
+     * The date is labelled relatively, e.g. "Today", if the date labeler allows it.
+     * @param epochDay the date, as the number of days since 1970-01-01 (UTC)
+     * @param condition the weather condition, e.g. "Clear"
+     * @param high the high temperature, in centigrade
+     * @param low the low temperature, in centigrade
+     * @param units the units, "metric" for centigrade, "imperial" for fahrenheit
+     * @param locale the locale to use when formatting the date
+     * @return the formatted day
+     */
+    public String formatDay(long epochDay, String condition, double high, double low,
+                            String units, Locale locale) {
+        return dateLabeler.getLabel(epochDay, locale)
+                + " - " + condition
+                + " - " + formatHighLow(formatTemperature(high, units),
+                                        formatTemperature(low, units));
+    }
+
+    /**
+     * Formats a wind speed in specified units.
+     * @param metresPerSecond a wind speed in metres per second
+     * @param units the units, "metric" for km/h, "imperial" for mph
+     * @return the wind speed in the required units
+     */
+    public double formatWindSpeed(double metresPerSecond, String units) {
+        if (UNITS_IMPERIAL.equals(units)) {
+            return metresPerSecond * 3600 / 1609.344;
+        } else {
+            return metresPerSecond * 3.6;
+        }
+    }
+
+    /**
+     * Returns the point of the compass nearest to a direction, e.g. "NNE".
+     * @param degrees the direction, in degrees clockwise from north
+     * @return the point of the compass
+     */
+    public String getCompassPoint(double degrees) {
+        int point = (int) Math.round(degrees / 22.5) % COMPASS_POINTS.length;
+        return COMPASS_POINTS[point < 0 ? point + COMPASS_POINTS.length : point];
+    }
+
+}
@@ -0,0 +1,336 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for requesting data from the weather service.
+ * <ul>
+ * <li>Responses are requested gzip-compressed, and decompressed as they are read.</li>
+ * <li>The ETag and Last-Modified validators of each response are kept in a
+ * {@link ValidatorStore}, and sent with later requests for the same URL, so that the
+ * weather service can reply "304 Not Modified" instead of resending an unchanged body.</li>
+ * <li>If a {@link HostLimiter} is given, each request waits for its turn to the host, and
+ * holds it until its response has been read, so the limit counts exactly the requests in
+ * progress, including any which carry on after the caller has stopped waiting for them.</li>
+ * <li>Connections are not disconnected after use.  Instead the response body is read to
+ * the end and closed, which allows the connection to be reused by the next request.</li>
+ * <li>The time taken by each stage of a request is recorded in a {@link MetricsRegistry}:
+ * connecting, which includes looking up the host, waiting for the first byte of the
+ * response, downloading the body, and processing the body, e.g. parsing it, which is timed
+ * separately from the download even though the body is processed as it arrives.</li>
+ * </ul>
+ * @author Edmund Johnson.
+ */
+public class ForecastHttpClient {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /** The timeout for connecting to the weather service, in milliseconds. */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    /** The timeout for reading from the weather service, in milliseconds. */
+    private static final int READ_TIMEOUT_MILLIS = 15000;
+    /** The size of the buffer used to drain unread response data. */
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    private final ValidatorStore validatorStore;
+    private final AllocationCounter allocationCounter;
+    private final HostLimiter hostLimiter;
+
+    private final MetricsRegistry.Counter requestCount;
+    private final MetricsRegistry.Counter notModifiedCount;
+    private final MetricsRegistry.Counter errorCount;
+    private final MetricsRegistry.Histogram connectMillis;
+    private final MetricsRegistry.Histogram firstByteMillis;
+    private final MetricsRegistry.Histogram downloadMillis;
+    private final MetricsRegistry.Histogram bodyBytes;
+    private final MetricsRegistry.Histogram parseMillis;
+    private final MetricsRegistry.Histogram parseAllocatedBytes;
+
+    /**
+     * Constructor for a client whose metrics are not reported.
+     * @param validatorStore the store for the validators of responses
+     */
+    public ForecastHttpClient(ValidatorStore validatorStore) {
+        this(validatorStore, new MetricsRegistry(), AllocationCounter.NONE);
+    }
+
+    /**
+     * Constructor.
+     * @param validatorStore the store for the validators of responses
+     * @param metrics the registry in which the metrics of requests are recorded
+     * @param allocationCounter the counter of the bytes allocated while processing bodies
+     */
+    public ForecastHttpClient(ValidatorStore validatorStore, MetricsRegistry metrics,
+                              AllocationCounter allocationCounter) {
+        this(validatorStore, metrics, allocationCounter, null);
+    }
+
+    /**
+     * Constructor for a client whose concurrent requests to each host are limited.
+     * @param validatorStore the store for the validators of responses
+     * @param metrics the registry in which the metrics of requests are recorded
+     * @param allocationCounter the counter of the bytes allocated while processing bodies
+     * @param hostLimiter the limiter of the concurrent requests to each host, or null if
+     *                    requests are not limited
+     */
+    public ForecastHttpClient(ValidatorStore validatorStore, MetricsRegistry metrics,
+                              AllocationCounter allocationCounter, HostLimiter hostLimiter) {
+        this.validatorStore = validatorStore;
+        this.allocationCounter = allocationCounter;
+        this.hostLimiter = hostLimiter;
+        requestCount = metrics.counter("http.requests");
+        notModifiedCount = metrics.counter("http.not_modified");
+        errorCount = metrics.counter("http.errors");
+        connectMillis = metrics.histogram("http.connect_ms", MetricsRegistry.BOUNDS_MILLIS);
+        firstByteMillis = metrics.histogram("http.ttfb_ms", MetricsRegistry.BOUNDS_MILLIS);
+        downloadMillis = metrics.histogram("http.download_ms", MetricsRegistry.BOUNDS_MILLIS);
+        bodyBytes = metrics.histogram("http.body_bytes", MetricsRegistry.BOUNDS_BYTES);
+        parseMillis = metrics.histogram("parse.time_ms", MetricsRegistry.BOUNDS_MILLIS);
+        parseAllocatedBytes =
+                metrics.histogram("parse.allocated_bytes", MetricsRegistry.BOUNDS_BYTES);
+    }
+
+    /**
+     * Performs a GET request, once a request to the host is allowed, and reads the
+     * response body.
+     * @param url the URL to request
+     * @param conditional whether to make the request conditional on the response having
+     *                    changed; this should only be true if the caller holds the body of
+     *                    the previous response for the URL
+     * @param bodyReader the reader for the response body
+     * @param <T> the type of object read from the response body
+     * @return the response
+     * @throws IOException if the request fails, or the response is not successful
+     * @throws InterruptedIOException if the thread is interrupted while waiting for its
+     *                                turn to the host
+     */
+    public <T> Response<T> get(String url, boolean conditional, BodyReader<T> bodyReader)
+            throws IOException {
+        String host = new URL(url).getHost();
+        if (hostLimiter != null) {
+            try {
+                hostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Request cancelled while waiting for " + host);
+            }
+        }
+        requestCount.increment();
+        try {
+            return getAndRecord(url, conditional, bodyReader);
+        } catch (IOException e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            if (hostLimiter != null) {
+                hostLimiter.release(host);
+            }
+        }
+    }
+
+    /**
+     * Performs a GET request, and reads the response body, recording the time taken by
+     * each stage.
+     * @param url the URL to request
+     * @param conditional whether to make the request conditional on the response having
+     *                    changed
+     * @param bodyReader the reader for the response body
+     * @param <T> the type of object read from the response body
+     * @return the response
+     * @throws IOException if the request fails, or the response is not successful
+     */
+    private <T> Response<T> getAndRecord(String url, boolean conditional,
+                                         BodyReader<T> bodyReader) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Setting this header disables any transparent decompression, so a gzip-encoded
+        // response must be decompressed below.
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        if (conditional) {
+            String eTag = validatorStore.getETag(url);
+            if (eTag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+            }
+            String lastModified = validatorStore.getLastModified(url);
+            if (lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        // Connecting looks up the host, and does nothing if a pooled connection to the host
+        // is reused
+        long startNanos = System.nanoTime();
+        urlConnection.connect();
+        connectMillis.record(millisSince(startNanos));
+        startNanos = System.nanoTime();
+        int statusCode = urlConnection.getResponseCode();
+        firstByteMillis.record(millisSince(startNanos));
+
+        if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            notModifiedCount.increment();
+            closeQuietly(urlConnection.getInputStream());
+            return new Response<T>(statusCode, null);
+        }
+        if (statusCode != HttpURLConnection.HTTP_OK) {
+            // Read the error body, so that the connection can be reused
+            closeQuietly(urlConnection.getErrorStream());
+            throw new IOException("Unexpected HTTP status " + statusCode + " for " + url);
+        }
+
+        MeteredInputStream meteredIn = new MeteredInputStream(urlConnection.getInputStream());
+        InputStream in = meteredIn;
+        T body;
+        try {
+            if (ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            long allocatedBytesBefore = allocationCounter.getAllocatedBytes();
+            startNanos = System.nanoTime();
+            body = bodyReader.read(in);
+            long bodyNanos = System.nanoTime() - startNanos;
+            long allocatedBytesAfter = allocationCounter.getAllocatedBytes();
+
+            // The body is processed as it is downloaded, so the time spent waiting for the
+            // network is separated from the time spent processing what has arrived
+            downloadMillis.record(TimeUnit.NANOSECONDS.toMillis(meteredIn.getReadNanos()));
+            parseMillis.record(TimeUnit.NANOSECONDS.toMillis(
+                    Math.max(0, bodyNanos - meteredIn.getReadNanos())));
+            bodyBytes.record(meteredIn.getByteCount());
+            if (allocatedBytesBefore != AllocationCounter.NOT_COUNTED) {
+                parseAllocatedBytes.record(allocatedBytesAfter - allocatedBytesBefore);
+            }
+        } finally {
+            closeQuietly(in);
+        }
+
+        validatorStore.putValidators(url,
+                urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
+        return new Response<T>(statusCode, body);
+    }
+
+    /**
+     * Returns the time since an earlier time.
+     * @param startNanos the earlier time, from {@link System#nanoTime()}
+     * @return the time since then, in milliseconds
+     */
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Reads any data remaining in a stream and closes it, so that the underlying
+     * connection can be returned to the pool of reusable connections.
+     * @param in the stream, which may be null
+     */
+    private void closeQuietly(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            //noinspection StatementWithEmptyBody
+            while (in.read(buffer) != -1) {
+                // Discard the data
+            }
+        } catch (IOException e) {
+            // The connection cannot be reused, which does not matter
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing useful can be done
+        }
+    }
+
+    /**
+     * Reads an object from the body of a response.
+     * @param <T> the type of object read
+     */
+    public interface BodyReader<T> {
+        /**
+         * Reads an object from a response body.  The stream should not be closed.
+         * @param in the response body, already decompressed
+         * @return the object read
+         * @throws IOException if the body cannot be read
+         */
+        T read(InputStream in) throws IOException;
+    }
+
+    /**
+     * Persistent store for the validators of responses, keyed by URL.
+     */
+    public interface ValidatorStore {
+        /**
+         * Returns the ETag of the last response for a URL.
+         * @param url the URL
+         * @return the ETag, or null if there is none
+         */
+        String getETag(String url);
+
+        /**
+         * Returns the Last-Modified value of the last response for a URL.
+         * @param url the URL
+         * @return the Last-Modified value, or null if there is none
+         */
+        String getLastModified(String url);
+
+        /**
+         * Stores the validators of the last response for a URL.
+         * @param url the URL
+         * @param eTag the ETag, or null if there was none
+         * @param lastModified the Last-Modified value, or null if there was none
+         */
+        void putValidators(String url, String eTag, String lastModified);
+    }
+
+    /**
+     * The response to a request.
+     * @param <T> the type of object read from the response body
+     */
+    public static final class Response<T> {
+        private final int statusCode;
+        private final T body;
+
+        /**
+         * Constructor.
+         * @param statusCode the HTTP status code
+         * @param body the object read from the response body, or null if there was no body
+         */
+        Response(int statusCode, T body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        /**
+         * Returns whether the response was "304 Not Modified", in which case the body
+         * of the previous response for the URL is still current.
+         * @return true if the response was not modified, otherwise false
+         */
+        public boolean isNotModified() {
+            return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * Returns the object read from the response body.
+         * @return the object read from the response body, or null if the response
+         *         was not modified
+         */
+        public T getBody() {
+            return body;
+        }
+    }
+
+}
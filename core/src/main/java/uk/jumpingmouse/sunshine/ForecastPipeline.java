@@ -0,0 +1,502 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches the forecast for a location from several sources concurrently, e.g. the daily,
+ * 3-hourly and current conditions endpoints of the weather service, and reconciles their
+ * forecasts day by day.
+ * <ul>
+ * <li>The primary transport, which fetches the daily forecast, is the preferred source.
+ * The other sources fill in the days and values which it lacks, in the order in which they
+ * are given.  A day is only included once its high and low are known.</li>
+ * <li>As each source completes, the forecast reconciled so far is stored in the cache, from
+ * which the display is updated, so a partial forecast is displayed without waiting for the
+ * slowest source.  Until the daily forecast has been fetched, the reconciled forecast is only
+ * merged into the days already cached: no day is added or removed, and the cached forecast
+ * is not made fresh, so a partial forecast never shortens or replaces a complete one.</li>
+ * <li>Only the pipeline stores forecasts, so the daily forecast is stored once, reconciled
+ * with the sources which have already completed, rather than alone and then again.</li>
+ * <li>A source's request is made conditional on its response having changed if a forecast
+ * is cached, so an unchanged response is not sent again.  A source whose response has not
+ * changed fills in the values of the cached forecast instead of its own.</li>
+ * <li>The daily forecast is fetched on the calling thread, and waited for until its request
+ * completes or times out; the fetch fails if it fails, so that it is retried.  The other
+ * sources run under a latency budget, counted from the start of the fetch.  Those which have
+ * not completed once both it has been spent and the daily forecast has been fetched are
+ * cancelled, and the forecast reconciled from the others is returned.</li>
+ * </ul>
+ * The time taken by each fetch, and the number of sources which failed or were too late,
+ * are recorded as metrics.
+ * <p>
+ * This class has no dependencies on Android, so can be run on a plain JVM with local
+ * stand-in transports and sources.
+ * @author Edmund Johnson.
+ */
+public class ForecastPipeline implements ForecastTransport {
+
+    private final ForecastTransport primary;
+    private final List<ForecastSource> sources;
+    private final ForecastCache cache;
+    private final String units;
+    private final ExecutorService executor;
+    private final Clock clock;
+    private final long latencyBudgetMillis;
+    private final MetricsRegistry.Histogram fetchMillis;
+    private final MetricsRegistry.Counter failedSources;
+    private final MetricsRegistry.Counter lateSources;
+
+    /**
+     * Constructor.
+     * @param primary the transport which fetches the daily forecast, which must not cache
+     *                it itself
+     * @param sources the other sources, in order of preference
+     * @param cache the cache from which forecasts are read, and in which reconciled
+     *              forecasts are stored as they are updated
+     * @param units the units in which forecasts are cached, e.g. "metric"
+     * @param executor the executor on which the sources are fetched
+     * @param clock the clock, used to record when complete reconciled forecasts were fetched
+     * @param latencyBudgetMillis the maximum time for which a fetch waits for its sources,
+     *                            in milliseconds
+     * @param metrics the registry in which the fetch time and late and failed sources are
+     *                recorded
+     */
+    public ForecastPipeline(ForecastTransport primary, List<ForecastSource> sources,
+                            ForecastCache cache, String units, ExecutorService executor,
+                            Clock clock, long latencyBudgetMillis, MetricsRegistry metrics) {
+        this.primary = primary;
+        this.sources = new ArrayList<>(sources);
+        this.cache = cache;
+        this.units = units;
+        this.executor = executor;
+        this.clock = clock;
+        this.latencyBudgetMillis = latencyBudgetMillis;
+        this.fetchMillis = metrics.histogram("pipeline.time_ms", MetricsRegistry.BOUNDS_MILLIS);
+        this.failedSources = metrics.counter("pipeline.sources_failed");
+        this.lateSources = metrics.counter("pipeline.sources_late");
+    }
+
+    @Override
+    public String getHost() {
+        return primary.getHost();
+    }
+
+    @Override
+    public ForecastCache.Entry getCached(String location, int numDays) {
+        try {
+            return cache.get(location, units, numDays);
+        } catch (IOException e) {
+            // Treat an unreadable cache as a cache miss
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The other sources are fetched concurrently with the primary transport, which is
+     * fetched on the calling thread, and the forecast reconciled from the primary transport
+     * and those sources which complete within the latency budget is returned.
+     * @throws IOException if the primary transport failed
+     */
+    @Override
+    public Forecast fetch(final String location, final int numDays,
+                          ForecastCache.Entry cacheEntry) throws IOException {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+
+        final Reconciliation reconciliation = new Reconciliation(location, numDays, cacheEntry);
+        // The values of the sources' previous responses are in the cached forecast
+        final boolean conditional = cacheEntry != null;
+        List<Future<Void>> futures = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final ForecastSource source = sources.get(i);
+            final int index = i + 1;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    reconciliation.add(index, source.fetch(location, numDays, conditional));
+                    return null;
+                }
+            }));
+        }
+
+        boolean budgetSpent = false;
+        try {
+            // The daily forecast is waited for however long it takes, as its request cannot
+            // be interrupted, and a fetch which gave up on it would be retried alongside it
+            Forecast daily;
+            try {
+                daily = primary.fetch(location, numDays, cacheEntry);
+            } catch (IOException e) {
+                // Any days of the other sources have been merged into the cached forecast
+                failedSources.increment();
+                throw e;
+            }
+            reconciliation.add(0, daily);
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    failedSources.increment();
+                    toIOException(e.getCause());
+                } catch (TimeoutException e) {
+                    budgetSpent = true;
+                }
+            }
+            return reconciliation.finish();
+        } catch (InterruptedException e) {
+            // The fetch has been cancelled
+            throw new InterruptedIOException("Forecast fetch cancelled");
+        } finally {
+            reconciliation.finish();
+            for (Future<Void> future : futures) {
+                if (!future.isDone()) {
+                    future.cancel(true);
+                    if (budgetSpent) {
+                        lateSources.increment();
+                    }
+                }
+            }
+            fetchMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Reconciles the forecasts of several sources day by day.
+     * Each value of a day is taken from the first forecast which has it, so later forecasts
+     * only fill in the days and values which earlier ones lack.  Days are included in date
+     * order, from the earliest day of any forecast, once both their high and low are known.
+     * If only the first forecast is given, it is returned as it is.
+     * @param forecasts the forecasts, in order of preference, any of which may be null
+     * @param numDays the maximum number of days to include
+     * @return the reconciled forecast
+     */
+    public static Forecast reconcile(Forecast[] forecasts, int numDays) {
+        int forecastCount = 0;
+        int totalDayCount = 0;
+        Place place = null;
+        for (Forecast forecast : forecasts) {
+            if (forecast != null) {
+                forecastCount++;
+                totalDayCount += forecast.getDayCount();
+                if (place == null) {
+                    place = forecast.getPlace();
+                }
+            }
+        }
+        if (forecastCount == 1 && forecasts[0] != null && forecasts[0].getDayCount() <= numDays) {
+            return forecasts[0];
+        }
+
+        // The dates of the days of all the forecasts, in order, without duplicates
+        long[] dates = new long[totalDayCount];
+        int dateCount = 0;
+        for (Forecast forecast : forecasts) {
+            for (int i = 0; forecast != null && i < forecast.getDayCount(); i++) {
+                dates[dateCount++] = forecast.getEpochDay(i);
+            }
+        }
+        Arrays.sort(dates);
+        int distinctCount = 0;
+        for (int i = 0; i < dateCount; i++) {
+            if (i == 0 || dates[i] != dates[i - 1]) {
+                dates[distinctCount++] = dates[i];
+            }
+        }
+
+        int maxDays = Math.min(distinctCount, numDays);
+        long[] epochDays = new long[maxDays];
+        double[] highs = new double[maxDays];
+        double[] lows = new double[maxDays];
+        String[] conditions = new String[maxDays];
+        double[] humidities = new double[maxDays];
+        double[] pressures = new double[maxDays];
+        double[] windSpeeds = new double[maxDays];
+        double[] windDirections = new double[maxDays];
+        // The position in each forecast of the first day not before the current date
+        int[] positions = new int[forecasts.length];
+        int dayCount = 0;
+
+        for (int d = 0; d < distinctCount && dayCount < maxDays; d++) {
+            long epochDay = dates[d];
+            double high = Double.NaN;
+            double low = Double.NaN;
+            String condition = "";
+            double humidity = Double.NaN;
+            double pressure = Double.NaN;
+            double windSpeed = Double.NaN;
+            double windDirection = Double.NaN;
+            for (int i = 0; i < forecasts.length; i++) {
+                Forecast forecast = forecasts[i];
+                if (forecast == null) {
+                    continue;
+                }
+                int position = positions[i];
+                while (position < forecast.getDayCount()
+                        && forecast.getEpochDay(position) < epochDay) {
+                    position++;
+                }
+                positions[i] = position;
+                if (position == forecast.getDayCount()
+                        || forecast.getEpochDay(position) != epochDay) {
+                    continue;
+                }
+                high = firstKnown(high, forecast.getHigh(position));
+                low = firstKnown(low, forecast.getLow(position));
+                if (condition.isEmpty() && forecast.getCondition(position) != null) {
+                    condition = forecast.getCondition(position);
+                }
+                humidity = firstKnown(humidity, forecast.getHumidity(position));
+                pressure = firstKnown(pressure, forecast.getPressure(position));
+                windSpeed = firstKnown(windSpeed, forecast.getWindSpeed(position));
+                windDirection = firstKnown(windDirection, forecast.getWindDirection(position));
+            }
+            if (Double.isNaN(high) || Double.isNaN(low)) {
+                // No source has the temperatures of the day, so it cannot be displayed
+                continue;
+            }
+            epochDays[dayCount] = epochDay;
+            highs[dayCount] = high;
+            lows[dayCount] = low;
+            conditions[dayCount] = condition;
+            humidities[dayCount] = humidity;
+            pressures[dayCount] = pressure;
+            windSpeeds[dayCount] = windSpeed;
+            windDirections[dayCount] = windDirection;
+            dayCount++;
+        }
+
+        return new Forecast(dayCount, epochDays, highs, lows, conditions, place,
+                humidities, pressures, windSpeeds, windDirections);
+    }
+
+    /**
+     * Returns a stored forecast with its days updated from a partial forecast.
+     * Each value of a day is taken from the partial forecast if it has it, and otherwise
+     * kept.  Only the days of the stored forecast are included, so the partial forecast
+     * neither adds nor removes a day.
+     * @param stored the stored forecast
+     * @param partial the partial forecast
+     * @return the updated forecast, which has the same days as the stored one
+     */
+    public static Forecast mergeDays(Forecast stored, Forecast partial) {
+        int dayCount = stored.getDayCount();
+        long[] epochDays = new long[dayCount];
+        double[] highs = new double[dayCount];
+        double[] lows = new double[dayCount];
+        String[] conditions = new String[dayCount];
+        double[] humidities = new double[dayCount];
+        double[] pressures = new double[dayCount];
+        double[] windSpeeds = new double[dayCount];
+        double[] windDirections = new double[dayCount];
+        int position = 0;
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = stored.getEpochDay(i);
+            highs[i] = stored.getHigh(i);
+            lows[i] = stored.getLow(i);
+            conditions[i] = stored.getCondition(i);
+            humidities[i] = stored.getHumidity(i);
+            pressures[i] = stored.getPressure(i);
+            windSpeeds[i] = stored.getWindSpeed(i);
+            windDirections[i] = stored.getWindDirection(i);
+            while (position < partial.getDayCount()
+                    && partial.getEpochDay(position) < epochDays[i]) {
+                position++;
+            }
+            if (position == partial.getDayCount()
+                    || partial.getEpochDay(position) != epochDays[i]) {
+                continue;
+            }
+            highs[i] = firstKnown(partial.getHigh(position), highs[i]);
+            lows[i] = firstKnown(partial.getLow(position), lows[i]);
+            String condition = partial.getCondition(position);
+            if (condition != null && !condition.isEmpty()) {
+                conditions[i] = condition;
+            }
+            humidities[i] = firstKnown(partial.getHumidity(position), humidities[i]);
+            pressures[i] = firstKnown(partial.getPressure(position), pressures[i]);
+            windSpeeds[i] = firstKnown(partial.getWindSpeed(position), windSpeeds[i]);
+            windDirections[i] = firstKnown(partial.getWindDirection(position),
+                    windDirections[i]);
+        }
+        Place place = stored.getPlace() != null ? stored.getPlace() : partial.getPlace();
+        return new Forecast(dayCount, epochDays, highs, lows, conditions, place,
+                humidities, pressures, windSpeeds, windDirections);
+    }
+
+    /**
+     * Returns the values of a cached forecast which another source can fill in, i.e.
+     * without its high and low temperatures.  These come from the daily forecast, and
+     * without them the cached forecast does not add any day which has passed.
+     * @param cached the cached forecast
+     * @return the forecast without its high and low temperatures
+     */
+    private static Forecast withoutTemperatures(Forecast cached) {
+        int dayCount = cached.getDayCount();
+        long[] epochDays = new long[dayCount];
+        double[] temperatures = new double[dayCount];
+        String[] conditions = new String[dayCount];
+        double[] humidities = new double[dayCount];
+        double[] pressures = new double[dayCount];
+        double[] windSpeeds = new double[dayCount];
+        double[] windDirections = new double[dayCount];
+        Arrays.fill(temperatures, Double.NaN);
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = cached.getEpochDay(i);
+            conditions[i] = cached.getCondition(i);
+            humidities[i] = cached.getHumidity(i);
+            pressures[i] = cached.getPressure(i);
+            windSpeeds[i] = cached.getWindSpeed(i);
+            windDirections[i] = cached.getWindDirection(i);
+        }
+        return new Forecast(dayCount, epochDays, temperatures, temperatures, conditions,
+                cached.getPlace(), humidities, pressures, windSpeeds, windDirections);
+    }
+
+    /**
+     * Stores a forecast reconciled with the daily forecast in the cache, from which the
+     * display is updated.
+     * @param location the location
+     * @param numDays the number of days of forecast required
+     * @param forecast the reconciled forecast
+     */
+    private void cacheReconciled(String location, int numDays, Forecast forecast) {
+        try {
+            cache.put(location, units, numDays, forecast, clock.currentTimeMillis());
+        } catch (IOException e) {
+            // The forecast can still be returned, it just cannot be cached
+        }
+    }
+
+    /**
+     * Merges a forecast reconciled without the daily forecast into the days already cached,
+     * from which the display is updated.
+     * @param location the location
+     * @param forecast the partial reconciled forecast
+     */
+    private void mergeReconciled(String location, Forecast forecast) {
+        try {
+            cache.merge(location, units, forecast);
+        } catch (IOException e) {
+            // The cached forecast is displayed as it is until the daily forecast arrives
+        }
+    }
+
+    /**
+     * Returns a value, or another value if the first is not known.
+     * @param value the value
+     * @param otherValue the other value
+     * @return the value, or the other value if the value is NaN
+     */
+    private static double firstKnown(double value, double otherValue) {
+        return Double.isNaN(value) ? otherValue : value;
+    }
+
+    /**
+     * Returns the exception thrown by a source as an IOException.
+     * @param cause the exception thrown by the source
+     * @return the IOException
+     */
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            // A bug in a source is not hidden as a failure to fetch
+            throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * The forecasts of the sources of one fetch, which are reconciled and stored as each
+     * arrives.  The sources add their forecasts on their own threads, so each is reconciled
+     * and stored while holding the lock on this object, in turn.
+     */
+    private final class Reconciliation {
+        private final String location;
+        private final int numDays;
+        /** The cached forecast, or null if there is none. */
+        private final Forecast cached;
+        /** The forecast of each source, in order of preference, or null if it has none. */
+        private final Forecast[] forecasts = new Forecast[sources.size() + 1];
+        /** The values of the cached forecast, for the sources whose responses are unchanged. */
+        private Forecast cachedValues;
+        private boolean sourceChanged;
+        private Forecast reconciled;
+        private boolean finished;
+
+        Reconciliation(String location, int numDays, ForecastCache.Entry cacheEntry) {
+            this.location = location;
+            this.numDays = numDays;
+            this.cached = cacheEntry != null ? cacheEntry.getForecast() : null;
+        }
+
+        /**
+         * Adds the forecast of a source, and stores the forecast reconciled so far.
+         * @param index the index of the source, 0 for the primary transport
+         * @param forecast the forecast of the source, or null if its response has not changed
+         */
+        synchronized void add(int index, Forecast forecast) {
+            if (finished) {
+                // The fetch has returned without this source
+                return;
+            }
+            if (forecast == null) {
+                if (cached == null) {
+                    return;
+                }
+                if (cachedValues == null) {
+                    cachedValues = withoutTemperatures(cached);
+                }
+                forecast = cachedValues;
+            } else if (index > 0) {
+                sourceChanged = true;
+            }
+            forecasts[index] = forecast;
+
+            Forecast daily = forecasts[0];
+            if (daily == null) {
+                // Only the days already cached are updated until the daily forecast arrives
+                if (forecast != cachedValues) {
+                    Forecast partial = reconcile(forecasts, numDays);
+                    if (partial.getDayCount() > 0) {
+                        mergeReconciled(location, partial);
+                    }
+                }
+                return;
+            }
+            if (index > 0 && forecast == cachedValues && daily == cached) {
+                // The cached forecast has been stored again, and already has these values
+                return;
+            }
+            reconciled = daily == cached && !sourceChanged
+                    ? cached : reconcile(forecasts, numDays);
+            if (daily.getDayCount() > 0) {
+                cacheReconciled(location, numDays, reconciled);
+            }
+        }
+
+        /**
+         * Ends the reconciliation, after which no more forecasts are added.
+         * @return the forecast reconciled from those added, or null if the daily forecast
+         *         has not been added
+         */
+        synchronized Forecast finish() {
+            finished = true;
+            return reconciled;
+        }
+    }
+
+}
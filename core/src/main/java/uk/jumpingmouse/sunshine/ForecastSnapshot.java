@@ -0,0 +1,408 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the parsed forecasts of many locations, in a compact binary file which is
+ * read through a memory mapping.
+ * <p>
+ * The file is a fixed-width header, then a table of the distinct weather conditions, a
+ * table of the locations, one fixed-width record per day, and finally the strings which
+ * the tables refer to, as UTF-8:
+ * <pre>
+ * header:    magic, version, location count, day count, condition count,
+ *            string table offset, string table length, reserved       (8 ints)
+ * condition: string offset, string length                             (2 ints)
+ * location:  name offset, name length, first day, day count,
+ *            fetched at millis, city id, latitude, longitude          (4 ints, 4 longs)
+ * day:       epoch day, condition index, high, low, humidity,
+ *            pressure, wind speed, wind direction                     (2 ints, 6 doubles)
+ * </pre>
+ * Opening a snapshot maps the file and decodes only the handful of strings in it; the
+ * days of a location are decoded into a {@link Forecast} only when it is requested, with
+ * a few absolute reads per day, so rehydrating any number of locations costs far less
+ * than parsing their JSON again.
+ * <p>
+ * A snapshot is written to a temporary file which then replaces the snapshot file, so a
+ * reader never sees a partly written snapshot.
+ * @author Edmund Johnson.
+ */
+public final class ForecastSnapshot {
+
+    /** The first int of every snapshot file, "SUNF". */
+    private static final int MAGIC = 0x53554e46;
+    /** The version of the format, which must be incremented when it changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 8 * 4;
+    private static final int CONDITION_RECORD_SIZE = 2 * 4;
+    private static final int LOCATION_RECORD_SIZE = 4 * 4 + 4 * 8;
+    private static final int DAY_RECORD_SIZE = 2 * 4 + 6 * 8;
+
+    // The offsets of the fields of a location record.
+    private static final int LOCATION_NAME_OFFSET = 0;
+    private static final int LOCATION_NAME_LENGTH = 4;
+    private static final int LOCATION_FIRST_DAY = 8;
+    private static final int LOCATION_DAY_COUNT = 12;
+    private static final int LOCATION_FETCHED_AT = 16;
+    private static final int LOCATION_CITY_ID = 24;
+    private static final int LOCATION_LATITUDE = 32;
+    private static final int LOCATION_LONGITUDE = 40;
+
+    // The offsets of the fields of a day record.
+    private static final int DAY_EPOCH_DAY = 0;
+    private static final int DAY_CONDITION = 4;
+    private static final int DAY_HIGH = 8;
+    private static final int DAY_LOW = 16;
+    private static final int DAY_HUMIDITY = 24;
+    private static final int DAY_PRESSURE = 32;
+    private static final int DAY_WIND_SPEED = 40;
+    private static final int DAY_WIND_DIRECTION = 48;
+
+    /** The encoding of the strings. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The snapshot, positioned at its start. */
+    private final ByteBuffer buffer;
+    /** The interned conditions, indexed by the condition index of each day. */
+    private final String[] conditions;
+    /** The position of each location in the location table, by location setting. */
+    private final Map<String, Integer> locationIndices;
+    private final String[] locations;
+    private final int locationTableOffset;
+    private final int dayTableOffset;
+    private final int totalDayCount;
+
+    /**
+     * Constructor.  Validates the snapshot and decodes its strings.
+     * @param buffer the snapshot
+     * @throws IOException if the buffer does not contain a valid snapshot
+     */
+    private ForecastSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a forecast snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot format version " + version);
+        }
+        int locationCount = buffer.getInt(8);
+        totalDayCount = buffer.getInt(12);
+        int conditionCount = buffer.getInt(16);
+        int stringTableOffset = buffer.getInt(20);
+        int stringTableLength = buffer.getInt(24);
+
+        locationTableOffset = HEADER_SIZE + conditionCount * CONDITION_RECORD_SIZE;
+        dayTableOffset = locationTableOffset + locationCount * LOCATION_RECORD_SIZE;
+        if (locationCount < 0 || totalDayCount < 0 || conditionCount < 0
+                || stringTableOffset != dayTableOffset + totalDayCount * DAY_RECORD_SIZE
+                || stringTableLength < 0
+                || stringTableOffset + stringTableLength != buffer.limit()) {
+            throw new IOException("Invalid forecast snapshot header");
+        }
+
+        conditions = new String[conditionCount];
+        for (int i = 0; i < conditionCount; i++) {
+            int record = HEADER_SIZE + i * CONDITION_RECORD_SIZE;
+            conditions[i] = readString(stringTableOffset, stringTableLength,
+                    buffer.getInt(record), buffer.getInt(record + 4)).intern();
+        }
+        locations = new String[locationCount];
+        locationIndices = new HashMap<>(locationCount * 2);
+        for (int i = 0; i < locationCount; i++) {
+            int record = locationTableOffset + i * LOCATION_RECORD_SIZE;
+            int firstDay = buffer.getInt(record + LOCATION_FIRST_DAY);
+            int dayCount = buffer.getInt(record + LOCATION_DAY_COUNT);
+            if (firstDay < 0 || dayCount < 0 || firstDay + dayCount > totalDayCount) {
+                throw new IOException("Invalid forecast snapshot location " + i);
+            }
+            locations[i] = readString(stringTableOffset, stringTableLength,
+                    buffer.getInt(record + LOCATION_NAME_OFFSET),
+                    buffer.getInt(record + LOCATION_NAME_LENGTH));
+            locationIndices.put(locations[i], i);
+        }
+        for (int i = 0; i < totalDayCount; i++) {
+            int condition = buffer.getInt(dayTableOffset + i * DAY_RECORD_SIZE + DAY_CONDITION);
+            if (condition < 0 || condition >= conditionCount) {
+                throw new IOException("Invalid forecast snapshot condition index " + condition);
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot file, mapping it into memory.
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or does not contain a valid snapshot
+     */
+    public static ForecastSnapshot open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping remains valid after the file is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return new ForecastSnapshot(mapped);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot held in memory, e.g. one created by {@link Writer#toByteBuffer()}.
+     * @param buffer the snapshot, positioned at its start
+     * @return the snapshot
+     * @throws IOException if the buffer does not contain a valid snapshot
+     */
+    public static ForecastSnapshot read(ByteBuffer buffer) throws IOException {
+        return new ForecastSnapshot(buffer.slice());
+    }
+
+    /**
+     * Returns the number of locations in the snapshot.
+     * @return the number of locations
+     */
+    public int getLocationCount() {
+        return locations.length;
+    }
+
+    /**
+     * Returns a location in the snapshot.
+     * @param index the position of the location in the snapshot
+     * @return the location setting
+     */
+    public String getLocation(int index) {
+        return locations[index];
+    }
+
+    /**
+     * Returns the position of a location in the snapshot.
+     * @param location the location setting
+     * @return the position of the location, or -1 if it is not in the snapshot
+     */
+    public int indexOf(String location) {
+        Integer index = locationIndices.get(location);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the time at which the forecast of a location was fetched.
+     * @param index the position of the location in the snapshot
+     * @return the time of the fetch, in milliseconds since the epoch
+     */
+    public long getFetchedAtMillis(int index) {
+        return buffer.getLong(locationRecord(index) + LOCATION_FETCHED_AT);
+    }
+
+    /**
+     * Decodes the forecast of a location.
+     * @param index the position of the location in the snapshot
+     * @return the forecast, as it was when written
+     */
+    public Forecast getForecast(int index) {
+        int record = locationRecord(index);
+        int firstDay = buffer.getInt(record + LOCATION_FIRST_DAY);
+        int dayCount = buffer.getInt(record + LOCATION_DAY_COUNT);
+        long cityId = buffer.getLong(record + LOCATION_CITY_ID);
+        double latitude = buffer.getDouble(record + LOCATION_LATITUDE);
+        double longitude = buffer.getDouble(record + LOCATION_LONGITUDE);
+        Place place = cityId == Place.NO_CITY_ID && Double.isNaN(latitude)
+                ? null : new Place(cityId, latitude, longitude);
+
+        long[] epochDays = new long[dayCount];
+        double[] highs = new double[dayCount];
+        double[] lows = new double[dayCount];
+        String[] dayConditions = new String[dayCount];
+        double[] humidities = new double[dayCount];
+        double[] pressures = new double[dayCount];
+        double[] windSpeeds = new double[dayCount];
+        double[] windDirections = new double[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            int day = dayTableOffset + (firstDay + i) * DAY_RECORD_SIZE;
+            epochDays[i] = buffer.getInt(day + DAY_EPOCH_DAY);
+            dayConditions[i] = conditions[buffer.getInt(day + DAY_CONDITION)];
+            highs[i] = buffer.getDouble(day + DAY_HIGH);
+            lows[i] = buffer.getDouble(day + DAY_LOW);
+            humidities[i] = buffer.getDouble(day + DAY_HUMIDITY);
+            pressures[i] = buffer.getDouble(day + DAY_PRESSURE);
+            windSpeeds[i] = buffer.getDouble(day + DAY_WIND_SPEED);
+            windDirections[i] = buffer.getDouble(day + DAY_WIND_DIRECTION);
+        }
+        return new Forecast(dayCount, epochDays, highs, lows, dayConditions, place,
+                humidities, pressures, windSpeeds, windDirections);
+    }
+
+    /**
+     * Returns the offset of a location's record.
+     * @param index the position of the location in the snapshot
+     * @return the offset of the location's record
+     */
+    private int locationRecord(int index) {
+        if (index < 0 || index >= locations.length) {
+            throw new IndexOutOfBoundsException(
+                    "Invalid location " + index + ", location count is " + locations.length);
+        }
+        return locationTableOffset + index * LOCATION_RECORD_SIZE;
+    }
+
+    /**
+     * Decodes a string from the string table.
+     * @param tableOffset the offset of the string table
+     * @param tableLength the length of the string table
+     * @param offset the offset of the string within the string table
+     * @param length the length of the string, in bytes
+     * @return the string
+     * @throws IOException if the string is not within the string table
+     */
+    private String readString(int tableOffset, int tableLength, int offset, int length)
+            throws IOException {
+        if (offset < 0 || length < 0 || offset + length > tableLength) {
+            throw new IOException("Invalid forecast snapshot string at " + offset);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(tableOffset + offset);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Collects the forecasts of locations and writes them as a snapshot.
+     * The forecasts are held until written, so should not be modified.
+     */
+    public static final class Writer {
+        private final List<String> locations = new ArrayList<>();
+        private final List<Forecast> forecasts = new ArrayList<>();
+        private final List<Long> fetchedAtMillis = new ArrayList<>();
+
+        /**
+         * Adds the forecast of a location.
+         * @param location the location setting
+         * @param forecast the forecast, e.g. as parsed by {@link WeatherDataParser}
+         * @param fetchedAtMillis the time at which the forecast was fetched,
+         *                        in milliseconds since the epoch
+         */
+        public void add(String location, Forecast forecast, long fetchedAtMillis) {
+            locations.add(location);
+            forecasts.add(forecast);
+            this.fetchedAtMillis.add(fetchedAtMillis);
+        }
+
+        /**
+         * Encodes the snapshot.
+         * @return the snapshot, positioned at its start
+         */
+        public ByteBuffer toByteBuffer() {
+            // Gather the strings, each distinct condition once
+            List<String> conditionList = new ArrayList<>();
+            Map<String, Integer> conditionIndices = new HashMap<>();
+            int totalDayCount = 0;
+            for (Forecast forecast : forecasts) {
+                for (int i = 0; i < forecast.getDayCount(); i++) {
+                    if (!conditionIndices.containsKey(forecast.getCondition(i))) {
+                        conditionIndices.put(forecast.getCondition(i), conditionList.size());
+                        conditionList.add(forecast.getCondition(i));
+                    }
+                }
+                totalDayCount += forecast.getDayCount();
+            }
+            byte[][] conditionBytes = new byte[conditionList.size()][];
+            byte[][] locationBytes = new byte[locations.size()][];
+            int stringTableLength = 0;
+            for (int i = 0; i < conditionBytes.length; i++) {
+                conditionBytes[i] = conditionList.get(i).getBytes(UTF_8);
+                stringTableLength += conditionBytes[i].length;
+            }
+            for (int i = 0; i < locationBytes.length; i++) {
+                locationBytes[i] = locations.get(i).getBytes(UTF_8);
+                stringTableLength += locationBytes[i].length;
+            }
+
+            int stringTableOffset = HEADER_SIZE + conditionBytes.length * CONDITION_RECORD_SIZE
+                    + locationBytes.length * LOCATION_RECORD_SIZE
+                    + totalDayCount * DAY_RECORD_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(stringTableOffset + stringTableLength);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(locationBytes.length)
+                    .putInt(totalDayCount).putInt(conditionBytes.length)
+                    .putInt(stringTableOffset).putInt(stringTableLength).putInt(0);
+
+            int stringOffset = 0;
+            for (byte[] bytes : conditionBytes) {
+                buffer.putInt(stringOffset).putInt(bytes.length);
+                stringOffset += bytes.length;
+            }
+            int firstDay = 0;
+            for (int i = 0; i < locationBytes.length; i++) {
+                Forecast forecast = forecasts.get(i);
+                Place place = forecast.getPlace();
+                buffer.putInt(stringOffset).putInt(locationBytes[i].length)
+                        .putInt(firstDay).putInt(forecast.getDayCount())
+                        .putLong(fetchedAtMillis.get(i))
+                        .putLong(place == null ? Place.NO_CITY_ID : place.getCityId())
+                        .putDouble(place == null ? Double.NaN : place.getLatitude())
+                        .putDouble(place == null ? Double.NaN : place.getLongitude());
+                stringOffset += locationBytes[i].length;
+                firstDay += forecast.getDayCount();
+            }
+            for (Forecast forecast : forecasts) {
+                for (int i = 0; i < forecast.getDayCount(); i++) {
+                    buffer.putInt((int) forecast.getEpochDay(i))
+                            .putInt(conditionIndices.get(forecast.getCondition(i)))
+                            .putDouble(forecast.getHigh(i))
+                            .putDouble(forecast.getLow(i))
+                            .putDouble(forecast.getHumidity(i))
+                            .putDouble(forecast.getPressure(i))
+                            .putDouble(forecast.getWindSpeed(i))
+                            .putDouble(forecast.getWindDirection(i));
+                }
+            }
+            for (byte[] bytes : conditionBytes) {
+                buffer.put(bytes);
+            }
+            for (byte[] bytes : locationBytes) {
+                buffer.put(bytes);
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Writes the snapshot to a file atomically: it is written in full to a temporary
+         * file alongside, which then replaces the file.
+         * @param file the snapshot file
+         * @throws IOException if the snapshot cannot be written
+         */
+        public void writeTo(File file) throws IOException {
+            ByteBuffer buffer = toByteBuffer();
+            File tempFile = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // Ensure the content is on disk before the rename makes it visible
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Unable to replace forecast snapshot " + file);
+            }
+        }
+    }
+
+}
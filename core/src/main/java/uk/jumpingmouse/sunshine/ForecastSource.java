@@ -0,0 +1,37 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * A source of forecasts, e.g. an endpoint of the weather service, whose responses are
+ * normalised into daily forecasts so that they can be reconciled with those of other
+ * sources by a {@link ForecastPipeline}.
+ * <p>
+ * A source need not provide every value of every day: a value it does not have is
+ * NaN, or for the condition an empty String, and is filled in from another source.
+ * @author Edmund Johnson.
+ */
+public interface ForecastSource {
+
+    /**
+     * Returns the name of the source, used in metrics and log messages.
+     * @return the name of the source, e.g. "hourly"
+     */
+    String getName();
+
+    /**
+     * Fetches the forecast for a location from the source.
+     * This is called on a thread of the pipeline, and is interrupted if the forecast is
+     * not needed any more, e.g. because the pipeline's latency budget has been spent.
+     * @param location the location
+     * @param numDays the number of days of forecast required
+     * @param conditional whether to make the request conditional on the source's response
+     *                    having changed; this is only true if the values of the previous
+     *                    response have been stored in the cached forecast
+     * @return the forecast, in centigrade, which may have fewer days than were required,
+     *         or null if the request was conditional and the response has not changed
+     * @throws IOException if the forecast could not be obtained
+     */
+    Forecast fetch(String location, int numDays, boolean conditional) throws IOException;
+
+}
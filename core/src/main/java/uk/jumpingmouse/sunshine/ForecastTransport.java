@@ -0,0 +1,38 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * The means by which forecasts are obtained, either from the cache or from the
+ * weather service.  Separating this from the scheduling of fetches allows the scheduler
+ * to be run with a fake transport.
+ * @author Edmund Johnson.
+ */
+public interface ForecastTransport {
+
+    /**
+     * Returns the host from which forecasts are fetched.
+     * @return the host from which forecasts are fetched
+     */
+    String getHost();
+
+    /**
+     * Returns the cached forecast for a location.
+     * @param location the location
+     * @param numDays the number of days of forecast required
+     * @return the cached forecast, or null if there is none or it cannot be read
+     */
+    ForecastCache.Entry getCached(String location, int numDays);
+
+    /**
+     * Fetches a forecast from the weather service and caches it.
+     * @param location the location to get the forecast for
+     * @param numDays the number of days of forecast required
+     * @param cacheEntry the cached forecast for the location, or null if there is none
+     * @return the forecast
+     * @throws IOException if the forecast could not be obtained
+     */
+    Forecast fetch(String location, int numDays, ForecastCache.Entry cacheEntry)
+            throws IOException;
+
+}
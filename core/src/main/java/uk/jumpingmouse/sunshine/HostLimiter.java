@@ -0,0 +1,71 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of concurrent requests to each host.
+ * A {@link ForecastHttpClient} holds a request's reservation only while the request is in
+ * progress, so all of the requests made through the client, e.g. those of the sources of a
+ * {@link ForecastPipeline}, keep within the limit together, and wait for their turn.
+ * @author Edmund Johnson.
+ */
+public class HostLimiter {
+
+    private final int maxRequestsPerHost;
+
+    /** The semaphores which limit the requests to each host.  Guarded by itself. */
+    private final Map<String, Semaphore> hostPermits = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param maxRequestsPerHost the maximum number of concurrent requests to any one host
+     */
+    public HostLimiter(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Waits until a request to a host is allowed, and reserves it.
+     * @param host the host
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(String host) throws InterruptedException {
+        getHostPermits(host).acquire();
+    }
+
+    /**
+     * Reserves a request to a host if one is allowed now, without waiting.
+     * @param host the host
+     * @return true if the request has been reserved, false if it is not allowed now
+     */
+    public boolean tryAcquire(String host) {
+        return getHostPermits(host).tryAcquire();
+    }
+
+    /**
+     * Releases a request to a host reserved by {@link #acquire} or {@link #tryAcquire}.
+     * @param host the host
+     */
+    public void release(String host) {
+        getHostPermits(host).release();
+    }
+
+    /**
+     * Returns the semaphore which limits the number of concurrent requests to a host.
+     * @param host the host
+     * @return the semaphore for the host
+     */
+    private Semaphore getHostPermits(String host) {
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(maxRequestsPerHost);
+                hostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An intraday forecast for a location, e.g. OpenWeatherMap's 3-hourly forecast for five days.
+ * <p>
+ * Like {@link Forecast}, the series is held as parallel primitive arrays, one element per
+ * sample.  It can be encoded as a compact columnar byte array, for storing as a single
+ * blob: the times as deltas, then all the temperatures, then the conditions as indices into
+ * a dictionary of the distinct conditions.  The 40 samples of a 5-day forecast take about
+ * 400 bytes, rather than the 15KB of the JSON they were parsed from.
+ * Instances are immutable.
+ * @author Edmund Johnson.
+ */
+public final class HourlySeries {
+
+    /** The version of the encoded format, which must be incremented when it changes. */
+    private static final int FORMAT_VERSION = 1;
+    /** The number of seconds in a day. */
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+
+    /** The number of samples in the series. */
+    private final int sampleCount;
+    /** The time of each sample, in seconds since the epoch, in ascending order. */
+    private final long[] epochSeconds;
+    /** The temperature of each sample, in centigrade. */
+    private final float[] temperatures;
+    /** The weather condition of each sample, e.g. "Clear", "Rain".  The values are interned. */
+    private final String[] conditions;
+
+    /**
+     * Constructor.  The arrays are not copied, so must not be modified after construction.
+     * @param sampleCount the number of samples in the series
+     * @param epochSeconds the time of each sample, in seconds since the epoch, ascending
+     * @param temperatures the temperature of each sample, in centigrade
+     * @param conditions the interned weather condition of each sample
+     */
+    public HourlySeries(int sampleCount, long[] epochSeconds, float[] temperatures,
+                        String[] conditions) {
+        if (epochSeconds.length < sampleCount || temperatures.length < sampleCount
+                || conditions.length < sampleCount) {
+            throw new IllegalArgumentException("Series arrays are shorter than the sample count");
+        }
+        this.sampleCount = sampleCount;
+        this.epochSeconds = epochSeconds;
+        this.temperatures = temperatures;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Returns the number of samples in the series.
+     * @return the number of samples
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the time of a sample.
+     * @param position the position of the sample in the series
+     * @return the time of the sample, in seconds since the epoch
+     */
+    public long getEpochSecond(int position) {
+        return epochSeconds[checkPosition(position)];
+    }
+
+    /**
+     * Returns the temperature of a sample.
+     * @param position the position of the sample in the series
+     * @return the temperature, in centigrade
+     */
+    public float getTemperature(int position) {
+        return temperatures[checkPosition(position)];
+    }
+
+    /**
+     * Returns the weather condition of a sample.
+     * @param position the position of the sample in the series
+     * @return the weather condition, e.g. "Rain"
+     */
+    public String getCondition(int position) {
+        return conditions[checkPosition(position)];
+    }
+
+    /**
+     * Returns the position of the first sample on or after a day.
+     * @param epochDay the day, as the number of days since 1970-01-01 (UTC)
+     * @return the position of the first sample, or the sample count if there is none
+     */
+    public int getFirstPositionOfDay(long epochDay) {
+        long startSecond = epochDay * SECONDS_PER_DAY;
+        int position = Arrays.binarySearch(epochSeconds, 0, sampleCount, startSecond);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Aggregates the samples of a day, and of any following days, without creating an
+     * object per sample.
+     * @param epochDay the first day, as the number of days since 1970-01-01 (UTC)
+     * @param maxDays the maximum number of days to aggregate
+     * @return the aggregator, holding the aggregates of each day
+     */
+    public DailyAggregator aggregateDaily(long epochDay, int maxDays) {
+        DailyAggregator aggregator = new DailyAggregator(maxDays);
+        for (int i = getFirstPositionOfDay(epochDay); i < sampleCount; i++) {
+            aggregator.add(epochSeconds[i], temperatures[i], conditions[i]);
+        }
+        return aggregator;
+    }
+
+    /**
+     * Encodes the series in the compact columnar format.
+     * @return the encoded series
+     */
+    public byte[] toBytes() {
+        // Build the dictionary of distinct conditions; there are only a handful
+        String[] dictionary = new String[Math.min(sampleCount, Byte.MAX_VALUE)];
+        int dictionarySize = 0;
+        byte[] conditionIndices = new byte[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            int index = 0;
+            while (index < dictionarySize && !dictionary[index].equals(conditions[i])) {
+                index++;
+            }
+            if (index == dictionarySize) {
+                if (dictionarySize == dictionary.length) {
+                    throw new IllegalStateException("Too many distinct conditions in series");
+                }
+                dictionary[dictionarySize++] = conditions[i];
+            }
+            conditionIndices[i] = (byte) index;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + sampleCount * 9);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(sampleCount);
+            long previousSecond = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                if (i == 0) {
+                    out.writeLong(epochSeconds[0]);
+                } else {
+                    out.writeInt((int) (epochSeconds[i] - previousSecond));
+                }
+                previousSecond = epochSeconds[i];
+            }
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeFloat(temperatures[i]);
+            }
+            out.writeByte(dictionarySize);
+            for (int i = 0; i < dictionarySize; i++) {
+                out.writeUTF(dictionary[i]);
+            }
+            out.write(conditionIndices);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a series encoded by {@link #toBytes()}.
+     * @param data the encoded series
+     * @return the series
+     * @throws IOException if the data is not a valid encoded series
+     */
+    public static HourlySeries fromBytes(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported series format version " + version);
+        }
+        int sampleCount = in.readInt();
+        if (sampleCount < 0 || sampleCount > data.length) {
+            throw new IOException("Invalid series sample count " + sampleCount);
+        }
+        long[] epochSeconds = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            epochSeconds[i] = i == 0 ? in.readLong() : epochSeconds[i - 1] + in.readInt();
+        }
+        float[] temperatures = new float[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            temperatures[i] = in.readFloat();
+        }
+        String[] dictionary = new String[in.readUnsignedByte()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readUTF().intern();
+        }
+        String[] conditions = new String[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            int index = in.readUnsignedByte();
+            if (index >= dictionary.length) {
+                throw new IOException("Invalid series condition index " + index);
+            }
+            conditions[i] = dictionary[index];
+        }
+        return new HourlySeries(sampleCount, epochSeconds, temperatures, conditions);
+    }
+
+    /**
+     * Checks that a position is within the series.
+     * @param position the position of a sample in the series
+     * @return the position
+     */
+    private int checkPosition(int position) {
+        if (position < 0 || position >= sampleCount) {
+            throw new IndexOutOfBoundsException(
+                    "Invalid position " + position + ", sample count is " + sampleCount);
+        }
+        return position;
+    }
+
+}
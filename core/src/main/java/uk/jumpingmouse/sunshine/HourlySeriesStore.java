@@ -0,0 +1,22 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * A persistent store of the intraday forecast series of locations, so that an intraday
+ * chart can be drawn without another request to the weather service.
+ * @author Edmund Johnson.
+ */
+public interface HourlySeriesStore {
+
+    /**
+     * Stores the intraday forecast series of a location, replacing any stored before.
+     * @param location the location setting
+     * @param series the series
+     * @param fetchedAtMillis the time at which the series was fetched
+     * @throws IOException if the series cannot be stored
+     */
+    void putSeries(String location, HourlySeries series, long fetchedAtMillis)
+            throws IOException;
+
+}
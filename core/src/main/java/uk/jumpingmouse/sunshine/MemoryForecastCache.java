@@ -0,0 +1,222 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A forecast cache held in memory, in front of a persistent cache.
+ * <p>
+ * The forecasts most recently used are held in a least-recently-used map bounded by their
+ * estimated size in bytes, so a forecast which has been read or stored once is returned
+ * again, to any screen or service of the app, without querying or decoding the persistent
+ * cache.  Forecasts are added to the persistent cache before being held, so nothing is lost
+ * when held forecasts are evicted, e.g. when the system is short of memory.
+ * <p>
+ * The cache is thread-safe.  Its hits, misses and evictions are recorded as metrics.
+ * @author Edmund Johnson.
+ */
+public class MemoryForecastCache implements ForecastCache {
+
+    /** The estimated size of a held forecast, excluding its days, in bytes. */
+    private static final int FORECAST_OVERHEAD_BYTES = 256;
+    /** The estimated size of a day of a held forecast, in bytes. */
+    private static final int DAY_BYTES = 9 * 8 + 4;
+
+    private final ForecastCache persistentCache;
+    private final long timeToLiveMillis;
+    private final long maxSizeBytes;
+    private final MetricsRegistry.Counter hits;
+    private final MetricsRegistry.Counter misses;
+    private final MetricsRegistry.Counter evictions;
+
+    /** The held forecasts, least recently used first.  Guarded by this. */
+    private final LinkedHashMap<String, Held> held = new LinkedHashMap<>(16, 0.75f, true);
+    /** The estimated size of the held forecasts, in bytes.  Guarded by this. */
+    private long sizeBytes;
+
+    /**
+     * Constructor.
+     * @param persistentCache the persistent cache, which is read on a miss and written on
+     *                        every put
+     * @param timeToLiveMillis the time for which a forecast is fresh, in milliseconds,
+     *                         which should be that of the persistent cache
+     * @param maxSizeBytes the maximum estimated size of the held forecasts, in bytes
+     * @param metrics the registry in which hits, misses and evictions are recorded
+     */
+    public MemoryForecastCache(ForecastCache persistentCache, long timeToLiveMillis,
+                               long maxSizeBytes, MetricsRegistry metrics) {
+        this.persistentCache = persistentCache;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.maxSizeBytes = maxSizeBytes;
+        this.hits = metrics.counter("cache.memory.hits");
+        this.misses = metrics.counter("cache.memory.misses");
+        this.evictions = metrics.counter("cache.memory.evictions");
+    }
+
+    @Override
+    public Entry get(String location, String units, int dayCount) throws IOException {
+        String key = key(location, units);
+        synchronized (this) {
+            Held entry = held.get(key);
+            if (entry != null && entry.dayCount >= dayCount) {
+                hits.increment();
+                return entry.entry;
+            }
+        }
+        misses.increment();
+
+        // The persistent cache is read without holding the lock, so a slow read does not
+        // block hits on other threads
+        Entry entry = persistentCache.get(location, units, dayCount);
+        if (entry != null) {
+            hold(key, dayCount, entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String location, String units, int dayCount, Forecast forecast,
+                    long fetchedAtMillis) throws IOException {
+        persistentCache.put(location, units, dayCount, forecast, fetchedAtMillis);
+        hold(key(location, units), dayCount,
+                new Entry(forecast, fetchedAtMillis, timeToLiveMillis));
+    }
+
+    @Override
+    public void merge(String location, String units, Forecast forecast) throws IOException {
+        persistentCache.merge(location, units, forecast);
+        String key = key(location, units);
+        synchronized (this) {
+            Held current = held.get(key);
+            if (current != null) {
+                Entry entry = current.entry;
+                hold(key, current.dayCount, new Entry(
+                        ForecastPipeline.mergeDays(entry.getForecast(), forecast),
+                        entry.getFetchedAtMillis(), timeToLiveMillis));
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used forecasts until the held forecasts are no larger than
+     * a size, e.g. when the system is short of memory.
+     * @param targetSizeBytes the maximum estimated size of the held forecasts, in bytes
+     */
+    public synchronized void trimToSize(long targetSizeBytes) {
+        Iterator<Held> iterator = held.values().iterator();
+        while (sizeBytes > targetSizeBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().sizeBytes;
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Evicts all held forecasts.
+     */
+    public void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns the maximum estimated size of the held forecasts.
+     * @return the maximum size, in bytes
+     */
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * Returns the estimated size of the held forecasts.
+     * @return the size, in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Returns the number of requests for a forecast which were answered from memory.
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests for a forecast which were not answered from memory.
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of forecasts evicted to keep within the size bound.
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryForecastCache[" + held.size() + " forecasts, " + sizeBytes + "/"
+                + maxSizeBytes + " bytes, hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Holds a forecast, replacing any held for the same key, and evicts the least
+     * recently used forecasts if the size bound is exceeded.
+     * A forecast is not replaced by an older one, e.g. one read from the persistent cache
+     * just before a newer one was put.
+     * @param key the key of the forecast
+     * @param dayCount the number of days requested
+     * @param entry the cached forecast
+     */
+    private synchronized void hold(String key, int dayCount, Entry entry) {
+        Held current = held.get(key);
+        if (current != null
+                && current.entry.getFetchedAtMillis() > entry.getFetchedAtMillis()) {
+            return;
+        }
+        Held added = new Held(entry, dayCount);
+        held.put(key, added);
+        sizeBytes += added.sizeBytes - (current == null ? 0 : current.sizeBytes);
+        trimToSize(maxSizeBytes);
+    }
+
+    /**
+     * Returns the key of a forecast.  The day count is not part of the key, as a forecast
+     * of more days than are requested may be returned.
+     * @param location the location of the forecast
+     * @param units the units in which the forecast was requested
+     * @return the key
+     */
+    private static String key(String location, String units) {
+        return units + '|' + location;
+    }
+
+    /**
+     * A held forecast, with its estimated size.
+     */
+    private static final class Held {
+        private final Entry entry;
+        private final int dayCount;
+        private final long sizeBytes;
+
+        /**
+         * Constructor.
+         * @param entry the cached forecast
+         * @param dayCount the number of days requested
+         */
+        private Held(Entry entry, int dayCount) {
+            this.entry = entry;
+            this.dayCount = dayCount;
+            this.sizeBytes = FORECAST_OVERHEAD_BYTES
+                    + (long) entry.getForecast().getDayCount() * DAY_BYTES;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which counts the bytes read from it and the time spent waiting for them.
+ * The time spent by the caller between reads, e.g. parsing, is not included.
+ * @author Edmund Johnson.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private long byteCount;
+    private long readNanos;
+
+    /**
+     * Constructor.
+     * @param in the stream to be metered
+     */
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long startNanos = System.nanoTime();
+        int b = super.read();
+        readNanos += System.nanoTime() - startNanos;
+        if (b != -1) {
+            byteCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long startNanos = System.nanoTime();
+        int count = super.read(buffer, offset, length);
+        readNanos += System.nanoTime() - startNanos;
+        if (count > 0) {
+            byteCount += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long startNanos = System.nanoTime();
+        long skipped = super.skip(n);
+        readNanos += System.nanoTime() - startNanos;
+        byteCount += skipped;
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     * @return the number of bytes read
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the time spent waiting for bytes so far.
+     * @return the time, in nanoseconds
+     */
+    long getReadNanos() {
+        return readNanos;
+    }
+
+}
@@ -0,0 +1,210 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of lightweight metrics for the hot paths of the app: fetching, parsing and
+ * displaying forecasts.
+ * <p>
+ * Metrics are created once, when first requested by name, and are then updated without
+ * locking: a {@link Counter} is a single atomic long, and a {@link Histogram} has an atomic
+ * count per fixed bucket.  Recording a value therefore costs a few atomic increments, and
+ * allocates nothing, so metrics can be left enabled in release builds.
+ * <p>
+ * The registry can be dumped as text, e.g. by {@code adb shell dumpsys}, so that a
+ * regression in the field can be diagnosed without attaching a profiler.
+ * @author Edmund Johnson.
+ */
+public class MetricsRegistry {
+
+    /** The bucket bounds for latencies in milliseconds, roughly logarithmic. */
+    public static final long[] BOUNDS_MILLIS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+    /** The bucket bounds for short durations in microseconds, e.g. binding a row. */
+    public static final long[] BOUNDS_MICROS =
+            {10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000};
+    /** The bucket bounds for sizes in bytes. */
+    public static final long[] BOUNDS_BYTES =
+            {1024, 4096, 16384, 65536, 262144, 1048576, 4194304};
+
+    /** The metrics, sorted by name for dumping.  Guarded by itself. */
+    private final Map<String, Object> metrics = new TreeMap<>();
+
+    /**
+     * Returns a counter, creating it if necessary.
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        synchronized (metrics) {
+            Object metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Counter();
+                metrics.put(name, metric);
+            }
+            return (Counter) metric;
+        }
+    }
+
+    /**
+     * Returns a histogram, creating it if necessary.
+     * @param name the name of the histogram, which should include its unit, e.g. "_ms"
+     * @param bounds the inclusive upper bounds of the buckets, in ascending order;
+     *               larger values are counted in an overflow bucket
+     * @return the histogram
+     */
+    public Histogram histogram(String name, long[] bounds) {
+        synchronized (metrics) {
+            Object metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Histogram(bounds);
+                metrics.put(name, metric);
+            }
+            return (Histogram) metric;
+        }
+    }
+
+    /**
+     * Writes the current values of all the metrics, one per line.
+     * The values are read without locking, so may be slightly inconsistent with each other.
+     * @param writer the writer
+     */
+    public void dump(PrintWriter writer) {
+        synchronized (metrics) {
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                writer.print(entry.getKey());
+                writer.print(": ");
+                writer.println(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * A count of events, e.g. requests made.
+     */
+    public static final class Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * Private constructor; counters are created by the registry.
+         */
+        private Counter() {
+        }
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        /**
+         * Adds to the count.
+         * @param delta the amount to add
+         */
+        public void add(long delta) {
+            count.addAndGet(delta);
+        }
+
+        /**
+         * Returns the count.
+         * @return the count
+         */
+        public long get() {
+            return count.get();
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(count.get());
+        }
+    }
+
+    /**
+     * A distribution of values, e.g. latencies, counted in fixed buckets.
+     */
+    public static final class Histogram {
+        private final long[] bounds;
+        /** The count of each bucket; the last is for values above the largest bound. */
+        private final AtomicLongArray bucketCounts;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Private constructor; histograms are created by the registry.
+         * @param bounds the inclusive upper bounds of the buckets, in ascending order
+         */
+        private Histogram(long[] bounds) {
+            this.bounds = bounds.clone();
+            this.bucketCounts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        /**
+         * Records a value.
+         * @param value the value
+         */
+        public void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            bucketCounts.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        /**
+         * Returns the number of values recorded.
+         * @return the number of values recorded
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns an upper bound for a percentile of the values recorded: the upper bound
+         * of the bucket containing it, or the maximum if it is in the overflow bucket.
+         * @param percentile the percentile, from 0 to 100
+         * @return the upper bound, or 0 if no values have been recorded
+         */
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long cumulative = 0;
+            for (int bucket = 0; bucket < bounds.length; bucket++) {
+                cumulative += bucketCounts.get(bucket);
+                if (cumulative >= rank) {
+                    return Math.min(bounds[bucket], max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            long total = count.get();
+            if (total == 0) {
+                return "count=0";
+            }
+            return "count=" + total
+                    + " mean=" + sum.get() / total
+                    + " p50<=" + getPercentile(50)
+                    + " p90<=" + getPercentile(90)
+                    + " p99<=" + getPercentile(99)
+                    + " max=" + max.get();
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * A source of the device's network state, which can be replaced in tests.
+ * @author Edmund Johnson.
+ */
+public interface NetworkMonitor {
+
+    /** A monitor which always reports a connection, for use where the state is unknown. */
+    NetworkMonitor ALWAYS_CONNECTED = new NetworkMonitor() {
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    };
+
+    /**
+     * Returns whether the device currently has a network connection.
+     * @return true if the device is connected, otherwise false
+     */
+    boolean isConnected();
+
+}
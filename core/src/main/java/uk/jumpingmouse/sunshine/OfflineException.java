@@ -0,0 +1,23 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * Exception which indicates that a forecast was not fetched because the device has no
+ * network connection.  No request was made, so this is not counted as a failure of the
+ * weather service.
+ * @author Edmund Johnson.
+ */
+public class OfflineException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     * @param message the detail message
+     */
+    public OfflineException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,114 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * A location resolved to the identifiers which the weather service can look up
+ * unambiguously: its OpenWeatherMap city id, and its coordinates.
+ * Either may be unknown, e.g. a location which has been geocoded but not yet fetched
+ * has coordinates but no city id.  Instances are immutable.
+ * @author Edmund Johnson.
+ */
+public final class Place {
+
+    /** The city id of a place whose city id is unknown. */
+    public static final long NO_CITY_ID = 0;
+
+    private final long cityId;
+    private final double latitude;
+    private final double longitude;
+
+    /**
+     * Constructor.
+     * @param cityId the OpenWeatherMap city id, or {@link #NO_CITY_ID} if it is unknown
+     * @param latitude the latitude, or NaN if the coordinates are unknown
+     * @param longitude the longitude, or NaN if the coordinates are unknown
+     */
+    public Place(long cityId, double latitude, double longitude) {
+        this.cityId = cityId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Returns the OpenWeatherMap city id.
+     * @return the city id, or {@link #NO_CITY_ID} if it is unknown
+     */
+    public long getCityId() {
+        return cityId;
+    }
+
+    /**
+     * Returns whether the OpenWeatherMap city id is known.
+     * @return true if the city id is known, otherwise false
+     */
+    public boolean hasCityId() {
+        return cityId != NO_CITY_ID;
+    }
+
+    /**
+     * Returns the latitude.
+     * @return the latitude, or NaN if the coordinates are unknown
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Returns the longitude.
+     * @return the longitude, or NaN if the coordinates are unknown
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Returns whether the coordinates are known.
+     * @return true if the coordinates are known, otherwise false
+     */
+    public boolean hasCoordinates() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    /**
+     * Returns a place which combines the known identifiers of this place with those of
+     * another, preferring the other's where both are known.
+     * @param other the other place, which may be null
+     * @return the combined place
+     */
+    public Place merge(Place other) {
+        if (other == null) {
+            return this;
+        }
+        long mergedCityId = other.hasCityId() ? other.cityId : cityId;
+        return other.hasCoordinates()
+                ? new Place(mergedCityId, other.latitude, other.longitude)
+                : new Place(mergedCityId, latitude, longitude);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Place)) {
+            return false;
+        }
+        Place place = (Place) o;
+        return cityId == place.cityId
+                && Double.compare(latitude, place.latitude) == 0
+                && Double.compare(longitude, place.longitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = cityId;
+        bits = 31 * bits + Double.doubleToLongBits(latitude);
+        bits = 31 * bits + Double.doubleToLongBits(longitude);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Place{cityId=" + cityId + ", latitude=" + latitude + ", longitude=" + longitude + '}';
+    }
+
+}
@@ -0,0 +1,27 @@
+package uk.jumpingmouse.sunshine;
+
+import java.io.IOException;
+
+/**
+ * A persistent store of the places to which locations have been resolved, so that a
+ * location entered by the user only needs to be resolved once.
+ * @author Edmund Johnson.
+ */
+public interface PlaceStore {
+
+    /**
+     * Returns the place to which a location has been resolved.
+     * @param location the location setting
+     * @return the place, or null if the location has not been resolved
+     */
+    Place getPlace(String location);
+
+    /**
+     * Stores the place to which a location has been resolved, replacing any stored before.
+     * @param location the location setting
+     * @param place the place
+     * @throws IOException if the place cannot be stored
+     */
+    void putPlace(String location, Place place) throws IOException;
+
+}
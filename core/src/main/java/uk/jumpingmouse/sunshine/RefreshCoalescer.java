@@ -0,0 +1,197 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * Coalesces bursts of requests to refresh the forecasts, e.g. from repeated taps on the
+ * refresh menu item, or from changes to the location and units, into a single refresh.
+ * <ul>
+ * <li>The refresh is made once no further request has arrived for a debounce window, or
+ * once the first request of the burst has waited for a maximum delay, so that a steady
+ * stream of requests cannot put it off indefinitely.</li>
+ * <li>The refresh is forced if any request of the burst was forced, unless a forced refresh
+ * was made within a minimum interval; the refresh then fetches only the forecasts whose
+ * cached copies are no longer fresh, and skips the fetch entirely if they are fresh.</li>
+ * <li>The refresh itself reads what is to be fetched, so it fetches the forecasts for the
+ * location and day count as they are at the end of the burst.</li>
+ * </ul>
+ * The number of requests received and refreshes made are recorded as metrics.
+ * <p>
+ * The coalescer is not thread-safe: it must only be called on the thread on which its
+ * delayed executor runs tasks, e.g. the main thread.
+ * This class has no dependencies on Android, so can be run on a plain JVM with a fake
+ * {@link Clock} and a fake {@link DelayedExecutor}.
+ * @author Edmund Johnson.
+ */
+public class RefreshCoalescer {
+
+    private final DelayedExecutor delayedExecutor;
+    private final Clock clock;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final long minForcedIntervalMillis;
+    private final Action action;
+    private final MetricsRegistry.Counter requests;
+    private final MetricsRegistry.Counter refreshes;
+
+    /** The check for the end of a burst, scheduled after each request. */
+    private final Runnable endOfBurstCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkEndOfBurst();
+        }
+    };
+
+    /** Whether a refresh has been requested and not yet made. */
+    private boolean pending;
+    /** Whether any request of the pending burst was forced. */
+    private boolean pendingForced;
+    /** The time of the first request of the pending burst. */
+    private long firstRequestMillis;
+    /** The time of the last request of the pending burst. */
+    private long lastRequestMillis;
+    /** Whether the check for the end of the burst has been scheduled. */
+    private boolean checkScheduled;
+    /** Whether a forced refresh has been made. */
+    private boolean forcedRefreshMade;
+    /** The time of the last forced refresh, if one has been made. */
+    private long lastForcedMillis;
+
+    /**
+     * Constructor.
+     * @param delayedExecutor the executor on which the refresh is made, after a delay
+     * @param clock the clock, used to time the bursts of requests
+     * @param debounceMillis the time without a further request after which the refresh
+     *                       is made, in milliseconds
+     * @param maxDelayMillis the maximum time for which the first request of a burst
+     *                       waits for the refresh, in milliseconds
+     * @param minForcedIntervalMillis the minimum time between forced refreshes, in
+     *                                milliseconds
+     * @param metrics the registry in which requests and refreshes are recorded
+     * @param action the refresh
+     */
+    public RefreshCoalescer(DelayedExecutor delayedExecutor, Clock clock, long debounceMillis,
+                            long maxDelayMillis, long minForcedIntervalMillis,
+                            MetricsRegistry metrics, Action action) {
+        this.delayedExecutor = delayedExecutor;
+        this.clock = clock;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.minForcedIntervalMillis = minForcedIntervalMillis;
+        this.action = action;
+        this.requests = metrics.counter("refresh.requests");
+        this.refreshes = metrics.counter("refresh.runs");
+    }
+
+    /**
+     * Requests a refresh, which is merged with any other requests made in the same burst.
+     * @param forceFetch whether to fetch new forecasts even if the cached ones are fresh
+     */
+    public void request(boolean forceFetch) {
+        long nowMillis = clock.currentTimeMillis();
+        requests.increment();
+        if (!pending) {
+            pending = true;
+            pendingForced = false;
+            firstRequestMillis = nowMillis;
+        }
+        pendingForced |= forceFetch;
+        lastRequestMillis = nowMillis;
+        if (!checkScheduled) {
+            scheduleCheck(debounceMillis);
+        }
+    }
+
+    /**
+     * Cancels the pending refresh, if any, e.g. when the screen which requested it has
+     * been stopped.
+     */
+    public void cancel() {
+        pending = false;
+    }
+
+    /**
+     * Returns whether a refresh has been requested and not yet made.
+     * @return whether a refresh is pending
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of refreshes requested.
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of refreshes made.
+     * @return the number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * Makes the pending refresh if the burst of requests has ended, or schedules another
+     * check for when it will have ended.  Only one check is scheduled at a time, however
+     * many requests are made.
+     */
+    private void checkEndOfBurst() {
+        checkScheduled = false;
+        if (!pending) {
+            // The refresh has been cancelled
+            return;
+        }
+        long nowMillis = clock.currentTimeMillis();
+        long refreshAtMillis = Math.min(lastRequestMillis + debounceMillis,
+                firstRequestMillis + maxDelayMillis);
+        if (nowMillis < refreshAtMillis) {
+            scheduleCheck(refreshAtMillis - nowMillis);
+            return;
+        }
+
+        pending = false;
+        boolean forceFetch = pendingForced && (!forcedRefreshMade
+                || nowMillis - lastForcedMillis >= minForcedIntervalMillis);
+        if (forceFetch) {
+            forcedRefreshMade = true;
+            lastForcedMillis = nowMillis;
+        }
+        refreshes.increment();
+        action.refresh(forceFetch);
+    }
+
+    /**
+     * Schedules the check for the end of the burst.
+     * @param delayMillis the delay before the check, in milliseconds
+     */
+    private void scheduleCheck(long delayMillis) {
+        checkScheduled = true;
+        delayedExecutor.executeDelayed(endOfBurstCheck, delayMillis);
+    }
+
+    /**
+     * An executor which runs tasks after a delay.
+     */
+    public interface DelayedExecutor {
+        /**
+         * Runs a task after a delay.
+         * @param command the task
+         * @param delayMillis the delay, in milliseconds
+         */
+        void executeDelayed(Runnable command, long delayMillis);
+    }
+
+    /**
+     * The refresh which is made once a burst of requests has ended.
+     */
+    public interface Action {
+        /**
+         * Refreshes the forecasts.
+         * @param forceFetch whether to fetch new forecasts even if the cached ones are fresh
+         */
+        void refresh(boolean forceFetch);
+    }
+
+}
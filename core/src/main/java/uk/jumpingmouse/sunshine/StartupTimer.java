@@ -0,0 +1,83 @@
+package uk.jumpingmouse.sunshine;
+
+/**
+ * Records the milestones of starting the app: the start of the process, the first frame
+ * drawn, and the first forecast displayed.
+ * <p>
+ * Times are read from a monotonic clock, in milliseconds, e.g. the time since boot; only
+ * the differences between them are reported.  Each milestone is recorded only the first
+ * time it is reached, so later frames and forecasts are ignored.
+ * Instances are thread-safe.
+ * @author Edmund Johnson.
+ */
+public class StartupTimer {
+
+    /** The value of a milestone which has not been reached. */
+    public static final long NOT_REACHED = -1;
+
+    private final long processStartMillis;
+    private long firstFrameMillis = NOT_REACHED;
+    private long firstDataMillis = NOT_REACHED;
+
+    /**
+     * Constructor.
+     * @param processStartMillis the time at which the process started
+     */
+    public StartupTimer(long processStartMillis) {
+        this.processStartMillis = processStartMillis;
+    }
+
+    /**
+     * Records that a frame has been drawn.
+     * @param nowMillis the current time
+     * @return whether this is the first frame
+     */
+    public synchronized boolean markFrame(long nowMillis) {
+        if (firstFrameMillis != NOT_REACHED) {
+            return false;
+        }
+        firstFrameMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Records that a forecast has been displayed.
+     * @param nowMillis the current time
+     * @return whether this is the first forecast
+     */
+    public synchronized boolean markData(long nowMillis) {
+        if (firstDataMillis != NOT_REACHED) {
+            return false;
+        }
+        firstDataMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Returns the time from the start of the process to the first frame.
+     * @return the time, in milliseconds, or {@link #NOT_REACHED}
+     */
+    public synchronized long getTimeToFirstFrameMillis() {
+        return firstFrameMillis == NOT_REACHED
+                ? NOT_REACHED : firstFrameMillis - processStartMillis;
+    }
+
+    /**
+     * Returns the time from the first frame to the first forecast displayed.  A forecast
+     * which was ready before the first frame was drawn in it, so the time is then 0.
+     * @return the time, in milliseconds, or {@link #NOT_REACHED}
+     */
+    public synchronized long getFirstFrameToDataMillis() {
+        if (firstFrameMillis == NOT_REACHED || firstDataMillis == NOT_REACHED) {
+            return NOT_REACHED;
+        }
+        return Math.max(0, firstDataMillis - firstFrameMillis);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "first frame " + getTimeToFirstFrameMillis() + "ms after process start, "
+                + "first forecast " + getFirstFrameToDataMillis() + "ms after first frame";
+    }
+
+}
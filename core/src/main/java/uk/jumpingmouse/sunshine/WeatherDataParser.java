@@ -0,0 +1,444 @@
+package uk.jumpingmouse.sunshine;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Class for parsing weather data.
+ * @author Edmund Johnson.
+ */
+public class WeatherDataParser {
+    /** The log tag for this class. */
+    //private static final String LOG_TAG = WeatherDataParser.class.getSimpleName();
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+    private static final String OWM_LIST = "list";
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+    /** The object holding the temperature of a sample of the 3-hourly forecast. */
+    private static final String OWM_MAIN = "main";
+    /** The object holding the wind speed and direction of the current conditions. */
+    private static final String OWM_WIND = "wind";
+    /** The character encoding of OpenWeatherMap responses. */
+    private static final String OWM_CHARSET = "UTF-8";
+
+    /** The number of seconds in a day. */
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    // The indices of the arrays of optional values of each day, which are NaN if absent.
+    private static final int DETAIL_HUMIDITY = 0;
+    private static final int DETAIL_PRESSURE = 1;
+    private static final int DETAIL_WIND_SPEED = 2;
+    private static final int DETAIL_WIND_DIRECTION = 3;
+    private static final int DETAIL_COUNT = 4;
+    /** The number of samples in a 5-day forecast of 3-hourly samples. */
+    private static final int INITIAL_SAMPLE_CAPACITY = 40;
+
+    /**
+     * Read a forecast in JSON format directly from a stream, and pull out the data needed
+     * for display.
+     * The response is never held in memory as a String or as a tree of JSON objects.
+     * The stream is read token by token, only city.id, city.coord, list[].dt,
+     * list[].temp.max/min, list[].weather[0].main, list[].humidity, list[].pressure,
+     * list[].speed and list[].deg are extracted, and every other value is skipped without
+     * being materialised.
+     * The forecast must have been requested in metric units.
+     * The stream is not closed by this method.
+     * @param in the stream containing the forecast in JSON format
+     * @param numDays the maximum number of days of data to return
+     * @return the forecast
+     * @throws IOException if the stream cannot be read or does not contain a valid forecast
+     */
+    public Forecast getWeatherDataFromStream(InputStream in, int numDays) throws IOException {
+        long[] epochDays = new long[numDays];
+        double[] highs = new double[numDays];
+        double[] lows = new double[numDays];
+        String[] conditions = new String[numDays];
+        double[][] details = new double[DETAIL_COUNT][numDays];
+        int dayCount = 0;
+        Place place = null;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, OWM_CHARSET));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    place = readPlace(reader);
+                    continue;
+                }
+                if (!OWM_LIST.equals(name)) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (dayCount >= numDays) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    readDayForecast(reader, dayCount++, epochDays, highs, lows, conditions,
+                            details);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader throws IllegalStateException when a token is not of the expected type
+            throw new IOException("Unexpected JSON structure in forecast: " + e.getMessage(), e);
+        }
+
+        return new Forecast(dayCount, epochDays, highs, lows, conditions, place,
+                details[DETAIL_HUMIDITY], details[DETAIL_PRESSURE],
+                details[DETAIL_WIND_SPEED], details[DETAIL_WIND_DIRECTION]);
+    }
+
+    /**
+     * Read an intraday forecast, e.g. the 5-day forecast of 3-hourly samples, in JSON format
+     * directly from a stream.
+     * Like {@link #getWeatherDataFromStream(InputStream, int)}, the stream is read token by
+     * token, and only list[].dt, list[].main.temp and list[].weather[0].main are extracted.
+     * The samples are written straight into the columns of the series, and optionally fed to
+     * an aggregator as they are read, so no object is created per sample.
+     * The forecast must have been requested in metric units.
+     * The stream is not closed by this method.
+     * @param in the stream containing the forecast in JSON format
+     * @param aggregator the aggregator to which each sample is added as it is read,
+     *                   or null if daily aggregates are not required
+     * @return the series of samples
+     * @throws IOException if the stream cannot be read or does not contain a valid forecast
+     */
+    public HourlySeries getHourlyDataFromStream(InputStream in, DailyAggregator aggregator)
+            throws IOException {
+        long[] epochSeconds = new long[INITIAL_SAMPLE_CAPACITY];
+        float[] temperatures = new float[INITIAL_SAMPLE_CAPACITY];
+        String[] conditions = new String[INITIAL_SAMPLE_CAPACITY];
+        int sampleCount = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, OWM_CHARSET));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!OWM_LIST.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (sampleCount == epochSeconds.length) {
+                        epochSeconds = Arrays.copyOf(epochSeconds, sampleCount * 2);
+                        temperatures = Arrays.copyOf(temperatures, sampleCount * 2);
+                        conditions = Arrays.copyOf(conditions, sampleCount * 2);
+                    }
+                    readSample(reader, sampleCount, epochSeconds, temperatures, conditions);
+                    if (aggregator != null) {
+                        aggregator.add(epochSeconds[sampleCount], temperatures[sampleCount],
+                                conditions[sampleCount]);
+                    }
+                    sampleCount++;
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader throws IllegalStateException when a token is not of the expected type
+            throw new IOException("Unexpected JSON structure in forecast: " + e.getMessage(), e);
+        }
+
+        return new HourlySeries(sampleCount, epochSeconds, temperatures, conditions);
+    }
+
+    /**
+     * Read the current conditions in JSON format directly from a stream, as a forecast of
+     * the current day.
+     * Like {@link #getWeatherDataFromStream(InputStream, int)}, the stream is read token by
+     * token, and only id, coord, dt, weather[0].main, main.humidity, main.pressure,
+     * wind.speed and wind.deg are extracted.  The current conditions have no high or low
+     * temperature for the day, so these are NaN, to be filled in from a forecast.
+     * The conditions must have been requested in metric units.
+     * The stream is not closed by this method.
+     * @param in the stream containing the current conditions in JSON format
+     * @return the forecast, with a single day, or no days if the time is missing
+     * @throws IOException if the stream cannot be read or does not contain valid conditions
+     */
+    public Forecast getCurrentDataFromStream(InputStream in) throws IOException {
+        long epochDay = -1;
+        String condition = null;
+        double[][] details = new double[DETAIL_COUNT][1];
+        for (double[] detail : details) {
+            detail[0] = Double.NaN;
+        }
+        long cityId = Place.NO_CITY_ID;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, OWM_CHARSET));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DATETIME.equals(name)) {
+                    epochDay = reader.nextLong() / SECONDS_PER_DAY;
+                } else if (OWM_CITY_ID.equals(name)) {
+                    cityId = reader.nextLong();
+                } else if (OWM_COORD.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String coordName = reader.nextName();
+                        if (OWM_LATITUDE.equals(coordName)) {
+                            latitude = reader.nextDouble();
+                        } else if (OWM_LONGITUDE.equals(coordName)) {
+                            longitude = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (condition == null) {
+                            condition = readWeatherDescription(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                } else if (OWM_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (OWM_HUMIDITY.equals(mainName)) {
+                            details[DETAIL_HUMIDITY][0] = reader.nextDouble();
+                        } else if (OWM_PRESSURE.equals(mainName)) {
+                            details[DETAIL_PRESSURE][0] = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (OWM_WINDSPEED.equals(windName)) {
+                            details[DETAIL_WIND_SPEED][0] = reader.nextDouble();
+                        } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                            details[DETAIL_WIND_DIRECTION][0] = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader throws IllegalStateException when a token is not of the expected type
+            throw new IOException("Unexpected JSON structure in conditions: " + e.getMessage(),
+                    e);
+        }
+
+        Place place = new Place(cityId, latitude, longitude);
+        return new Forecast(epochDay < 0 ? 0 : 1, new long[] {epochDay},
+                new double[] {Double.NaN}, new double[] {Double.NaN},
+                new String[] {condition == null ? "" : condition},
+                place.hasCityId() || place.hasCoordinates() ? place : null,
+                details[DETAIL_HUMIDITY], details[DETAIL_PRESSURE],
+                details[DETAIL_WIND_SPEED], details[DETAIL_WIND_DIRECTION]);
+    }
+
+    /**
+     * Read the city id and coordinates of the place the forecast is for.
+     * @param reader the JSON reader, positioned at the start of the city object
+     * @return the place, or null if neither its city id nor its coordinates are present
+     * @throws IOException if the city object cannot be read
+     */
+    private Place readPlace(JsonReader reader) throws IOException {
+        long cityId = Place.NO_CITY_ID;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Place place = new Place(cityId, latitude, longitude);
+        return place.hasCityId() || place.hasCoordinates() ? place : null;
+    }
+
+    /**
+     * Read a single element of the forecast list into the forecast arrays.
+     * @param reader the JSON reader, positioned at the start of the day object
+     * @param position the position of the day in the forecast arrays
+     * @param epochDays the array of dates
+     * @param highs the array of high temperatures
+     * @param lows the array of low temperatures
+     * @param conditions the array of weather conditions
+     * @param details the arrays of optional values, indexed by DETAIL_HUMIDITY etc.
+     * @throws IOException if the day object cannot be read
+     */
+    private void readDayForecast(JsonReader reader, int position, long[] epochDays,
+                                 double[] highs, double[] lows, String[] conditions,
+                                 double[][] details) throws IOException {
+        for (double[] detail : details) {
+            detail[position] = Double.NaN;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                // The API returns a unix timestamp (measured in seconds)
+                epochDays[position] = reader.nextLong() / SECONDS_PER_DAY;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Do not name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        highs[position] = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        lows[position] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // The weather description is in the first element of the "weather" array
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (conditions[position] == null) {
+                        conditions[position] = readWeatherDescription(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                details[DETAIL_HUMIDITY][position] = reader.nextDouble();
+            } else if (OWM_PRESSURE.equals(name)) {
+                details[DETAIL_PRESSURE][position] = reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                details[DETAIL_WIND_SPEED][position] = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                details[DETAIL_WIND_DIRECTION][position] = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (conditions[position] == null) {
+            conditions[position] = "";
+        }
+    }
+
+    /**
+     * Read a single element of the intraday forecast list into the series arrays.
+     * @param reader the JSON reader, positioned at the start of the sample object
+     * @param position the position of the sample in the series arrays
+     * @param epochSeconds the array of sample times
+     * @param temperatures the array of temperatures
+     * @param conditions the array of weather conditions
+     * @throws IOException if the sample object cannot be read
+     */
+    private void readSample(JsonReader reader, int position, long[] epochSeconds,
+                            float[] temperatures, String[] conditions) throws IOException {
+        conditions[position] = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                epochSeconds[position] = reader.nextLong();
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (OWM_TEMPERATURE.equals(reader.nextName())) {
+                        temperatures[position] = (float) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (conditions[position] == null) {
+                        conditions[position] = readWeatherDescription(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (conditions[position] == null) {
+            conditions[position] = "";
+        }
+    }
+
+    /**
+     * Read the description from an element of the "weather" array.
+     * The description is interned, as there are only a handful of distinct values.
+     * @param reader the JSON reader, positioned at the start of the weather object
+     * @return the weather description, or an empty String if there is none
+     * @throws IOException if the weather object cannot be read
+     */
+    private String readWeatherDescription(JsonReader reader) throws IOException {
+        String weatherDescription = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_DESCRIPTION.equals(reader.nextName())) {
+                weatherDescription = reader.nextString().intern();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return weatherDescription;
+    }
+
+}
@@ -0,0 +1,99 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the delays between attempts at a failing fetch, with the same delays as the app,
+ * timed by a fake clock.
+ * @author Edmund Johnson.
+ */
+public class BackoffTest {
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+    private static final long INITIAL_DELAY_MILLIS = 2 * SECOND_MILLIS;
+    private static final long MAX_DELAY_MILLIS = 30 * MINUTE_MILLIS;
+
+    @Test
+    public void delayDoublesWithEachFailure() {
+        Backoff backoff = new Backoff(INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(1.0));
+
+        assertEquals(2 * SECOND_MILLIS, backoff.getDelayMillis(1));
+        assertEquals(4 * SECOND_MILLIS, backoff.getDelayMillis(2));
+        assertEquals(8 * SECOND_MILLIS, backoff.getDelayMillis(3));
+        assertEquals(16 * SECOND_MILLIS, backoff.getDelayMillis(4));
+    }
+
+    @Test
+    public void jitterIsBetweenHalfAndAllOfDelay() {
+        Backoff shortest = new Backoff(INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(0));
+        assertEquals(SECOND_MILLIS, shortest.getDelayMillis(1));
+        assertEquals(4 * SECOND_MILLIS, shortest.getDelayMillis(3));
+
+        Backoff jittered = new Backoff(INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS, new Random(0));
+        for (int failureCount = 1; failureCount <= 20; failureCount++) {
+            long fullDelayMillis = Math.min(INITIAL_DELAY_MILLIS << (failureCount - 1),
+                    MAX_DELAY_MILLIS);
+            for (int i = 0; i < 100; i++) {
+                long delayMillis = jittered.getDelayMillis(failureCount);
+                assertTrue(delayMillis >= fullDelayMillis / 2);
+                assertTrue(delayMillis <= fullDelayMillis);
+            }
+        }
+    }
+
+    @Test
+    public void delayIsCappedAtThirtyMinutes() {
+        Backoff backoff = new Backoff(INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS, new FixedRandom(1.0));
+
+        // 2s doubled 10 times is over 34 minutes
+        assertEquals(MAX_DELAY_MILLIS, backoff.getDelayMillis(11));
+        // A long outage does not overflow the delay
+        assertEquals(MAX_DELAY_MILLIS, backoff.getDelayMillis(100));
+        assertEquals(MAX_DELAY_MILLIS, backoff.getDelayMillis(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void failingForecastIsRetriedAtLeastEveryThirtyMinutes() {
+        Backoff backoff = new Backoff(INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS, new Random(0));
+        long nowMillis = 1434801600000L;
+        long failedAtMillis = nowMillis;
+
+        // A day of failures, each retried once the backoff delay has passed
+        int failureCount = 0;
+        while (nowMillis - failedAtMillis < 24 * 60 * MINUTE_MILLIS) {
+            failureCount++;
+            long retryAtMillis = nowMillis + backoff.getDelayMillis(failureCount);
+            assertTrue(retryAtMillis - nowMillis <= MAX_DELAY_MILLIS);
+            nowMillis = retryAtMillis;
+        }
+
+        // Once capped, the retries are between 15 and 30 minutes apart
+        assertTrue(failureCount >= 48);
+        assertTrue(failureCount <= 11 + 96);
+    }
+
+    /**
+     * A source of jitter which always returns the same value.
+     */
+    private static final class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the memoised labels of the dates of forecasts, against a fake clock.
+ * @author Edmund Johnson.
+ */
+public class DateLabelerTest {
+
+    private static final String TODAY = "Today";
+    private static final String TOMORROW = "Tomorrow";
+    /** The date 2015-06-20, a Saturday. */
+    private static final long EPOCH_DAY = 16606;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    /** Midnight at the start of 2015-06-21 in London, which is at 23:00 UTC in summer. */
+    private static final long LONDON_MIDNIGHT_MILLIS = (EPOCH_DAY + 1) * MILLIS_PER_DAY
+            - 60 * 60 * 1000;
+
+    private long nowMillis;
+    private DateLabeler labeler;
+
+    @Before
+    public void setUp() {
+        // Midday on 2015-06-20 in London
+        nowMillis = EPOCH_DAY * MILLIS_PER_DAY + 11 * 60 * 60 * 1000;
+        Clock clock = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return nowMillis;
+            }
+        };
+        labeler = new DateLabeler(clock, TimeZone.getTimeZone("Europe/London"), TODAY, TOMORROW);
+    }
+
+    @Test
+    public void todayAndTomorrowAreLabelledRelatively() {
+        assertEquals("Fri Jun 19", labeler.getLabel(EPOCH_DAY - 1, Locale.UK));
+        assertEquals(TODAY, labeler.getLabel(EPOCH_DAY, Locale.UK));
+        assertEquals(TOMORROW, labeler.getLabel(EPOCH_DAY + 1, Locale.UK));
+        assertEquals("Mon Jun 22", labeler.getLabel(EPOCH_DAY + 2, Locale.UK));
+        // The absolute label of today is still available, e.g. for the detail view
+        assertEquals("Sat Jun 20", labeler.getAbsoluteLabel(EPOCH_DAY, Locale.UK));
+    }
+
+    @Test
+    public void labelsRollOverAtLocalMidnight() {
+        // The last moment of the Saturday in London, although it is already later in UTC
+        nowMillis = LONDON_MIDNIGHT_MILLIS - 1;
+        assertEquals(TODAY, labeler.getLabel(EPOCH_DAY, Locale.UK));
+        assertEquals(TOMORROW, labeler.getLabel(EPOCH_DAY + 1, Locale.UK));
+        assertEquals("Mon Jun 22", labeler.getLabel(EPOCH_DAY + 2, Locale.UK));
+
+        // The memoised labels do not keep the dates relative to the day before
+        nowMillis = LONDON_MIDNIGHT_MILLIS;
+        assertEquals("Sat Jun 20", labeler.getLabel(EPOCH_DAY, Locale.UK));
+        assertEquals(TODAY, labeler.getLabel(EPOCH_DAY + 1, Locale.UK));
+        assertEquals(TOMORROW, labeler.getLabel(EPOCH_DAY + 2, Locale.UK));
+    }
+
+    @Test
+    public void labelsFollowChangeOfLocale() {
+        String ukLabel = labeler.getLabel(EPOCH_DAY + 3, Locale.UK);
+        String frenchLabel = labeler.getLabel(EPOCH_DAY + 3, Locale.FRANCE);
+
+        assertEquals("Tue Jun 23", ukLabel);
+        assertEquals(format(EPOCH_DAY + 3, Locale.FRANCE), frenchLabel);
+        assertFalse(ukLabel.equals(frenchLabel));
+        // Switching back finds the labels memoised for the first locale
+        assertSame(ukLabel, labeler.getLabel(EPOCH_DAY + 3, Locale.UK));
+        assertSame(frenchLabel, labeler.getLabel(EPOCH_DAY + 3, Locale.FRANCE));
+        // A locale which is equal but not the same object shares its labels
+        assertSame(ukLabel, labeler.getLabel(EPOCH_DAY + 3, new Locale("en", "GB")));
+    }
+
+    @Test
+    public void memoisedLabelsAreReusedWithoutAllocating() {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        long threadId = Thread.currentThread().getId();
+        String[] labels = new String[16];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = labeler.getLabel(EPOCH_DAY + i, Locale.UK);
+        }
+        assertEquals("Sun Jul 05", labels[15]);
+
+        // Warm up the lookups, then measure a "scroll" through the displayed dates, allowing
+        // for whatever reading the allocation count itself allocates
+        scroll(labels);
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long overheadBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        int lookupCount = scroll(labels);
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore
+                - overheadBytes;
+
+        // The JVM may allocate a little while it compiles the loop, but formatting even one
+        // label per lookup would allocate far more than a byte each time
+        assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < lookupCount);
+    }
+
+    /**
+     * Checks that the labels of the displayed dates are the memoised ones, many times over.
+     * @param labels the memoised labels, starting with today's
+     * @return the number of labels looked up
+     */
+    private int scroll(String[] labels) {
+        int lookupCount = 0;
+        for (int pass = 0; pass < 1000; pass++) {
+            for (int i = 0; i < labels.length; i++) {
+                assertSame(labels[i], labeler.getLabel(EPOCH_DAY + i, Locale.UK));
+                lookupCount++;
+            }
+        }
+        return lookupCount;
+    }
+
+    /**
+     * Returns the bean which counts the bytes allocated by each thread, skipping the test
+     * if the JVM does not count them.
+     * @return the bean
+     */
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+
+    /**
+     * Formats a date as the labeler does, for comparison.
+     * @param epochDay the date
+     * @param locale the locale
+     * @return the formatted date
+     */
+    private static String format(long epochDay, Locale locale) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(epochDay * MILLIS_PER_DAY);
+    }
+
+}
@@ -0,0 +1,391 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of scheduling fetches: sharing, detaching from and cancelling them, with a fake
+ * transport whose requests are held until the test releases them.
+ * @author Edmund Johnson.
+ */
+public class FetchSchedulerTest {
+
+    private static final String LOCATION = "London,GB";
+    private static final int DAY_COUNT = 7;
+    private static final long CACHE_TTL_MILLIS = 60 * 60 * 1000;
+    /** The time after which a fetch is considered to have hung, in milliseconds. */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final Forecast CACHED = forecast(16606);
+    private static final Forecast FETCHED = forecast(16607);
+
+    private long nowMillis = 1434801600000L;
+    /** A request to make when the clock is next read, or null. */
+    private Runnable onClockRead;
+    private HeldTransport transport;
+    private ExecutorService executor;
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        transport = new HeldTransport();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        transport.release();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void subscribersToSameForecastShareOneRequest() throws Exception {
+        FetchScheduler scheduler = scheduler(executor);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        scheduler.fetch(LOCATION, DAY_COUNT, false, first);
+        transport.awaitRequest();
+        scheduler.fetch(LOCATION, DAY_COUNT, false, second);
+        assertEquals(1, scheduler.getActiveCount());
+        transport.release();
+
+        first.awaitForecast();
+        second.awaitForecast();
+        assertSame(FETCHED, first.getForecasts().get(0));
+        assertSame(FETCHED, second.getForecasts().get(0));
+        assertEquals(1, transport.requestCount.get());
+    }
+
+    @Test
+    public void detachedListenerIsNotCalledButFetchCompletes() throws Exception {
+        FetchScheduler scheduler = scheduler(executor);
+        RecordingListener detached = new RecordingListener();
+        RecordingListener later = new RecordingListener();
+
+        FetchScheduler.Subscription subscription =
+                scheduler.fetch(LOCATION, DAY_COUNT, false, detached);
+        transport.awaitRequest();
+        subscription.detach();
+        // A request made while the fetch continues attaches to it
+        scheduler.fetch(LOCATION, DAY_COUNT, false, later);
+        transport.release();
+
+        later.awaitForecast();
+        assertSame(FETCHED, later.getForecasts().get(0));
+        assertTrue(detached.getForecasts().isEmpty());
+        assertEquals(1, transport.requestCount.get());
+        assertEquals(1, transport.completedCount.get());
+    }
+
+    @Test
+    public void cancelledFetchIsStoppedOnlyOnceNoListenerWantsIt() throws Exception {
+        FetchScheduler scheduler = scheduler(executor);
+        RecordingListener cancelled = new RecordingListener();
+        RecordingListener waiting = new RecordingListener();
+
+        FetchScheduler.Subscription cancelledSubscription =
+                scheduler.fetch(LOCATION, DAY_COUNT, false, cancelled);
+        FetchScheduler.Subscription waitingSubscription =
+                scheduler.fetch(LOCATION, DAY_COUNT, false, waiting);
+        transport.awaitRequest();
+        cancelledSubscription.cancel();
+        assertEquals(1, scheduler.getActiveCount());
+
+        // The last listener's cancellation interrupts the request
+        waitingSubscription.cancel();
+        assertEquals(0, scheduler.getActiveCount());
+        assertTrue(transport.interrupted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, transport.completedCount.get());
+        assertTrue(cancelled.getForecasts().isEmpty());
+        assertTrue(waiting.getForecasts().isEmpty());
+        assertTrue(waiting.getFailures().isEmpty());
+    }
+
+    @Test
+    public void requestAsFetchIsCancelledStartsNewFetch() {
+        QueuedExecutorService queuedExecutor = new QueuedExecutorService();
+        final FetchScheduler scheduler = scheduler(queuedExecutor);
+        transport.release();
+        RecordingListener cancelled = new RecordingListener();
+        final RecordingListener later = new RecordingListener();
+
+        FetchScheduler.Subscription subscription =
+                scheduler.fetch(LOCATION, DAY_COUNT, false, cancelled);
+        // The forecast is requested again just as the fetch is being stopped
+        queuedExecutor.onCancel = new Runnable() {
+            @Override
+            public void run() {
+                scheduler.fetch(LOCATION, DAY_COUNT, false, later);
+            }
+        };
+        subscription.cancel();
+        queuedExecutor.runQueued();
+
+        assertEquals(1, transport.requestCount.get());
+        assertEquals(Arrays.asList(FETCHED), later.getForecasts());
+        assertTrue(cancelled.getForecasts().isEmpty());
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void forcedFetchAfterFreshnessCheckIsNotLost() {
+        FetchScheduler scheduler = scheduler(new DirectExecutorService());
+        transport.cacheEntry = new ForecastCache.Entry(CACHED, nowMillis, CACHE_TTL_MILLIS);
+        transport.release();
+        final RecordingListener refresher = new RecordingListener();
+        RecordingListener listener = new RecordingListener();
+
+        // The user refreshes just as the job finds the cached forecast fresh
+        final FetchScheduler forcingScheduler = scheduler;
+        onClockRead = new Runnable() {
+            @Override
+            public void run() {
+                forcingScheduler.fetch(LOCATION, DAY_COUNT, true, refresher);
+            }
+        };
+        scheduler.fetch(LOCATION, DAY_COUNT, false, listener);
+
+        assertEquals(1, transport.requestCount.get());
+        assertSame(FETCHED, refresher.getForecasts().get(1));
+        assertSame(FETCHED, listener.getForecasts().get(1));
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void unforcedRequestForFreshForecastMakesNoRequest() {
+        FetchScheduler scheduler = scheduler(new DirectExecutorService());
+        transport.cacheEntry = new ForecastCache.Entry(CACHED, nowMillis, CACHE_TTL_MILLIS);
+        RecordingListener listener = new RecordingListener();
+
+        scheduler.fetch(LOCATION, DAY_COUNT, false, listener);
+
+        assertEquals(0, transport.requestCount.get());
+        assertEquals(1, listener.getForecasts().size());
+        assertSame(CACHED, listener.getForecasts().get(0));
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    /**
+     * Returns a scheduler whose jobs run on an executor, and whose listeners are called
+     * on the thread which delivers to them.
+     * @param jobExecutor the executor on which jobs run
+     * @return the scheduler
+     */
+    private FetchScheduler scheduler(ExecutorService jobExecutor) {
+        Clock clock = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                Runnable request = onClockRead;
+                onClockRead = null;
+                if (request != null) {
+                    request.run();
+                }
+                return nowMillis;
+            }
+        };
+        NetworkMonitor networkMonitor = new NetworkMonitor() {
+            @Override
+            public boolean isConnected() {
+                return true;
+            }
+        };
+        return new FetchScheduler(transport, jobExecutor, directExecutor, clock, networkMonitor,
+                new Backoff(10, 100, new Random(0)), 1, 2);
+    }
+
+    /**
+     * Returns a one-day forecast.
+     * @param epochDay the date of the day
+     * @return the forecast
+     */
+    private static Forecast forecast(long epochDay) {
+        return new Forecast(1, new long[] {epochDay}, new double[] {20}, new double[] {10},
+                new String[] {"Clear"});
+    }
+
+    /**
+     * A transport whose requests wait until they are released.
+     */
+    private static final class HeldTransport implements ForecastTransport {
+        private volatile ForecastCache.Entry cacheEntry;
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CountDownLatch requested = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private final AtomicInteger completedCount = new AtomicInteger();
+
+        @Override
+        public String getHost() {
+            return "api.openweathermap.org";
+        }
+
+        @Override
+        public ForecastCache.Entry getCached(String location, int numDays) {
+            return cacheEntry;
+        }
+
+        @Override
+        public Forecast fetch(String location, int numDays, ForecastCache.Entry cacheEntry)
+                throws IOException {
+            requestCount.incrementAndGet();
+            requested.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new InterruptedIOException("Request cancelled");
+            }
+            completedCount.incrementAndGet();
+            return FETCHED;
+        }
+
+        void awaitRequest() throws InterruptedException {
+            assertTrue(requested.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    /**
+     * A listener which records what it is given.
+     */
+    private static final class RecordingListener implements FetchScheduler.Listener {
+        private final List<Forecast> forecasts = new ArrayList<>();
+        private final List<IOException> failures = new ArrayList<>();
+        private final CountDownLatch fetched = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onForecast(String location, Forecast forecast,
+                                            boolean fromCache) {
+            forecasts.add(forecast);
+            if (!fromCache) {
+                fetched.countDown();
+            }
+        }
+
+        @Override
+        public synchronized void onFailure(String location, IOException e) {
+            failures.add(e);
+        }
+
+        void awaitForecast() throws InterruptedException {
+            assertTrue(fetched.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        synchronized List<Forecast> getForecasts() {
+            return new ArrayList<>(forecasts);
+        }
+
+        synchronized List<IOException> getFailures() {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * An executor service which runs each job on the thread which submits it.
+     */
+    private static class DirectExecutorService extends AbstractExecutorService {
+        private boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+
+    /**
+     * An executor service which queues jobs until the test runs them, and which makes a
+     * request when a job is cancelled.
+     */
+    private static final class QueuedExecutorService extends DirectExecutorService {
+        private final List<Runnable> queued = new ArrayList<>();
+        /** A request to make when a job is next cancelled, or null. */
+        private Runnable onCancel;
+
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new FutureTask<T>(runnable, value) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    Runnable request = onCancel;
+                    onCancel = null;
+                    if (request != null) {
+                        request.run();
+                    }
+                    return cancelled;
+                }
+            };
+        }
+
+        /**
+         * Runs the queued jobs, including any queued while they run, in order.
+         */
+        void runQueued() {
+            while (!queued.isEmpty()) {
+                queued.remove(0).run();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of merging a new forecast into an old one by date: the same change set updates
+ * both a list and a store of days.
+ * @author Edmund Johnson.
+ */
+public class ForecastDiffTest {
+
+    /** The date of the first day, 2015-06-20. */
+    private static final long EPOCH_DAY = 16606;
+
+    @Test
+    public void overlappingForecastsChangeOnlyDifferingDays() {
+        // Yesterday has expired, two days have changed, and a new day has been added
+        Forecast oldForecast = forecast(EPOCH_DAY, 10, 11, 12, 13, 14, 15, 16);
+        Forecast newForecast = forecast(EPOCH_DAY + 1, 11, 20, 13, 14, 25, 16, 17);
+
+        ForecastDiff diff = ForecastDiff.calculate(oldForecast, newForecast);
+
+        assertEquals(Arrays.asList("removed 0+1", "changed 1+1", "changed 4+1", "inserted 6+1"),
+                listUpdates(diff));
+        assertEquals(3, diff.getWrittenDayCount());
+        assertEquals(Arrays.asList("removed " + EPOCH_DAY, "written " + (EPOCH_DAY + 2),
+                "written " + (EPOCH_DAY + 5), "written " + (EPOCH_DAY + 7)), storeUpdates(diff));
+    }
+
+    @Test
+    public void identicalForecastsHaveNoChanges() {
+        Forecast forecast = forecast(EPOCH_DAY, 10, 11, 12);
+
+        ForecastDiff diff = ForecastDiff.calculate(forecast, forecast(EPOCH_DAY, 10, 11, 12));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getWrittenDayCount());
+        assertTrue(storeUpdates(diff).isEmpty());
+    }
+
+    @Test
+    public void changeOfDetailOnlyIsWritten() {
+        Forecast oldForecast = forecast(EPOCH_DAY, 10, 11);
+        double[] humidities = {50, 60};
+        Forecast newForecast = new Forecast(2, new long[] {EPOCH_DAY, EPOCH_DAY + 1},
+                new double[] {10, 11}, new double[] {0, 1}, new String[] {"Clear", "Clear"},
+                null, humidities, null, null, null);
+
+        ForecastDiff diff = ForecastDiff.calculate(oldForecast, newForecast);
+
+        assertEquals(Arrays.asList("changed 0+2"), listUpdates(diff));
+        assertEquals(2, diff.getWrittenDayCount());
+    }
+
+    @Test
+    public void emptyStoreIsFilledAndEmptiedWholesale() {
+        Forecast empty = forecast(EPOCH_DAY);
+        Forecast forecast = forecast(EPOCH_DAY, 10, 11, 12);
+
+        assertEquals(Arrays.asList("inserted 0+3"),
+                listUpdates(ForecastDiff.calculate(empty, forecast)));
+        assertEquals(3, ForecastDiff.calculate(empty, forecast).getWrittenDayCount());
+        assertEquals(Arrays.asList("removed " + EPOCH_DAY, "removed " + (EPOCH_DAY + 1),
+                "removed " + (EPOCH_DAY + 2)),
+                storeUpdates(ForecastDiff.calculate(forecast, empty)));
+    }
+
+    @Test
+    public void firstForecastOfLocationIsWrittenWholesale() {
+        // A location which has not been stored before has no forecast to merge into
+        Forecast forecast = forecast(EPOCH_DAY, 10, 11, 12);
+
+        ForecastDiff diff = ForecastDiff.calculate(null, forecast);
+
+        assertEquals(Arrays.asList("inserted 0+3"), listUpdates(diff));
+        assertEquals(3, diff.getWrittenDayCount());
+        assertEquals(Arrays.asList("written " + EPOCH_DAY, "written " + (EPOCH_DAY + 1),
+                "written " + (EPOCH_DAY + 2)), storeUpdates(diff));
+    }
+
+    /**
+     * Returns a forecast of consecutive days, each "Clear", with lows which never change.
+     * @param firstEpochDay the date of the first day
+     * @param highs the high temperature of each day
+     * @return the forecast
+     */
+    private static Forecast forecast(long firstEpochDay, double... highs) {
+        int dayCount = highs.length;
+        long[] epochDays = new long[dayCount];
+        double[] lows = new double[dayCount];
+        String[] conditions = new String[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = firstEpochDay + i;
+            lows[i] = firstEpochDay + i - EPOCH_DAY;
+            conditions[i] = "Clear";
+        }
+        return new Forecast(dayCount, epochDays, highs, lows, conditions);
+    }
+
+    /**
+     * Returns the updates a diff makes to a list.
+     * @param diff the diff
+     * @return the updates, e.g. "inserted 6+1" for one day inserted at position 6
+     */
+    private static List<String> listUpdates(ForecastDiff diff) {
+        final List<String> updates = new ArrayList<>();
+        diff.dispatchUpdatesTo(new ForecastDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position + "+" + count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                updates.add("changed " + position + "+" + count);
+            }
+        });
+        return updates;
+    }
+
+    /**
+     * Returns the updates a diff makes to a store of days.
+     * @param diff the diff
+     * @return the updates, e.g. "written 16608" for the day 16608 written
+     */
+    private static List<String> storeUpdates(ForecastDiff diff) {
+        final List<String> updates = new ArrayList<>();
+        diff.dispatchDaysTo(new ForecastDiff.DayCallback() {
+            @Override
+            public void onDayWritten(Forecast forecast, int position) {
+                updates.add("written " + forecast.getEpochDay(position));
+            }
+
+            @Override
+            public void onDayRemoved(long epochDay) {
+                updates.add("removed " + epochDay);
+            }
+        });
+        return updates;
+    }
+
+}
@@ -0,0 +1,56 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of formatting forecasts, which are held in centigrade, in the units of display.
+ * @author Edmund Johnson.
+ */
+public class ForecastFormatterTest {
+
+    private static final String UNITS_METRIC = "metric";
+    /** The date of the first day, 2015-06-20. */
+    private static final long EPOCH_DAY = 16606;
+
+    @Test
+    public void sameForecastIsDisplayedInEitherUnits() {
+        Forecast forecast = new Forecast(1, new long[] {EPOCH_DAY}, new double[] {17.47},
+                new double[] {-4.6}, new String[] {"Rain"});
+        ForecastFormatter formatter = new ForecastFormatter();
+
+        assertEquals("Sat Jun 20 - Rain - 17/-5",
+                formatter.formatDay(forecast, 0, UNITS_METRIC, Locale.UK));
+        assertEquals("Sat Jun 20 - Rain - 63/24",
+                formatter.formatDay(forecast, 0, ForecastFormatter.UNITS_IMPERIAL, Locale.UK));
+        // Switching back needs nothing but the values already held
+        assertEquals("Sat Jun 20 - Rain - 17/-5",
+                formatter.formatDay(forecast, 0, UNITS_METRIC, Locale.UK));
+    }
+
+    @Test
+    public void temperatureIsConvertedOnlyForImperial() {
+        ForecastFormatter formatter = new ForecastFormatter();
+
+        assertEquals(-40, formatter.formatTemperature(-40, ForecastFormatter.UNITS_IMPERIAL), 0);
+        assertEquals(212, formatter.formatTemperature(100, ForecastFormatter.UNITS_IMPERIAL), 0);
+        assertEquals(100, formatter.formatTemperature(100, UNITS_METRIC), 0);
+    }
+
+    @Test
+    public void windIsFormattedInDisplayUnits() {
+        ForecastFormatter formatter = new ForecastFormatter();
+
+        assertEquals(36, formatter.formatWindSpeed(10, UNITS_METRIC), 0.001);
+        assertEquals(22.369, formatter.formatWindSpeed(10, ForecastFormatter.UNITS_IMPERIAL),
+                0.001);
+        assertEquals("N", formatter.getCompassPoint(0));
+        assertEquals("ENE", formatter.getCompassPoint(76));
+        assertEquals("NNW", formatter.getCompassPoint(346));
+        assertEquals("N", formatter.getCompassPoint(355));
+    }
+
+}
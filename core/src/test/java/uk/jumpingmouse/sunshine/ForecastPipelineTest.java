@@ -0,0 +1,521 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of fetching forecasts from several sources concurrently and reconciling them day
+ * by day, under a latency budget, using local stand-in sources.
+ * @author Edmund Johnson.
+ */
+public class ForecastPipelineTest {
+
+    private static final String LOCATION = "Bristol,UK";
+    private static final String UNITS = "metric";
+    private static final long TTL_MILLIS = 60 * 60 * 1000;
+    /** The date of the first day, 2015-06-20. */
+    private static final long EPOCH_DAY = 16606;
+    private static final double NAN = Double.NaN;
+
+    private ExecutorService executor;
+    private RecordingCache cache;
+    private MetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        cache = new RecordingCache();
+        metrics = new MetricsRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sourcesFillInWhatDailyForecastLacks() {
+        // The daily forecast has no details for its second day, and only two days
+        Forecast daily = forecast(EPOCH_DAY, new double[] {17, 15}, new double[] {60, NAN});
+        Forecast hourly = forecast(EPOCH_DAY, new double[] {16, 14, 13},
+                new double[] {NAN, NAN, NAN});
+        Forecast current = forecast(EPOCH_DAY + 1, new double[] {NAN}, new double[] {80});
+
+        Forecast reconciled = ForecastPipeline.reconcile(
+                new Forecast[] {daily, hourly, current}, 16);
+
+        assertEquals(3, reconciled.getDayCount());
+        assertEquals(17, reconciled.getHigh(0), 0);
+        assertEquals(60, reconciled.getHumidity(0), 0);
+        assertEquals(15, reconciled.getHigh(1), 0);
+        assertEquals(80, reconciled.getHumidity(1), 0);
+        assertEquals(13, reconciled.getHigh(2), 0);
+        assertTrue(Double.isNaN(reconciled.getHumidity(2)));
+        assertEquals(2, ForecastPipeline.reconcile(
+                new Forecast[] {daily, hourly, current}, 2).getDayCount());
+        // A day without temperatures cannot be displayed
+        assertEquals(0, ForecastPipeline.reconcile(
+                new Forecast[] {null, null, current}, 16).getDayCount());
+    }
+
+    @Test
+    public void partialForecastIsMergedIntoStoredForecastBeforeDailyForecast()
+            throws IOException {
+        long storedAtMillis = storeWeekForecast();
+        Forecast daily = forecast(EPOCH_DAY, new double[] {17, 15, 14},
+                new double[] {60, 65, 70});
+        ForecastPipeline pipeline = pipeline(new StandInTransport(daily, null, 300),
+                Arrays.asList(
+                        new StandInSource(forecast(EPOCH_DAY, new double[] {16, 14},
+                                new double[] {NAN, NAN}), null, 0),
+                        new StandInSource(forecast(EPOCH_DAY, new double[] {NAN},
+                                new double[] {80}), null, 100)),
+                5000);
+
+        Forecast forecast = pipeline.fetch(LOCATION, 7, null);
+
+        assertEquals(3, forecast.getDayCount());
+        assertEquals(17, forecast.getHigh(0), 0);
+        assertEquals(60, forecast.getHumidity(0), 0);
+        // The other sources' days were merged into the stored forecast, for display, before
+        // the daily forecast arrived, without shortening it or making it fresh
+        List<ForecastCache.Entry> merged = cache.getMergedEntries();
+        assertEquals(2, merged.size());
+        for (ForecastCache.Entry entry : merged) {
+            assertEquals(7, entry.getForecast().getDayCount());
+            assertEquals(storedAtMillis, entry.getFetchedAtMillis());
+        }
+        Forecast partial = merged.get(1).getForecast();
+        assertEquals(16, partial.getHigh(0), 0);
+        assertEquals(80, partial.getHumidity(0), 0);
+        assertEquals(20, partial.getHigh(2), 0);
+        // The forecast reconciled with the daily forecast replaced it
+        assertEquals(Arrays.asList(7, 3), cache.getPutDayCounts());
+        assertSame(forecast, cache.get(LOCATION, UNITS, 7).getForecast());
+    }
+
+    @Test
+    public void slowSourceIsCancelledWhenBudgetIsSpent() throws IOException {
+        Forecast daily = forecast(EPOCH_DAY, new double[] {17, 15}, new double[] {60, 65});
+        StandInSource slowSource = new StandInSource(daily, null, 10000);
+        ForecastPipeline pipeline = pipeline(new StandInTransport(daily, null, 0),
+                Collections.<ForecastSource>singletonList(slowSource), 300);
+
+        long startMillis = System.currentTimeMillis();
+        Forecast forecast = pipeline.fetch(LOCATION, 7, null);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        assertSame(daily, forecast);
+        assertTrue("Fetch took " + elapsedMillis + "ms", elapsedMillis < 2000);
+        assertEquals(1, metrics.counter("pipeline.sources_late").get());
+        assertEquals(Collections.singletonList(2), cache.getPutDayCounts());
+    }
+
+    @Test
+    public void dailyForecastIsStoredOnceReconciledWithCompletedSources() throws IOException {
+        Forecast daily = forecast(EPOCH_DAY, new double[] {17, 15}, new double[] {NAN, NAN});
+        ForecastPipeline pipeline = pipeline(new StandInTransport(daily, null, 300),
+                Collections.<ForecastSource>singletonList(new StandInSource(
+                        forecast(EPOCH_DAY, new double[] {16, 14}, new double[] {80, 85}),
+                        null, 0)),
+                5000);
+
+        Forecast forecast = pipeline.fetch(LOCATION, 7, null);
+
+        // The daily forecast was not stored alone, before the source's values were filled in
+        assertEquals(Collections.singletonList(2), cache.getPutDayCounts());
+        assertSame(forecast, cache.get(LOCATION, UNITS, 7).getForecast());
+        assertEquals(17, forecast.getHigh(0), 0);
+        assertEquals(80, forecast.getHumidity(0), 0);
+    }
+
+    @Test
+    public void dailyFailureIsReportedWhileStoredForecastIsKept() {
+        long storedAtMillis = storeWeekForecast();
+        IOException dailyFailure = new IOException("HTTP 500");
+        ForecastPipeline pipeline = pipeline(new StandInTransport(null, dailyFailure, 100),
+                Collections.<ForecastSource>singletonList(new StandInSource(
+                        forecast(EPOCH_DAY, new double[] {16, 14}, new double[] {NAN, NAN}),
+                        null, 0)),
+                5000);
+
+        try {
+            pipeline.fetch(LOCATION, 7, null);
+            fail("The fetch should have failed, so that it is retried");
+        } catch (IOException e) {
+            assertSame(dailyFailure, e);
+        }
+        assertEquals(1, metrics.counter("pipeline.sources_failed").get());
+        assertStoredForecastIsKept(storedAtMillis);
+    }
+
+    @Test
+    public void slowDailyForecastIsWaitedForBeyondBudget() throws IOException {
+        long storedAtMillis = storeWeekForecast();
+        ForecastPipeline pipeline = pipeline(
+                new StandInTransport(forecast(EPOCH_DAY, new double[] {17}, new double[] {60}),
+                        null, 600),
+                Arrays.asList(
+                        new StandInSource(forecast(EPOCH_DAY, new double[] {16, 14},
+                                new double[] {NAN, NAN}), null, 0),
+                        new StandInSource(forecast(EPOCH_DAY, new double[] {NAN},
+                                new double[] {80}), null, 10000)),
+                300);
+
+        long startMillis = System.currentTimeMillis();
+        Forecast forecast = pipeline.fetch(LOCATION, 7, null);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        // The daily forecast is never given up on, but the slow source is
+        assertTrue("Fetch took " + elapsedMillis + "ms", elapsedMillis < 2000);
+        assertEquals(2, forecast.getDayCount());
+        assertEquals(17, forecast.getHigh(0), 0);
+        assertEquals(14, forecast.getHigh(1), 0);
+        assertEquals(1, metrics.counter("pipeline.sources_late").get());
+        assertEquals(0, metrics.counter("pipeline.sources_failed").get());
+        // The first source's days were merged into the stored forecast before it arrived
+        assertEquals(1, cache.getMergedEntries().size());
+        assertEquals(storedAtMillis, cache.getMergedEntries().get(0).getFetchedAtMillis());
+        assertEquals(Arrays.asList(7, 2), cache.getPutDayCounts());
+    }
+
+    @Test
+    public void dailyFailureIsReportedIfNoSourceProvidesADay() {
+        IOException dailyFailure = new IOException("HTTP 500");
+        ForecastPipeline pipeline = pipeline(new StandInTransport(null, dailyFailure, 100),
+                Collections.<ForecastSource>singletonList(
+                        new StandInSource(null, new IOException("HTTP 404"), 0)),
+                5000);
+
+        try {
+            pipeline.fetch(LOCATION, 7, null);
+            fail("The fetch should have failed");
+        } catch (IOException e) {
+            assertSame(dailyFailure, e);
+        }
+    }
+
+    @Test
+    public void recordedSourcesAreFetchedAndReconciled() throws IOException {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                    new ForecastHttpClient(new InMemoryValidatorStore()), null,
+                    new InMemoryPlaceStore(), new WeatherDataParser(), Clock.SYSTEM);
+            ForecastPipeline pipeline = pipeline(fetcher, Arrays.asList(
+                    fetcher.getHourlySource(null), fetcher.getCurrentSource()), 5000);
+
+            Forecast forecast = pipeline.fetch(LOCATION, 16, null);
+
+            assertEquals(3, server.getRequestCount());
+            // The daily forecast is preferred, and has every value of every day
+            assertEquals(16, forecast.getDayCount());
+            assertEquals(EPOCH_DAY, forecast.getEpochDay(0));
+            assertEquals("Rain", forecast.getCondition(0));
+            assertEquals(88, forecast.getHumidity(0), 0.001);
+            assertNotNull(forecast.getPlace());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void unchangedSourceIsFilledInFromCachedForecast() throws IOException {
+        Forecast daily = forecast(EPOCH_DAY, new double[] {17, 15}, new double[] {NAN, NAN});
+        // The source's response has not changed since the forecast was cached
+        StandInSource source = new StandInSource(null, null, 0);
+        ForecastPipeline pipeline = pipeline(new StandInTransport(daily, null, 0),
+                Collections.<ForecastSource>singletonList(source), 5000);
+        // Yesterday's forecast, whose humidities were filled in by the source
+        ForecastCache.Entry cacheEntry = new ForecastCache.Entry(
+                forecast(EPOCH_DAY - 1, new double[] {10, 12, 14}, new double[] {40, 45, 50}),
+                0, 1);
+
+        Forecast forecast = pipeline.fetch(LOCATION, 7, cacheEntry);
+
+        assertEquals(2, forecast.getDayCount());
+        assertEquals(EPOCH_DAY, forecast.getEpochDay(0));
+        assertEquals(17, forecast.getHigh(0), 0);
+        assertEquals(45, forecast.getHumidity(0), 0);
+        assertEquals(50, forecast.getHumidity(1), 0);
+        assertEquals(1, source.fetchCount.get());
+        assertEquals(0, metrics.counter("pipeline.sources_failed").get());
+    }
+
+    @Test
+    public void sourcesWaitForTheirTurnToTheService() throws IOException {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            // Only one request to the service is allowed at a time
+            ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                    new ForecastHttpClient(new InMemoryValidatorStore(), metrics,
+                            AllocationCounter.NONE, new HostLimiter(1)), null,
+                    new InMemoryPlaceStore(), new WeatherDataParser(), Clock.SYSTEM);
+            ForecastPipeline pipeline = pipeline(fetcher, Arrays.asList(
+                    fetcher.getHourlySource(null), fetcher.getCurrentSource()), 5000);
+
+            Forecast forecast = pipeline.fetch(LOCATION, 16, null);
+
+            // Every source was fetched in turn, rather than skipped
+            assertEquals(3, server.getRequestCount());
+            assertEquals(0, metrics.counter("pipeline.sources_late").get());
+            assertEquals(0, metrics.counter("pipeline.sources_failed").get());
+            assertEquals(16, forecast.getDayCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void unchangedSourcesAreNotSentAgain() throws IOException {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                    new ForecastHttpClient(new InMemoryValidatorStore()), null,
+                    new InMemoryPlaceStore(), new WeatherDataParser(), Clock.SYSTEM);
+            ForecastPipeline pipeline = pipeline(fetcher, Arrays.asList(
+                    fetcher.getHourlySource(null), fetcher.getCurrentSource()), 5000);
+            // The first fetch resolves the location to a city id, by which it is requested
+            // from then on, so the third fetch is the first one which can be revalidated
+            pipeline.fetch(LOCATION, 16, null);
+            Forecast second = pipeline.fetch(LOCATION, 16, pipeline.getCached(LOCATION, 16));
+
+            // None of the service's responses has changed
+            Forecast third = pipeline.fetch(LOCATION, 16, pipeline.getCached(LOCATION, 16));
+
+            assertEquals(9, server.getRequestCount());
+            assertEquals(3, server.getNotModifiedCount());
+            assertEquals(second.getDayCount(), third.getDayCount());
+            assertEquals(second.getHumidity(0), third.getHumidity(0), 0);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void currentConditionsAreParsedAsTodaysForecast() throws IOException {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                    new ForecastHttpClient(new InMemoryValidatorStore()), cache,
+                    new InMemoryPlaceStore(), new WeatherDataParser(), Clock.SYSTEM);
+
+            Forecast current = fetcher.getCurrentSource().fetch(LOCATION, 7, false);
+            Forecast hourly = fetcher.getHourlySource(null).fetch(LOCATION, 7, false);
+
+            assertEquals(1, current.getDayCount());
+            assertEquals(EPOCH_DAY, current.getEpochDay(0));
+            assertEquals("Clouds", current.getCondition(0));
+            assertTrue(Double.isNaN(current.getHigh(0)));
+            assertEquals(72, current.getHumidity(0), 0);
+            assertEquals(240, current.getWindDirection(0), 0);
+            assertEquals(2654675, current.getPlace().getCityId());
+            // 40 3-hourly samples from mid-afternoon span 6 dates
+            assertEquals(6, hourly.getDayCount());
+            assertEquals(EPOCH_DAY, hourly.getEpochDay(0));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Stores a complete week's forecast, fetched two hours ago, so it is no longer fresh.
+     * @return the time at which the stored forecast was fetched
+     */
+    private long storeWeekForecast() {
+        double[] highs = new double[7];
+        double[] humidities = new double[7];
+        Arrays.fill(highs, 20);
+        Arrays.fill(humidities, 50);
+        long storedAtMillis = System.currentTimeMillis() - 2 * TTL_MILLIS;
+        cache.put(LOCATION, UNITS, 7, forecast(EPOCH_DAY, highs, humidities), storedAtMillis);
+        return storedAtMillis;
+    }
+
+    /**
+     * Checks that the stored week's forecast was neither shortened nor made fresh by the
+     * days of the sources which completed, which were merged into it.
+     * @param storedAtMillis the time at which the stored forecast was fetched
+     */
+    private void assertStoredForecastIsKept(long storedAtMillis) {
+        ForecastCache.Entry entry = cache.get(LOCATION, UNITS, 7);
+        assertEquals(7, entry.getForecast().getDayCount());
+        assertEquals(storedAtMillis, entry.getFetchedAtMillis());
+        assertFalse(entry.isFresh(System.currentTimeMillis()));
+        assertEquals(16, entry.getForecast().getHigh(0), 0);
+        assertEquals(50, entry.getForecast().getHumidity(0), 0);
+        assertEquals(20, entry.getForecast().getHigh(6), 0);
+        assertEquals(Collections.singletonList(7), cache.getPutDayCounts());
+    }
+
+    /**
+     * Returns a pipeline which caches reconciled forecasts in the recording cache.
+     * @param primary the transport of the daily forecast
+     * @param sources the other sources
+     * @param latencyBudgetMillis the latency budget, in milliseconds
+     * @return the pipeline
+     */
+    private ForecastPipeline pipeline(ForecastTransport primary, List<ForecastSource> sources,
+                                      long latencyBudgetMillis) {
+        return new ForecastPipeline(primary, sources, cache, UNITS, executor, Clock.SYSTEM,
+                latencyBudgetMillis, metrics);
+    }
+
+    /**
+     * Returns a forecast of consecutive days, each "Clear", with lows 5 degrees below highs.
+     * @param firstEpochDay the date of the first day
+     * @param highs the high temperature of each day, or NaN if it is not known
+     * @param humidities the humidity of each day, or NaN if it is not known
+     * @return the forecast
+     */
+    private static Forecast forecast(long firstEpochDay, double[] highs, double[] humidities) {
+        int dayCount = highs.length;
+        long[] epochDays = new long[dayCount];
+        double[] lows = new double[dayCount];
+        String[] conditions = new String[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = firstEpochDay + i;
+            lows[i] = highs[i] - 5;
+            conditions[i] = "Clear";
+        }
+        return new Forecast(dayCount, epochDays, highs, lows, conditions, null, humidities,
+                null, null, null);
+    }
+
+    /**
+     * Waits, as a source does for a response.
+     * @param delayMillis the time to wait, in milliseconds
+     * @throws InterruptedIOException if the wait is interrupted, e.g. by cancellation
+     */
+    private static void respondAfter(long delayMillis) throws InterruptedIOException {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * A local stand-in for the transport of the daily forecast.
+     */
+    private static final class StandInTransport implements ForecastTransport {
+        private final Forecast forecast;
+        private final IOException failure;
+        private final long delayMillis;
+
+        StandInTransport(Forecast forecast, IOException failure, long delayMillis) {
+            this.forecast = forecast;
+            this.failure = failure;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public String getHost() {
+            return "localhost";
+        }
+
+        @Override
+        public ForecastCache.Entry getCached(String location, int numDays) {
+            return null;
+        }
+
+        @Override
+        public Forecast fetch(String location, int numDays, ForecastCache.Entry cacheEntry)
+                throws IOException {
+            respondAfter(delayMillis);
+            if (failure != null) {
+                throw failure;
+            }
+            return forecast;
+        }
+    }
+
+    /**
+     * A local stand-in for a source of forecasts.
+     */
+    private static final class StandInSource implements ForecastSource {
+        private final Forecast forecast;
+        private final IOException failure;
+        private final long delayMillis;
+        private final AtomicInteger fetchCount = new AtomicInteger();
+
+        StandInSource(Forecast forecast, IOException failure, long delayMillis) {
+            this.forecast = forecast;
+            this.failure = failure;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public String getName() {
+            return "stand-in";
+        }
+
+        @Override
+        public Forecast fetch(String location, int numDays, boolean conditional)
+                throws IOException {
+            fetchCount.incrementAndGet();
+            respondAfter(delayMillis);
+            if (failure != null) {
+                throw failure;
+            }
+            return forecast;
+        }
+    }
+
+    /**
+     * A cache which records the number of days of each forecast put in it, and the forecast
+     * cached after each merge.
+     */
+    private static final class RecordingCache extends InMemoryForecastCache {
+        private final List<Integer> putDayCounts = new ArrayList<>();
+        private final List<ForecastCache.Entry> mergedEntries = new ArrayList<>();
+
+        RecordingCache() {
+            super(TTL_MILLIS);
+        }
+
+        @Override
+        public synchronized void put(String location, String units, int dayCount,
+                                     Forecast forecast, long fetchedAtMillis) {
+            putDayCounts.add(forecast.getDayCount());
+            super.put(location, units, dayCount, forecast, fetchedAtMillis);
+        }
+
+        @Override
+        public synchronized void merge(String location, String units, Forecast forecast) {
+            super.merge(location, units, forecast);
+            mergedEntries.add(get(location, units, 7));
+        }
+
+        synchronized List<Integer> getPutDayCounts() {
+            return new ArrayList<>(putDayCounts);
+        }
+
+        synchronized List<ForecastCache.Entry> getMergedEntries() {
+            return new ArrayList<>(mergedEntries);
+        }
+    }
+
+}
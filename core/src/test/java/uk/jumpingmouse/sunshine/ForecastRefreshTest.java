@@ -0,0 +1,336 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end tests of refreshing forecasts: fetching from a local stand-in for the weather
+ * service, parsing and caching, through the same {@link FetchScheduler} as the app uses.
+ * <p>
+ * Besides checking behaviour, the tests measure refresh latency and cache hit ratios,
+ * and fail if these regress beyond their budgets.
+ * @author Edmund Johnson.
+ */
+public class ForecastRefreshTest {
+
+    private static final String LOCATION = "Bristol,UK";
+    private static final int DAY_COUNT = 7;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final long CACHE_TTL_MILLIS = 60 * MINUTE_MILLIS;
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** The time allowed for a refresh on top of the injected latency, in milliseconds. */
+    private static final long LATENCY_BUDGET_MILLIS = 500;
+    /** The time after which a refresh is considered to have hung, in milliseconds. */
+    private static final long REFRESH_TIMEOUT_MILLIS = 10000;
+
+    private MockWeatherServer server;
+    private ExecutorService executor;
+    private FetchScheduler scheduler;
+    private PlaceStore placeStore;
+    private final AtomicLong nowMillis = new AtomicLong(1434801600000L);
+    private final AtomicBoolean online = new AtomicBoolean(true);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWeatherServer();
+        server.start();
+
+        Clock clock = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return nowMillis.get();
+            }
+        };
+        NetworkMonitor networkMonitor = new NetworkMonitor() {
+            @Override
+            public boolean isConnected() {
+                return online.get();
+            }
+        };
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        placeStore = new InMemoryPlaceStore();
+        ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                new ForecastHttpClient(new InMemoryValidatorStore()),
+                new InMemoryForecastCache(CACHE_TTL_MILLIS), placeStore,
+                new WeatherDataParser(), clock);
+        executor = Executors.newFixedThreadPool(4);
+        // Short retry delays keep the tests quick; backoff windows are timed by the fake clock
+        scheduler = new FetchScheduler(fetcher, executor, directExecutor, clock, networkMonitor,
+                new Backoff(10, 100, new Random(0)), MAX_ATTEMPTS, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void refreshFetchesAndParsesRecordedForecast() throws Exception {
+        Refresh refresh = refresh(false);
+
+        assertNull(refresh.failure);
+        assertNotNull(refresh.fetched);
+        assertEquals(DAY_COUNT, refresh.fetched.getDayCount());
+        assertEquals("Rain", refresh.fetched.getCondition(0));
+        assertEquals(17.47, refresh.fetched.getHigh(0), 0.001);
+        assertEquals(8.12, refresh.fetched.getLow(0), 0.001);
+        // The detail of each day is parsed too, so showing it needs no further request
+        assertEquals(95, refresh.fetched.getHumidity(0), 0.001);
+        assertEquals(1010.1, refresh.fetched.getPressure(0), 0.001);
+        assertEquals(2.98, refresh.fetched.getWindSpeed(0), 0.001);
+        assertEquals(76, refresh.fetched.getWindDirection(0), 0.001);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void locationIsRequestedByNameOnlyOnce() throws Exception {
+        refresh(true);
+        refresh(true);
+
+        assertTrue(server.takeRequestPath().contains("q=Bristol%2CUK&"));
+        // The recorded response identifies Bristol as city 2654675
+        assertTrue(server.takeRequestPath().contains("id=2654675&"));
+        assertEquals(2654675, placeStore.getPlace(LOCATION).getCityId());
+    }
+
+    @Test
+    public void geocodedLocationIsRequestedByCoordinates() throws Exception {
+        placeStore.putPlace(LOCATION, new Place(Place.NO_CITY_ID, 51.45, -2.59));
+
+        refresh(true);
+
+        assertTrue(server.takeRequestPath().contains("lat=51.45&lon=-2.59&"));
+    }
+
+    @Test
+    public void freshForecastIsServedFromCache() throws Exception {
+        // Refresh every 10 minutes for 3 hours and 20 minutes, with a cache TTL of an hour
+        int refreshCount = 20;
+        int cacheHits = 0;
+        for (int i = 0; i < refreshCount; i++) {
+            Refresh refresh = refresh(false);
+            assertNull(refresh.failure);
+            if (refresh.fetched == null) {
+                cacheHits++;
+            }
+            nowMillis.addAndGet(10 * MINUTE_MILLIS);
+        }
+
+        double hitRatio = (double) cacheHits / refreshCount;
+        System.out.println("Cache hit ratio: " + hitRatio
+                + " (" + server.getRequestCount() + " requests for " + refreshCount + " refreshes)");
+        // A fetch is only needed once an hour, i.e. on one refresh in six
+        assertEquals(4, server.getRequestCount());
+        assertTrue("Cache hit ratio " + hitRatio + " is below 0.8", hitRatio >= 0.8);
+    }
+
+    @Test
+    public void expiredForecastIsRevalidated() throws Exception {
+        // The first refresh resolves the location to a city id, by which it is requested
+        // from then on, so the second refresh is the first one which can be revalidated
+        refresh(false);
+        nowMillis.addAndGet(CACHE_TTL_MILLIS);
+        refresh(false);
+        nowMillis.addAndGet(CACHE_TTL_MILLIS);
+
+        // The forecast has not changed, so the service replies "304 Not Modified"
+        Refresh unchanged = refresh(false);
+        assertNull(unchanged.failure);
+        assertEquals(DAY_COUNT, unchanged.fetched.getDayCount());
+        assertEquals(1, server.getNotModifiedCount());
+
+        server.updateForecast();
+        refresh(true);
+        assertEquals(4, server.getRequestCount());
+        assertEquals(1, server.getNotModifiedCount());
+    }
+
+    @Test
+    public void refreshLatencyIsWithinBudget() throws Exception {
+        long latencyMillis = 200;
+        server.setLatencyMillis(latencyMillis);
+
+        int refreshCount = 10;
+        long[] elapsedMillis = new long[refreshCount];
+        for (int i = 0; i < refreshCount; i++) {
+            // Change the forecast, so that each refresh downloads it in full
+            server.updateForecast();
+            Refresh refresh = refresh(true);
+            assertNull(refresh.failure);
+            elapsedMillis[i] = refresh.elapsedMillis;
+        }
+
+        Arrays.sort(elapsedMillis);
+        long median = elapsedMillis[refreshCount / 2];
+        long p90 = elapsedMillis[refreshCount * 9 / 10];
+        System.out.println("Refresh latency with " + latencyMillis + "ms injected: median "
+                + median + "ms, p90 " + p90 + "ms, max " + elapsedMillis[refreshCount - 1] + "ms");
+        assertTrue("Median latency " + median + "ms is below the injected latency",
+                median >= latencyMillis);
+        assertTrue("p90 latency " + p90 + "ms exceeds the budget",
+                p90 <= latencyMillis + LATENCY_BUDGET_MILLIS);
+    }
+
+    @Test
+    public void throttledForecastIsParsed() throws Exception {
+        // The compressed 16-day forecast is about 1KB, so this takes about half a second
+        server.setThrottleBytesPerSecond(2 * 1024);
+
+        Refresh refresh = refreshDays(16, true);
+
+        assertNull(refresh.failure);
+        assertEquals(16, refresh.fetched.getDayCount());
+        System.out.println("Throttled 16-day refresh latency: " + refresh.elapsedMillis + "ms");
+        assertTrue("Throttled refresh took " + refresh.elapsedMillis + "ms",
+                refresh.elapsedMillis <= 1000 + LATENCY_BUDGET_MILLIS);
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        server.failNextRequests(MAX_ATTEMPTS - 1, 503);
+
+        Refresh refresh = refresh(false);
+
+        assertNull(refresh.failure);
+        assertEquals(DAY_COUNT, refresh.fetched.getDayCount());
+        assertEquals(MAX_ATTEMPTS, server.getRequestCount());
+    }
+
+    @Test
+    public void dropsAreRetried() throws Exception {
+        server.disconnectNextRequests(1);
+
+        Refresh refresh = refresh(false);
+
+        assertNull(refresh.failure);
+        assertEquals(DAY_COUNT, refresh.fetched.getDayCount());
+    }
+
+    @Test
+    public void persistentErrorsAreBackedOff() throws Exception {
+        server.failNextRequests(100, 500);
+
+        Refresh failed = refresh(false);
+        assertNotNull(failed.failure);
+        assertEquals(MAX_ATTEMPTS, server.getRequestCount());
+
+        // The service is not asked again until the backoff delay has passed...
+        Refresh backedOff = refresh(false);
+        assertNotNull(backedOff.failure);
+        assertEquals(MAX_ATTEMPTS, server.getRequestCount());
+
+        // ...unless the refresh is forced
+        server.failNextRequests(0, 500);
+        Refresh forced = refresh(true);
+        assertNull(forced.failure);
+        assertEquals(MAX_ATTEMPTS + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void offlineRefreshMakesNoRequest() throws Exception {
+        online.set(false);
+
+        Refresh refresh = refresh(true);
+
+        assertTrue(refresh.failure instanceof OfflineException);
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void offlineRefreshDeliversCachedForecast() throws Exception {
+        refresh(false);
+        nowMillis.addAndGet(CACHE_TTL_MILLIS);
+        online.set(false);
+
+        Refresh refresh = refresh(false);
+
+        assertNotNull(refresh.cached);
+        assertTrue(refresh.failure instanceof OfflineException);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Refreshes the forecast for the default number of days, and waits for the refresh
+     * to finish.
+     * @param forceFetch whether to fetch the forecast even if the cached one is fresh
+     * @return the outcome of the refresh
+     * @throws InterruptedException if the test is interrupted
+     */
+    private Refresh refresh(boolean forceFetch) throws InterruptedException {
+        return refreshDays(DAY_COUNT, forceFetch);
+    }
+
+    /**
+     * Refreshes the forecast, and waits for the refresh to finish.
+     * @param dayCount the number of days of forecast required
+     * @param forceFetch whether to fetch the forecast even if the cached one is fresh
+     * @return the outcome of the refresh
+     * @throws InterruptedException if the test is interrupted
+     */
+    private Refresh refreshDays(int dayCount, boolean forceFetch) throws InterruptedException {
+        final Refresh refresh = new Refresh();
+        long startNanos = System.nanoTime();
+        scheduler.fetch(LOCATION, dayCount, forceFetch, new FetchScheduler.Listener() {
+            @Override
+            public void onForecast(String location, Forecast forecast, boolean fromCache) {
+                if (fromCache) {
+                    refresh.cached = forecast;
+                } else {
+                    refresh.fetched = forecast;
+                }
+            }
+
+            @Override
+            public void onFailure(String location, IOException e) {
+                refresh.failure = e;
+            }
+        });
+
+        // The listener is called on the fetching thread, so the refresh has finished once
+        // the scheduler has no fetches in progress
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(REFRESH_TIMEOUT_MILLIS);
+        while (scheduler.getActiveCount() > 0) {
+            if (System.nanoTime() - startNanos > timeoutNanos) {
+                throw new AssertionError("Refresh did not finish");
+            }
+            Thread.sleep(1);
+        }
+        refresh.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return refresh;
+    }
+
+    /**
+     * The outcome of a refresh.
+     */
+    private static final class Refresh {
+        private volatile Forecast cached;
+        private volatile Forecast fetched;
+        private volatile IOException failure;
+        private long elapsedMillis;
+    }
+
+}
@@ -0,0 +1,141 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of writing parsed forecasts as a binary snapshot, and reading them back through
+ * a memory mapping.
+ * @author Edmund Johnson.
+ */
+public class ForecastSnapshotTest {
+
+    private static final long FETCHED_AT_MILLIS = 1434801600000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRoundTripsParsedForecasts() throws IOException {
+        Forecast bristol = parseRecordedForecast("/payloads/forecast_daily_7.json", 7);
+        Forecast london = parseRecordedForecast("/payloads/forecast_daily_16.json", 16);
+        Forecast empty = new Forecast(0, new long[0], new double[0], new double[0],
+                new String[0]);
+        ForecastSnapshot.Writer writer = new ForecastSnapshot.Writer();
+        writer.add("Bristol,UK", bristol, FETCHED_AT_MILLIS);
+        writer.add("London,UK", london, FETCHED_AT_MILLIS + 1);
+        writer.add("Z\u00fcrich,CH", empty, FETCHED_AT_MILLIS + 2);
+
+        File file = new File(folder.getRoot(), "forecasts.snapshot");
+        writer.writeTo(file);
+        ForecastSnapshot snapshot = ForecastSnapshot.open(file);
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        // 23 days of 56 bytes, and a few strings, rather than kilobytes of JSON
+        assertTrue("Snapshot is " + file.length() + " bytes", file.length() < 23 * 56 + 300);
+        assertEquals(3, snapshot.getLocationCount());
+        assertEquals(-1, snapshot.indexOf("Paris,FR"));
+        assertEquals("Z\u00fcrich,CH",
+                snapshot.getLocation(snapshot.indexOf("Z\u00fcrich,CH")));
+        assertEquals(FETCHED_AT_MILLIS + 1, snapshot.getFetchedAtMillis(1));
+        assertForecastsEqual(bristol, snapshot.getForecast(snapshot.indexOf("Bristol,UK")));
+        assertForecastsEqual(london, snapshot.getForecast(snapshot.indexOf("London,UK")));
+        assertEquals(0, snapshot.getForecast(2).getDayCount());
+        assertNull(snapshot.getForecast(2).getPlace());
+        // Conditions are interned, so equal conditions are the same instance
+        assertSame("Rain", snapshot.getForecast(0).getCondition(0));
+    }
+
+    @Test
+    public void rewrittenSnapshotReplacesPrevious() throws IOException {
+        Forecast bristol = parseRecordedForecast("/payloads/forecast_daily_7.json", 7);
+        File file = new File(folder.getRoot(), "forecasts.snapshot");
+        ForecastSnapshot.Writer writer = new ForecastSnapshot.Writer();
+        writer.add("Bristol,UK", bristol, FETCHED_AT_MILLIS);
+        writer.add("London,UK", bristol, FETCHED_AT_MILLIS);
+        writer.writeTo(file);
+
+        writer = new ForecastSnapshot.Writer();
+        writer.add("Bristol,UK", bristol, FETCHED_AT_MILLIS + 1);
+        writer.writeTo(file);
+
+        ForecastSnapshot snapshot = ForecastSnapshot.open(file);
+        assertEquals(1, snapshot.getLocationCount());
+        assertEquals(FETCHED_AT_MILLIS + 1, snapshot.getFetchedAtMillis(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFormatVersionIsRejected() throws IOException {
+        ForecastSnapshot.Writer writer = new ForecastSnapshot.Writer();
+        writer.add("Bristol,UK",
+                parseRecordedForecast("/payloads/forecast_daily_7.json", 7), FETCHED_AT_MILLIS);
+        ByteBuffer buffer = writer.toByteBuffer();
+        buffer.putInt(4, 99);
+        ForecastSnapshot.read(buffer);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshotIsRejected() throws IOException {
+        ForecastSnapshot.Writer writer = new ForecastSnapshot.Writer();
+        writer.add("Bristol,UK",
+                parseRecordedForecast("/payloads/forecast_daily_7.json", 7), FETCHED_AT_MILLIS);
+        ByteBuffer buffer = writer.toByteBuffer();
+        buffer.limit(buffer.limit() - 1);
+        ForecastSnapshot.read(buffer);
+    }
+
+    /**
+     * Asserts that two forecasts hold the same values.
+     * @param expected the expected forecast
+     * @param actual the actual forecast
+     */
+    private static void assertForecastsEqual(Forecast expected, Forecast actual) {
+        assertEquals(expected.getDayCount(), actual.getDayCount());
+        for (int i = 0; i < expected.getDayCount(); i++) {
+            assertEquals(expected.getEpochDay(i), actual.getEpochDay(i));
+            assertEquals(expected.getCondition(i), actual.getCondition(i));
+            assertEquals(expected.getHigh(i), actual.getHigh(i), 0);
+            assertEquals(expected.getLow(i), actual.getLow(i), 0);
+            assertEquals(expected.getHumidity(i), actual.getHumidity(i), 0);
+            assertEquals(expected.getPressure(i), actual.getPressure(i), 0);
+            assertEquals(expected.getWindSpeed(i), actual.getWindSpeed(i), 0);
+            assertEquals(expected.getWindDirection(i), actual.getWindDirection(i), 0);
+        }
+        assertNotNull(actual.getPlace());
+        assertEquals(expected.getPlace().getCityId(), actual.getPlace().getCityId());
+        assertEquals(expected.getPlace().getLatitude(), actual.getPlace().getLatitude(), 0);
+        assertEquals(expected.getPlace().getLongitude(), actual.getPlace().getLongitude(), 0);
+    }
+
+    /**
+     * Parses a recorded daily forecast.
+     * @param resource the name of the recorded forecast
+     * @param numDays the number of days in the forecast
+     * @return the forecast
+     * @throws IOException if the recorded forecast cannot be parsed
+     */
+    private static Forecast parseRecordedForecast(String resource, int numDays)
+            throws IOException {
+        InputStream in = ForecastSnapshotTest.class.getResourceAsStream(resource);
+        assertNotNull(in);
+        try {
+            return new WeatherDataParser().getWeatherDataFromStream(in, numDays);
+        } finally {
+            in.close();
+        }
+    }
+
+}
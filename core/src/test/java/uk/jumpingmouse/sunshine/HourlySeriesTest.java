@@ -0,0 +1,178 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of ingesting the 3-hourly forecast: streaming it into a series, aggregating it into
+ * daily forecasts, encoding the series compactly, and fetching it alongside the daily forecast.
+ * @author Edmund Johnson.
+ */
+public class HourlySeriesTest {
+
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    private static final int SAMPLE_COUNT = 40;
+    private static final double DELTA = 1e-4;
+
+    @Test
+    public void parsedSeriesHasEverySampleInOrder() throws IOException {
+        HourlySeries series = parseRecordedSeries(null);
+
+        assertEquals(SAMPLE_COUNT, series.getSampleCount());
+        for (int i = 1; i < series.getSampleCount(); i++) {
+            assertEquals(3 * 60 * 60, series.getEpochSecond(i) - series.getEpochSecond(i - 1));
+        }
+        // Conditions are interned, so equal conditions are the same instance
+        assertSame("Clouds", series.getCondition(0));
+        assertSame(series.getCondition(0), series.getCondition(5));
+    }
+
+    @Test
+    public void streamingAggregatesMatchTheSeries() throws IOException {
+        DailyAggregator aggregator = new DailyAggregator(6);
+        HourlySeries series = parseRecordedSeries(aggregator);
+        Forecast forecast = aggregator.getForecast();
+
+        // 40 samples from 15:00 on the first day span six UTC days
+        assertEquals(6, forecast.getDayCount());
+        for (int day = 0; day < forecast.getDayCount(); day++) {
+            long epochDay = forecast.getEpochDay(day);
+            double high = Double.NEGATIVE_INFINITY;
+            double low = Double.POSITIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+            Map<String, Integer> tally = new HashMap<>();
+            for (int i = 0; i < series.getSampleCount(); i++) {
+                if (series.getEpochSecond(i) / SECONDS_PER_DAY != epochDay) {
+                    continue;
+                }
+                double temperature = series.getTemperature(i);
+                high = Math.max(high, temperature);
+                low = Math.min(low, temperature);
+                sum += temperature;
+                count++;
+                Integer previous = tally.get(series.getCondition(i));
+                tally.put(series.getCondition(i), previous == null ? 1 : previous + 1);
+            }
+            assertEquals(high, forecast.getHigh(day), DELTA);
+            assertEquals(low, forecast.getLow(day), DELTA);
+            assertEquals(sum / count, aggregator.getMean(day), DELTA);
+            int dominantCount = tally.get(forecast.getCondition(day));
+            for (int conditionCount : tally.values()) {
+                assertTrue(conditionCount <= dominantCount);
+            }
+        }
+
+        // Aggregating the stored series gives the same result as aggregating the stream
+        DailyAggregator replayed = series.aggregateDaily(forecast.getEpochDay(1), 1);
+        assertEquals(1, replayed.getDayCount());
+        assertEquals(aggregator.getMean(1), replayed.getMean(0), DELTA);
+        assertEquals(forecast.getCondition(1), replayed.getForecast().getCondition(0));
+    }
+
+    @Test
+    public void aggregatorPrefersFirstConditionOnTie() {
+        DailyAggregator aggregator = new DailyAggregator(1);
+        aggregator.add(0, 10, "Clouds");
+        aggregator.add(3 * 60 * 60, 14, "Rain");
+        aggregator.add(6 * 60 * 60, 12, "Rain");
+        aggregator.add(9 * 60 * 60, 16, "Clouds");
+        // A sample on the next day is beyond the maximum number of days
+        aggregator.add(SECONDS_PER_DAY, 30, "Clear");
+
+        Forecast forecast = aggregator.getForecast();
+        assertEquals(1, forecast.getDayCount());
+        assertEquals("Clouds", forecast.getCondition(0));
+        assertEquals(16, forecast.getHigh(0), DELTA);
+        assertEquals(10, forecast.getLow(0), DELTA);
+        assertEquals(13, aggregator.getMean(0), DELTA);
+    }
+
+    @Test
+    public void encodedSeriesRoundTripsCompactly() throws IOException {
+        HourlySeries series = parseRecordedSeries(null);
+
+        byte[] data = series.toBytes();
+        HourlySeries decoded = HourlySeries.fromBytes(data);
+
+        assertTrue("Encoded series is " + data.length + " bytes", data.length < 500);
+        assertEquals(series.getSampleCount(), decoded.getSampleCount());
+        for (int i = 0; i < series.getSampleCount(); i++) {
+            assertEquals(series.getEpochSecond(i), decoded.getEpochSecond(i));
+            assertEquals(series.getTemperature(i), decoded.getTemperature(i), 0);
+            assertSame(series.getCondition(i), decoded.getCondition(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownEncodingVersionIsRejected() throws IOException {
+        byte[] data = parseRecordedSeries(null).toBytes();
+        data[0] = 99;
+        HourlySeries.fromBytes(data);
+    }
+
+    @Test
+    public void seriesIsFetchedWithChangedDailyForecastOnly() throws Exception {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            final Map<String, HourlySeries> stored = new HashMap<>();
+            HourlySeriesStore seriesStore = new HourlySeriesStore() {
+                @Override
+                public void putSeries(String location, HourlySeries series,
+                                      long fetchedAtMillis) {
+                    stored.put(location, series);
+                }
+            };
+            ForecastFetcher fetcher = new ForecastFetcher(server.getBaseUrl(),
+                    new ForecastHttpClient(new InMemoryValidatorStore()),
+                    new InMemoryForecastCache(60 * 60 * 1000), new InMemoryPlaceStore(),
+                    seriesStore, new WeatherDataParser(), Clock.SYSTEM);
+
+            fetcher.fetch("Bristol,UK", 7, null);
+            assertEquals(2, server.getRequestCount());
+            server.takeRequestPath();
+            // The city id from the daily forecast identifies the location
+            assertTrue(server.takeRequestPath().startsWith("/data/2.5/forecast?id=2654675&"));
+            assertNotNull(stored.get("Bristol,UK"));
+            assertEquals(SAMPLE_COUNT, stored.get("Bristol,UK").getSampleCount());
+
+            // The first request by city id is unconditional, so fetches the series again,
+            // but the unchanged daily forecast then does not
+            fetcher.fetch("Bristol,UK", 7, fetcher.getCached("Bristol,UK", 7));
+            fetcher.fetch("Bristol,UK", 7, fetcher.getCached("Bristol,UK", 7));
+            assertEquals(1, server.getNotModifiedCount());
+            assertEquals(5, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Parses the recorded 3-hourly forecast.
+     * @param aggregator the aggregator to which each sample is added, or null
+     * @return the series
+     * @throws IOException if the recorded forecast cannot be parsed
+     */
+    private static HourlySeries parseRecordedSeries(DailyAggregator aggregator)
+            throws IOException {
+        InputStream in = HourlySeriesTest.class.getResourceAsStream(
+                "/payloads/forecast_3hour.json");
+        assertNotNull(in);
+        try {
+            return new WeatherDataParser().getHourlyDataFromStream(in, aggregator);
+        } finally {
+            in.close();
+        }
+    }
+
+}
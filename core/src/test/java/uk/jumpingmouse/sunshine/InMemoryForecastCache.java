@@ -0,0 +1,48 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A forecast cache held in memory, standing in for the app's content provider in tests.
+ * @author Edmund Johnson.
+ */
+public class InMemoryForecastCache implements ForecastCache {
+
+    private final long timeToLiveMillis;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param timeToLiveMillis the time for which a cached forecast is fresh, in milliseconds
+     */
+    public InMemoryForecastCache(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Override
+    public synchronized Entry get(String location, String units, int dayCount) {
+        return entries.get(location + '|' + units + '|' + dayCount);
+    }
+
+    @Override
+    public synchronized void put(String location, String units, int dayCount, Forecast forecast,
+                                 long fetchedAtMillis) {
+        entries.put(location + '|' + units + '|' + dayCount,
+                new Entry(forecast, fetchedAtMillis, timeToLiveMillis));
+    }
+
+    @Override
+    public synchronized void merge(String location, String units, Forecast forecast) {
+        String keyPrefix = location + '|' + units + '|';
+        for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+            if (cached.getKey().startsWith(keyPrefix)) {
+                Entry entry = cached.getValue();
+                cached.setValue(new Entry(
+                        ForecastPipeline.mergeDays(entry.getForecast(), forecast),
+                        entry.getFetchedAtMillis(), timeToLiveMillis));
+            }
+        }
+    }
+
+}
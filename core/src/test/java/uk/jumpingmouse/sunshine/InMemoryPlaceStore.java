@@ -0,0 +1,24 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A store of resolved places held in memory, for use in tests.
+ * @author Edmund Johnson.
+ */
+public class InMemoryPlaceStore implements PlaceStore {
+
+    private final Map<String, Place> places = new HashMap<>();
+
+    @Override
+    public synchronized Place getPlace(String location) {
+        return places.get(location);
+    }
+
+    @Override
+    public synchronized void putPlace(String location, Place place) {
+        places.put(location, place);
+    }
+
+}
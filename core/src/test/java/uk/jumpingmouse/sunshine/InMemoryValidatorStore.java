@@ -0,0 +1,31 @@
+package uk.jumpingmouse.sunshine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A store for HTTP response validators held in memory, for use in tests.
+ * @author Edmund Johnson.
+ */
+public class InMemoryValidatorStore implements ForecastHttpClient.ValidatorStore {
+
+    private final Map<String, String> eTags = new HashMap<>();
+    private final Map<String, String> lastModifieds = new HashMap<>();
+
+    @Override
+    public synchronized String getETag(String url) {
+        return eTags.get(url);
+    }
+
+    @Override
+    public synchronized String getLastModified(String url) {
+        return lastModifieds.get(url);
+    }
+
+    @Override
+    public synchronized void putValidators(String url, String eTag, String lastModified) {
+        eTags.put(url, eTag);
+        lastModifieds.put(url, lastModified);
+    }
+
+}
@@ -0,0 +1,148 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the in-memory forecast cache: forecasts once read or stored are returned without
+ * reading the persistent cache again, within a bound on their size.
+ * @author Edmund Johnson.
+ */
+public class MemoryForecastCacheTest {
+
+    private static final String UNITS = "metric";
+    private static final long TTL_MILLIS = 60 * 60 * 1000;
+    private static final long FETCHED_AT_MILLIS = 1434801600000L;
+
+    private CountingCache persistentCache;
+    private MemoryForecastCache cache;
+    private long forecastSizeBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        persistentCache = new CountingCache();
+        // Measure a 7-day forecast, then bound the cache to two of them
+        MemoryForecastCache measure = new MemoryForecastCache(new CountingCache(), TTL_MILLIS,
+                Long.MAX_VALUE, new MetricsRegistry());
+        measure.put("Bristol,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+        forecastSizeBytes = measure.getSizeBytes();
+        cache = new MemoryForecastCache(persistentCache, TTL_MILLIS, 2 * forecastSizeBytes,
+                new MetricsRegistry());
+    }
+
+    @Test
+    public void forecastIsReadFromPersistentCacheOnce() throws IOException {
+        persistentCache.put("Bristol,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+
+        ForecastCache.Entry first = cache.get("Bristol,UK", UNITS, 7);
+        ForecastCache.Entry second = cache.get("Bristol,UK", UNITS, 7);
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(1, persistentCache.getCount);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void storedForecastIsHeldAndPersisted() throws IOException {
+        Forecast forecast = forecast(7);
+        cache.put("Bristol,UK", UNITS, 7, forecast, FETCHED_AT_MILLIS);
+
+        ForecastCache.Entry entry = cache.get("Bristol,UK", UNITS, 7);
+        assertSame(forecast, entry.getForecast());
+        assertEquals(FETCHED_AT_MILLIS, entry.getFetchedAtMillis());
+        assertEquals(0, persistentCache.getCount);
+        assertNotNull(persistentCache.get("Bristol,UK", UNITS, 7));
+        // Fewer days may be served from the held forecast, but not more
+        assertNotNull(cache.get("Bristol,UK", UNITS, 5));
+        assertNull(cache.get("Bristol,UK", UNITS, 16));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedForecastIsEvictedBeyondSizeBound() throws IOException {
+        cache.put("Bristol,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+        cache.put("London,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+        // Using Bristol makes London the least recently used
+        cache.get("Bristol,UK", UNITS, 7);
+        cache.put("Paris,FR", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * forecastSizeBytes, cache.getSizeBytes());
+        cache.get("Bristol,UK", UNITS, 7);
+        cache.get("Paris,FR", UNITS, 7);
+        assertEquals(0, persistentCache.getCount);
+        cache.get("London,UK", UNITS, 7);
+        assertEquals(1, persistentCache.getCount);
+    }
+
+    @Test
+    public void trimmingReleasesHeldForecasts() throws IOException {
+        cache.put("Bristol,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+        cache.put("London,UK", UNITS, 7, forecast(7), FETCHED_AT_MILLIS);
+
+        cache.trimToSize(forecastSizeBytes);
+        assertEquals(forecastSizeBytes, cache.getSizeBytes());
+        cache.evictAll();
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(2, cache.getEvictionCount());
+
+        // Nothing is lost, it is read from the persistent cache again
+        assertNotNull(cache.get("London,UK", UNITS, 7));
+        assertEquals(1, persistentCache.getCount);
+    }
+
+    @Test
+    public void olderForecastDoesNotReplaceNewer() throws IOException {
+        Forecast newer = forecast(7);
+        cache.put("Bristol,UK", UNITS, 7, newer, FETCHED_AT_MILLIS + 1);
+        // As if a read of the persistent cache had completed after the put
+        persistentCache.put("Bristol,UK", UNITS, 16, forecast(16), FETCHED_AT_MILLIS);
+        cache.get("Bristol,UK", UNITS, 16);
+
+        assertSame(newer, cache.get("Bristol,UK", UNITS, 7).getForecast());
+    }
+
+    /**
+     * Returns a forecast.
+     * @param dayCount the number of days in the forecast
+     * @return the forecast
+     */
+    private static Forecast forecast(int dayCount) {
+        long[] epochDays = new long[dayCount];
+        String[] conditions = new String[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = 16606 + i;
+            conditions[i] = "Clear";
+        }
+        return new Forecast(dayCount, epochDays, new double[dayCount], new double[dayCount],
+                conditions);
+    }
+
+    /**
+     * A persistent cache which counts how often it is read.
+     */
+    private static final class CountingCache extends InMemoryForecastCache {
+        private int getCount;
+
+        private CountingCache() {
+            super(TTL_MILLIS);
+        }
+
+        @Override
+        public synchronized Entry get(String location, String units, int dayCount) {
+            getCount++;
+            return super.get(location, units, dayCount);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the metrics registry, and of the metrics recorded by the HTTP client.
+ * @author Edmund Johnson.
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogramReportsBucketBoundsOfPercentiles() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        MetricsRegistry.Histogram histogram =
+                metrics.histogram("test_ms", MetricsRegistry.BOUNDS_MILLIS);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(45000);
+
+        assertSame(histogram, metrics.histogram("test_ms", MetricsRegistry.BOUNDS_MILLIS));
+        assertEquals(101, histogram.getCount());
+        assertEquals(100, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        // The overflow bucket is reported by the maximum
+        assertEquals(45000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws InterruptedException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        final MetricsRegistry.Counter counter = metrics.counter("test.count");
+        final MetricsRegistry.Histogram histogram =
+                metrics.histogram("test_us", MetricsRegistry.BOUNDS_MICROS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.increment();
+                        histogram.record(i % 100);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(40000, counter.get());
+        assertEquals(40000, histogram.getCount());
+    }
+
+    @Test
+    public void httpClientRecordsEachStage() throws IOException {
+        MockWeatherServer server = new MockWeatherServer();
+        server.start();
+        try {
+            MetricsRegistry metrics = new MetricsRegistry();
+            ForecastHttpClient httpClient = new ForecastHttpClient(new InMemoryValidatorStore(),
+                    metrics, AllocationCounter.NONE);
+            ForecastHttpClient.BodyReader<Forecast> reader =
+                    new ForecastHttpClient.BodyReader<Forecast>() {
+                @Override
+                public Forecast read(InputStream in) throws IOException {
+                    return new WeatherDataParser().getWeatherDataFromStream(in, 7);
+                }
+            };
+            String url = server.getBaseUrl() + "forecast/daily?id=2654675&cnt=7";
+            httpClient.get(url, false, reader);
+            httpClient.get(url, true, reader);
+
+            assertEquals(2, metrics.counter("http.requests").get());
+            assertEquals(1, metrics.counter("http.not_modified").get());
+            assertEquals(2, metrics.histogram("http.ttfb_ms", MetricsRegistry.BOUNDS_MILLIS)
+                    .getCount());
+            // Only the first response had a body
+            assertEquals(1, metrics.histogram("parse.time_ms", MetricsRegistry.BOUNDS_MILLIS)
+                    .getCount());
+            assertEquals(0, metrics.histogram("parse.allocated_bytes",
+                    MetricsRegistry.BOUNDS_BYTES).getCount());
+
+            StringWriter dump = new StringWriter();
+            metrics.dump(new PrintWriter(dump));
+            assertTrue(dump.toString(), dump.toString().contains("http.requests: 2"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+}
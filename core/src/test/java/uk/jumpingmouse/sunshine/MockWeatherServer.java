@@ -0,0 +1,256 @@
+package uk.jumpingmouse.sunshine;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import okio.Buffer;
+
+/**
+ * A local stand-in for the OpenWeatherMap daily and 3-hourly forecast and current weather
+ * API, which serves recorded responses, and into which latency, throttling and errors can
+ * be injected.
+ * <p>
+ * Like the real service, it compresses responses for clients which accept gzip, and
+ * replies "304 Not Modified" to a request whose ETag matches the current forecast.
+ * @author Edmund Johnson.
+ */
+public class MockWeatherServer {
+
+    /** The path of the API, which is the base URL of the weather service. */
+    private static final String PATH_API = "/data/2.5/";
+    private static final String PATH_DAILY_FORECAST = PATH_API + "forecast/daily";
+    private static final String PATH_HOURLY_FORECAST = PATH_API + "forecast";
+    private static final String PATH_CURRENT_WEATHER = PATH_API + "weather";
+    private static final String PARAM_DAY_COUNT = "cnt=";
+
+    private final MockWebServer server = new MockWebServer();
+    private final byte[] payload7Days;
+    private final byte[] payload16Days;
+    private final byte[] payloadHourly;
+    private final byte[] payloadCurrent;
+
+    /** The version of the forecast, which changes its ETag. */
+    private final AtomicInteger forecastVersion = new AtomicInteger(1);
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    /** The number of requests still to be failed, and how. */
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+    private volatile int failureStatusCode;
+    private volatile boolean failureDisconnects;
+
+    private volatile long latencyMillis;
+    private volatile long throttleBytesPerSecond;
+
+    /**
+     * Constructor.
+     * @throws IOException if the recorded responses cannot be read
+     */
+    public MockWeatherServer() throws IOException {
+        payload7Days = readResource("/payloads/forecast_daily_7.json");
+        payload16Days = readResource("/payloads/forecast_daily_16.json");
+        payloadHourly = readResource("/payloads/forecast_3hour.json");
+        payloadCurrent = readResource("/payloads/weather_current.json");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+    }
+
+    /**
+     * Starts the server on a free local port.
+     * @throws IOException if the server cannot be started
+     */
+    public void start() throws IOException {
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     * @throws IOException if the server cannot be stopped
+     */
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Returns the base URL of the weather service served by this server.
+     * @return the base URL, ending with '/'
+     */
+    public String getBaseUrl() {
+        return server.url(PATH_API).toString();
+    }
+
+    /**
+     * Sets the delay before each response body is sent, as for a slow network or server.
+     * @param latencyMillis the delay, in milliseconds
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits the rate at which response bodies are sent, as for a poor connection.
+     * @param bytesPerSecond the maximum rate, or 0 for no limit
+     */
+    public void setThrottleBytesPerSecond(long bytesPerSecond) {
+        this.throttleBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Fails the next requests with an HTTP error status.
+     * @param count the number of requests to fail
+     * @param statusCode the HTTP status of the failed responses
+     */
+    public void failNextRequests(int count, int statusCode) {
+        failureStatusCode = statusCode;
+        failureDisconnects = false;
+        failuresRemaining.set(count);
+    }
+
+    /**
+     * Fails the next requests by closing the connection without responding.
+     * @param count the number of requests to fail
+     */
+    public void disconnectNextRequests(int count) {
+        failureDisconnects = true;
+        failuresRemaining.set(count);
+    }
+
+    /**
+     * Changes the forecast, so that requests conditional on the previous one are
+     * answered with the full forecast.
+     */
+    public void updateForecast() {
+        forecastVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of requests received.
+     * @return the number of requests received
+     */
+    public int getRequestCount() {
+        return server.getRequestCount();
+    }
+
+    /**
+     * Returns the path and query of the next request received, in the order received.
+     * @return the path and query of the request
+     * @throws InterruptedException if interrupted while waiting for a request
+     */
+    public String takeRequestPath() throws InterruptedException {
+        return server.takeRequest().getPath();
+    }
+
+    /**
+     * Returns the number of requests answered with "304 Not Modified".
+     * @return the number of requests answered with "304 Not Modified"
+     */
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * Returns the response to a request.
+     * @param request the request
+     * @return the response
+     */
+    private MockResponse respond(RecordedRequest request) {
+        if (failuresRemaining.getAndDecrement() > 0) {
+            if (failureDisconnects) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+            }
+            return new MockResponse().setResponseCode(failureStatusCode);
+        }
+
+        String path = request.getPath();
+        byte[] payload;
+        if (path.startsWith(PATH_DAILY_FORECAST + '?')) {
+            payload = path.contains(PARAM_DAY_COUNT + "16") ? payload16Days : payload7Days;
+        } else if (path.startsWith(PATH_HOURLY_FORECAST + '?')) {
+            payload = payloadHourly;
+        } else if (path.startsWith(PATH_CURRENT_WEATHER + '?')) {
+            payload = payloadCurrent;
+        } else {
+            return new MockResponse().setResponseCode(404);
+        }
+        String eTag = "\"" + payload.length + '-' + forecastVersion.get() + "\"";
+
+        MockResponse response = new MockResponse().setHeader("ETag", eTag);
+        if (eTag.equals(request.getHeader("If-None-Match"))) {
+            notModifiedCount.incrementAndGet();
+            return response.setResponseCode(304);
+        }
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip").setBody(gzip(payload));
+        } else {
+            response.setBody(new Buffer().write(payload));
+        }
+        response.setHeader("Content-Type", "application/json; charset=utf-8");
+
+        if (latencyMillis > 0) {
+            response.setBodyDelay(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+        if (throttleBytesPerSecond > 0) {
+            // Send the body in ten chunks a second, for a smooth rate
+            response.throttleBody(Math.max(1, throttleBytesPerSecond / 10), 100,
+                    TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Compresses data with gzip.
+     * @param data the data
+     * @return the compressed data
+     */
+    private static Buffer gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(data);
+            out.close();
+            return new Buffer().write(bytes.toByteArray());
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a resource in full.
+     * @param name the name of the resource
+     * @return the content of the resource
+     * @throws IOException if the resource cannot be read
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = MockWeatherServer.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of coalescing bursts of requests to refresh the forecasts into single refreshes,
+ * timed by a fake clock.
+ * @author Edmund Johnson.
+ */
+public class RefreshCoalescerTest {
+
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 2000;
+    private static final long MIN_FORCED_INTERVAL_MILLIS = 60 * 1000;
+
+    private FakeTimer timer;
+    private RefreshCoalescer coalescer;
+    /** The refreshes made, and whether each was forced. */
+    private final List<Boolean> refreshes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        coalescer = new RefreshCoalescer(timer, timer, DEBOUNCE_MILLIS, MAX_DELAY_MILLIS,
+                MIN_FORCED_INTERVAL_MILLIS, new MetricsRegistry(),
+                new RefreshCoalescer.Action() {
+                    @Override
+                    public void refresh(boolean forceFetch) {
+                        refreshes.add(forceFetch);
+                    }
+                });
+    }
+
+    @Test
+    public void burstOfRequestsIsMergedIntoOneRefresh() {
+        // A location change, then three impatient taps on refresh
+        coalescer.request(false);
+        timer.advance(100);
+        coalescer.request(true);
+        timer.advance(200);
+        coalescer.request(true);
+        timer.advance(200);
+        coalescer.request(true);
+        timer.advance(DEBOUNCE_MILLIS - 1);
+        assertTrue(refreshes.isEmpty());
+
+        timer.advance(1);
+        assertEquals(Arrays.asList(true), refreshes);
+        assertFalse(coalescer.isPending());
+        assertEquals(4, coalescer.getRequestCount());
+        assertEquals(1, coalescer.getRefreshCount());
+    }
+
+    @Test
+    public void steadyRequestsAreRefreshedWithinMaximumDelay() {
+        for (int i = 0; i < 10; i++) {
+            coalescer.request(false);
+            timer.advance(DEBOUNCE_MILLIS / 2);
+        }
+
+        // 2.5 seconds of requests, refreshed after 2 seconds and again at the end
+        assertEquals(Arrays.asList(false), refreshes);
+        timer.advance(DEBOUNCE_MILLIS);
+        assertEquals(Arrays.asList(false, false), refreshes);
+    }
+
+    @Test
+    public void forcedRefreshIsNotRepeatedWithinMinimumInterval() {
+        coalescer.request(true);
+        timer.advance(DEBOUNCE_MILLIS);
+        timer.advance(10 * 1000);
+        coalescer.request(true);
+        timer.advance(DEBOUNCE_MILLIS);
+        timer.advance(MIN_FORCED_INTERVAL_MILLIS);
+        coalescer.request(true);
+        timer.advance(DEBOUNCE_MILLIS);
+
+        // The second refresh only fetches forecasts which are no longer fresh
+        assertEquals(Arrays.asList(true, false, true), refreshes);
+    }
+
+    @Test
+    public void cancelledRefreshIsNotMade() {
+        coalescer.request(true);
+        timer.advance(100);
+        coalescer.cancel();
+        timer.advance(DEBOUNCE_MILLIS);
+        assertTrue(refreshes.isEmpty());
+
+        // A request after cancelling starts a new burst
+        coalescer.request(false);
+        timer.advance(DEBOUNCE_MILLIS);
+        assertEquals(Arrays.asList(false), refreshes);
+    }
+
+    /**
+     * A fake clock, and an executor which runs delayed tasks as the clock is advanced.
+     */
+    private static final class FakeTimer implements Clock, RefreshCoalescer.DelayedExecutor {
+        private long nowMillis = 1434801600000L;
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> runAtMillis = new ArrayList<>();
+
+        @Override
+        public long currentTimeMillis() {
+            return nowMillis;
+        }
+
+        @Override
+        public void executeDelayed(Runnable command, long delayMillis) {
+            tasks.add(command);
+            runAtMillis.add(nowMillis + delayMillis);
+        }
+
+        /**
+         * Advances the clock, running the tasks which become due, in order.
+         * @param millis the time by which to advance the clock, in milliseconds
+         */
+        void advance(long millis) {
+            long targetMillis = nowMillis + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (runAtMillis.get(i) <= targetMillis
+                            && (next < 0 || runAtMillis.get(i) < runAtMillis.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                nowMillis = runAtMillis.remove(next);
+                tasks.remove(next).run();
+            }
+            nowMillis = targetMillis;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package uk.jumpingmouse.sunshine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of recording the milestones of starting the app.
+ * @author Edmund Johnson.
+ */
+public class StartupTimerTest {
+
+    @Test
+    public void onlyFirstMilestonesAreRecorded() {
+        StartupTimer timer = new StartupTimer(1000);
+        assertEquals(StartupTimer.NOT_REACHED, timer.getTimeToFirstFrameMillis());
+
+        assertTrue(timer.markFrame(1400));
+        assertFalse(timer.markFrame(1416));
+        assertEquals(StartupTimer.NOT_REACHED, timer.getFirstFrameToDataMillis());
+        assertTrue(timer.markData(1550));
+        assertFalse(timer.markData(2000));
+
+        assertEquals(400, timer.getTimeToFirstFrameMillis());
+        assertEquals(150, timer.getFirstFrameToDataMillis());
+    }
+
+    @Test
+    public void dataReadyBeforeFirstFrameIsShownInIt() {
+        StartupTimer timer = new StartupTimer(1000);
+        timer.markData(1300);
+        timer.markFrame(1400);
+
+        assertEquals(0, timer.getFirstFrameToDataMillis());
+    }
+
+}